@@ -0,0 +1,80 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for generating and validating numbers with each of the HMAC algorithms. The prepared keys use the cached
+ * midstates, the static methods decode the secret and calculate the midstates on each call, and the JCE benchmark is
+ * a reused {@link Mac} that is initialized with the key on each call.
+ *
+ * @author graywatson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlgorithmBenchmark {
+
+	@Param({ "SHA1", "SHA256", "SHA512" })
+	public TotpAlgorithm algorithm;
+
+	private TotpKey key;
+	private SecretKeySpec keySpec;
+	private Mac mac;
+	private int invalidNumber;
+
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		key = TotpKey.fromBase32(GenerateBenchmark.SECRET, algorithm);
+		keySpec = new SecretKeySpec(key.getKey(), algorithm.getMacAlgorithm());
+		mac = Mac.getInstance(algorithm.getMacAlgorithm());
+		invalidNumber = (generatePrepared() + 1) % 1000000;
+	}
+
+	@Benchmark
+	public int generatePrepared() throws GeneralSecurityException {
+		return key.generateNumber(GenerateBenchmark.TIME_MILLIS, TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	@Benchmark
+	public int generateStatic() throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.generateNumber(GenerateBenchmark.SECRET, GenerateBenchmark.TIME_MILLIS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH,
+				algorithm);
+	}
+
+	@Benchmark
+	public int generateJce() throws GeneralSecurityException {
+		long value = TimeBasedOneTimePasswordUtil.generateValue(GenerateBenchmark.TIME_MILLIS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS);
+		mac.init(keySpec);
+		byte[] hash = mac.doFinal(TimeBasedOneTimePasswordUtil.valueToBytes(value));
+		return TimeBasedOneTimePasswordUtil.truncateHash(hash, hash.length,
+				TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	@Benchmark
+	public boolean validatePreparedInvalid() throws GeneralSecurityException {
+		return key.validateCurrentNumber(invalidNumber, 30000, GenerateBenchmark.TIME_MILLIS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+}
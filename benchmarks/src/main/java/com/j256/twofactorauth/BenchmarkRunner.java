@@ -0,0 +1,53 @@
+package com.j256.twofactorauth;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks single-threaded and then with doubling numbers of threads up to the number of cores. The results
+ * for each thread count are written as JSON into the results directory so they can be tracked over time.
+ *
+ * <p>
+ * Usage: java -jar target/benchmarks.jar [benchmark-regex] [results-directory]
+ * </p>
+ *
+ * <p>
+ * To run a single configuration with the regular JMH options use: java -cp target/benchmarks.jar
+ * org.openjdk.jmh.Main ...
+ * </p>
+ *
+ * @author graywatson
+ */
+public class BenchmarkRunner {
+
+	private static final String DEFAULT_RESULTS_DIR = "target/jmh-results";
+
+	public static void main(String[] args) throws RunnerException {
+		String include = (args.length > 0 ? args[0] : ".*Benchmark.*");
+		File resultsDir = new File(args.length > 1 ? args[1] : DEFAULT_RESULTS_DIR);
+		if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+			throw new IllegalStateException("Could not create results directory: " + resultsDir);
+		}
+
+		int numCores = Runtime.getRuntime().availableProcessors();
+		for (int numThreads = 1;; numThreads *= 2) {
+			if (numThreads > numCores) {
+				numThreads = numCores;
+			}
+			File resultFile = new File(resultsDir, "results-" + numThreads + "-threads.json");
+			ChainedOptionsBuilder options = new OptionsBuilder().include(include)
+					.threads(numThreads)
+					.resultFormat(ResultFormatType.JSON)
+					.result(resultFile.getPath());
+			new Runner(options.build()).run();
+			if (numThreads >= numCores) {
+				break;
+			}
+		}
+	}
+}
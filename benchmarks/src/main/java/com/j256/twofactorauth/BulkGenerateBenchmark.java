@@ -0,0 +1,88 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for generating the numbers for many keys at once compared to one key at a time. The scores are per key.
+ *
+ * @author graywatson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkGenerateBenchmark {
+
+	private static final int NUM_KEYS = 1024;
+
+	private final long timeStep = GenerateBenchmark.TIME_MILLIS / 1000
+			/ TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+	private byte[][] keys;
+	private TotpKey[] totpKeys;
+	private int[] output;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		keys = new byte[NUM_KEYS][];
+		totpKeys = new TotpKey[NUM_KEYS];
+		for (int i = 0; i < NUM_KEYS; i++) {
+			keys[i] = new byte[10];
+			random.nextBytes(keys[i]);
+			totpKeys[i] = new TotpKey(keys[i]);
+		}
+		output = new int[NUM_KEYS];
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_KEYS)
+	public int[] generateNumbersBulk() throws GeneralSecurityException {
+		TimeBasedOneTimePasswordUtil.generateNumbers(keys, timeStep, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH,
+				output);
+		return output;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_KEYS)
+	public int[] generateNumbersLoop() throws GeneralSecurityException {
+		for (int i = 0; i < NUM_KEYS; i++) {
+			output[i] = TimeBasedOneTimePasswordUtil.generateNumberFromKeyValue(keys[i], null, timeStep,
+					TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+		}
+		return output;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_KEYS)
+	public int[] generateNumbersPreparedBulk() throws GeneralSecurityException {
+		TimeBasedOneTimePasswordUtil.generateNumbers(totpKeys, timeStep,
+				TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH, output);
+		return output;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_KEYS)
+	public int[] generateNumbersPreparedLoop() throws GeneralSecurityException {
+		for (int i = 0; i < NUM_KEYS; i++) {
+			output[i] = totpKeys[i].generateNumber(GenerateBenchmark.TIME_MILLIS,
+					TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+		}
+		return output;
+	}
+}
@@ -0,0 +1,144 @@
+package com.j256.twofactorauth;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the secret decoding, secret generation, and string formatting methods. This is in the same package as
+ * the library so it can get at the package-private methods.
+ *
+ * @author graywatson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	private int number = 9637;
+	private String code = "009637";
+	private byte[] base32Bytes = GenerateBenchmark.SECRET.getBytes(Charset.forName("US-ASCII"));
+	private byte[] hexBytes = GenerateBenchmark.HEX_SECRET.getBytes(Charset.forName("US-ASCII"));
+	private byte[] output = new byte[64];
+	private byte[] secretBytes = TimeBasedOneTimePasswordUtil.decodeHex(GenerateBenchmark.HEX_SECRET);
+	private char[] secretChars = new char[64];
+	private SecretGenerator secretGenerator = new SecretGenerator();
+	private SecretPool secretPool;
+
+	@Setup
+	public void setup() {
+		secretPool = new SecretPool();
+		secretPool.start();
+	}
+
+	@TearDown
+	public void tearDown() {
+		secretPool.close();
+	}
+
+	@Benchmark
+	public byte[] decodeBase32() {
+		return TimeBasedOneTimePasswordUtil.decodeBase32(GenerateBenchmark.SECRET);
+	}
+
+	@Benchmark
+	public byte[] decodeBase32Codec() {
+		return Base32Codec.decode(GenerateBenchmark.SECRET);
+	}
+
+	@Benchmark
+	public int decodeBase32CodecIntoBuffer() {
+		return Base32Codec.decode(GenerateBenchmark.SECRET, output, 0);
+	}
+
+	@Benchmark
+	public int decodeBase32CodecAsciiBytes() {
+		return Base32Codec.decode(base32Bytes, 0, base32Bytes.length, output, 0);
+	}
+
+	@Benchmark
+	public byte[] decodeHex() {
+		return TimeBasedOneTimePasswordUtil.decodeHex(GenerateBenchmark.HEX_SECRET);
+	}
+
+	@Benchmark
+	public int decodeHexCodecAsciiBytes() {
+		return HexCodec.decode(hexBytes, 0, hexBytes.length, output, 0);
+	}
+
+	@Benchmark
+	public int encodeHexCodecIntoBuffer() {
+		return HexCodec.encode(secretBytes, 0, secretBytes.length, output, 0);
+	}
+
+	@Benchmark
+	public String zeroPrepend() {
+		return TimeBasedOneTimePasswordUtil.zeroPrepend(number, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	@Benchmark
+	public int formatNumberIntoBuffer() {
+		return TimeBasedOneTimePasswordUtil.formatNumber(number, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH,
+				secretChars, 0);
+	}
+
+	@Benchmark
+	public int parseCode() {
+		return TimeBasedOneTimePasswordUtil.parseCode(code, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	@Benchmark
+	public int parseInt() {
+		return Integer.parseInt(code);
+	}
+
+	@Benchmark
+	public String generateBase32Secret() {
+		return TimeBasedOneTimePasswordUtil.generateBase32Secret();
+	}
+
+	@Benchmark
+	public int generateBase32SecretIntoBuffer() {
+		return secretGenerator.generateBase32Secret(16, secretChars, 0);
+	}
+
+	/**
+	 * Per secret cost is this divided by 100.
+	 */
+	@Benchmark
+	public String[] generateBase32SecretsBulk100() {
+		return secretGenerator.generateBase32Secrets(100, 16);
+	}
+
+	/**
+	 * Takes from the pool which is refilled in the background, falling back to generating if it is empty.
+	 */
+	@Benchmark
+	public String secretPoolNextSecret() {
+		return secretPool.nextSecret();
+	}
+
+	@Benchmark
+	public String generateHexSecret() {
+		return TimeBasedOneTimePasswordUtil.generateHexSecret();
+	}
+
+	@Benchmark
+	public String qrImageUrl() {
+		return TimeBasedOneTimePasswordUtil.qrImageUrl("user@j256.com", GenerateBenchmark.SECRET);
+	}
+}
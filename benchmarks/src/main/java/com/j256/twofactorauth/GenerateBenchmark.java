@@ -0,0 +1,64 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for generating numbers with the static methods and with a prepared {@link TotpKey}.
+ *
+ * @author graywatson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerateBenchmark {
+
+	static final String SECRET = "NY4A5CPJZ46LXZCP";
+	static final String HEX_SECRET = "3132333435363738393031323334353637383930";
+	static final long TIME_MILLIS = 1234567890123L;
+
+	private TotpKey key;
+
+	@Setup
+	public void setup() {
+		key = TotpKey.fromBase32(SECRET);
+	}
+
+	@Benchmark
+	public int generateNumber() throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.generateNumber(SECRET, TIME_MILLIS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS);
+	}
+
+	@Benchmark
+	public int generateNumberHex() throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.generateNumberHex(HEX_SECRET, TIME_MILLIS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS);
+	}
+
+	@Benchmark
+	public String generateNumberString() throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.generateNumberString(SECRET, TIME_MILLIS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	@Benchmark
+	public int generateNumberPrepared() throws GeneralSecurityException {
+		return key.generateNumber(TIME_MILLIS, TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+}
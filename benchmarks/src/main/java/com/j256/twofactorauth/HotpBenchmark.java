@@ -0,0 +1,79 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for HOTP resynchronization where the token is at the end of the searched range. The naive search
+ * calculates both numbers for each counter from the secret string like a caller would with only the single number
+ * methods. The parallel search splits the range across the common {@link ForkJoinPool} in chunks of 100 counters.
+ *
+ * @author graywatson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotpBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int searchLength;
+
+	private TotpKey key;
+	private int firstNumber;
+	private int secondNumber;
+	private HotpResynchronizer resynchronizer;
+
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		key = TotpKey.fromBase32(GenerateBenchmark.SECRET);
+		firstNumber = CounterBasedOneTimePasswordUtil.generateNumber(key, searchLength - 1, 6);
+		secondNumber = CounterBasedOneTimePasswordUtil.generateNumber(key, searchLength, 6);
+		resynchronizer = new HotpResynchronizer(ForkJoinPool.commonPool(), 100);
+	}
+
+	@Benchmark
+	public long resynchronize() throws GeneralSecurityException {
+		return CounterBasedOneTimePasswordUtil.resynchronize(key, firstNumber, secondNumber, 0, searchLength, 6);
+	}
+
+	@Benchmark
+	public long resynchronizeParallel() throws GeneralSecurityException {
+		return resynchronizer.resynchronize(key, firstNumber, secondNumber, 0, searchLength, 6);
+	}
+
+	@Benchmark
+	public long resynchronizeNaive() throws GeneralSecurityException {
+		for (long counter = 0; counter < searchLength; counter++) {
+			if (CounterBasedOneTimePasswordUtil.generateNumber(GenerateBenchmark.SECRET, counter, 6) == firstNumber
+					&& CounterBasedOneTimePasswordUtil.generateNumber(GenerateBenchmark.SECRET, counter + 1,
+							6) == secondNumber) {
+				return counter + 2;
+			}
+		}
+		return CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER;
+	}
+
+	@Benchmark
+	public long validateLookAhead() throws GeneralSecurityException {
+		// the number is at the end of the default look-ahead
+		int lookAhead = CounterBasedOneTimePasswordUtil.DEFAULT_LOOK_AHEAD;
+		return CounterBasedOneTimePasswordUtil.validateNumber(key, secondNumber, searchLength - lookAhead, lookAhead,
+				6);
+	}
+}
@@ -0,0 +1,75 @@
+package com.j256.twofactorauth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for rendering the QR image of the otpauth URL locally. The images are written to a stream that discards
+ * the bytes so only the encoding and rendering are measured.
+ *
+ * @author graywatson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QrBenchmark {
+
+	private static final String KEY_ID = "user@j256.com";
+
+	private QrCode code;
+	private OutputStream nullOutput;
+
+	@Setup
+	public void setup(final Blackhole blackhole) {
+		code = TimeBasedOneTimePasswordUtil.qrCode(KEY_ID, GenerateBenchmark.SECRET,
+				TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH, TotpAlgorithm.SHA1);
+		nullOutput = new OutputStream() {
+			@Override
+			public void write(int b) {
+				blackhole.consume(b);
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) {
+				blackhole.consume(bytes);
+			}
+		};
+	}
+
+	@Benchmark
+	public QrCode encode() {
+		return TimeBasedOneTimePasswordUtil.qrCode(KEY_ID, GenerateBenchmark.SECRET,
+				TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH, TotpAlgorithm.SHA1);
+	}
+
+	@Benchmark
+	public void writePng() throws IOException {
+		code.writePng(TimeBasedOneTimePasswordUtil.DEFAULT_QR_DIMENTION, nullOutput);
+	}
+
+	@Benchmark
+	public String toSvg() {
+		return code.toSvg(TimeBasedOneTimePasswordUtil.DEFAULT_QR_DIMENTION);
+	}
+
+	@Benchmark
+	public void writeQrImagePng() throws IOException {
+		TimeBasedOneTimePasswordUtil.writeQrImagePng(KEY_ID, GenerateBenchmark.SECRET, nullOutput);
+	}
+}
@@ -0,0 +1,56 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for generating secrets with the different {@link java.security.SecureRandom} algorithms. Algorithms that
+ * are not available in the JVM fail the setup and are skipped.
+ *
+ * @author graywatson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecretGeneratorBenchmark {
+
+	@Param({ "default", "SHA1PRNG", "NativePRNG", "NativePRNGNonBlocking", "DRBG" })
+	public String algorithm;
+
+	private SecretGenerator generator;
+	private char[] chars = new char[SecretGenerator.DEFAULT_BASE32_LENGTH];
+
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		if (algorithm.equals("default")) {
+			generator = new SecretGenerator();
+		} else {
+			generator = new SecretGenerator(algorithm);
+		}
+	}
+
+	@Benchmark
+	public String generateBase32Secret() {
+		return generator.generateBase32Secret();
+	}
+
+	@Benchmark
+	public int generateBase32SecretIntoBuffer() {
+		return generator.generateBase32Secret(chars.length, chars, 0);
+	}
+}
@@ -0,0 +1,89 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for validating numbers with different window sizes and search orders. The valid number is the one for the
+ * current time-step which is the common login case and the invalid number has to check every time-step in the window.
+ *
+ * @author graywatson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidateBenchmark {
+
+	@Param({ "0", "30000", "90000", "300000" })
+	public long windowMillis;
+
+	@Param({ "LINEAR", "CENTER_OUT" })
+	public WindowSearchOrder searchOrder;
+
+	private TotpKey key;
+	private int validNumber;
+	private int invalidNumber;
+	private int malformedNumber;
+
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		TimeBasedOneTimePasswordUtil.setWindowSearchOrder(searchOrder);
+		key = TotpKey.fromBase32(GenerateBenchmark.SECRET);
+		validNumber = key.generateNumber(GenerateBenchmark.TIME_MILLIS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+		invalidNumber = (validNumber + 1) % 1000000;
+		// too many digits so it can never match
+		malformedNumber = validNumber + 1000000;
+	}
+
+	@TearDown
+	public void tearDown() {
+		TimeBasedOneTimePasswordUtil.setWindowSearchOrder(WindowSearchOrder.CENTER_OUT);
+	}
+
+	@Benchmark
+	public boolean validateCurrentNumberValid() throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.validateCurrentNumber(GenerateBenchmark.SECRET, validNumber, windowMillis,
+				GenerateBenchmark.TIME_MILLIS, TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS);
+	}
+
+	@Benchmark
+	public boolean validateCurrentNumberInvalid() throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.validateCurrentNumber(GenerateBenchmark.SECRET, invalidNumber,
+				windowMillis, GenerateBenchmark.TIME_MILLIS, TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS);
+	}
+
+	@Benchmark
+	public boolean validatePreparedValid() throws GeneralSecurityException {
+		return key.validateCurrentNumber(validNumber, windowMillis, GenerateBenchmark.TIME_MILLIS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	@Benchmark
+	public boolean validatePreparedInvalid() throws GeneralSecurityException {
+		return key.validateCurrentNumber(invalidNumber, windowMillis, GenerateBenchmark.TIME_MILLIS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	@Benchmark
+	public boolean validatePreparedMalformed() throws GeneralSecurityException {
+		return key.validateCurrentNumber(malformedNumber, windowMillis, GenerateBenchmark.TIME_MILLIS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+}
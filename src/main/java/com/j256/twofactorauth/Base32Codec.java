@@ -0,0 +1,400 @@
+package com.j256.twofactorauth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Table driven base-32 decoder and encoder (RFC 4648 alphabet) which works with buffers that are passed in. Each run of
+ * 8 characters is looked up in a 128 entry table and collected in a 40-bit accumulator which is written out as 5 bytes.
+ * The input to the decoder can be any {@link CharSequence} or ASCII bytes in an array or {@link ByteBuffer} so secrets
+ * read from a database column or a request do not need to be turned into a string first.
+ *
+ * <p>
+ * Decoding accepts upper or lower case and stops at the first '=' padding character. Without padding, any leftover bits
+ * at the end are written as a final partial byte to match {@link TimeBasedOneTimePasswordUtil#decodeBase32(String)}.
+ * </p>
+ *
+ * <p>
+ * Encoding writes upper case characters without padding which is what the authenticator applications expect. The last
+ * character holds any leftover bits followed by zero bits so only byte counts that are a multiple of 5 decode back to
+ * the same length.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class Base32Codec {
+
+	/** table value of characters that are not in the alphabet */
+	private static final byte INVALID = -1;
+	/** table value of the '=' padding character */
+	private static final byte PADDING = -2;
+	private static final byte[] DECODE_TABLE = new byte[128];
+	private static final byte[] ENCODE_TABLE = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".getBytes(Charset.forName("US-ASCII"));
+
+	static {
+		for (int i = 0; i < DECODE_TABLE.length; i++) {
+			DECODE_TABLE[i] = INVALID;
+		}
+		for (int i = 0; i < 26; i++) {
+			DECODE_TABLE['A' + i] = (byte) i;
+			DECODE_TABLE['a' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++) {
+			DECODE_TABLE['2' + i] = (byte) (26 + i);
+		}
+		DECODE_TABLE['='] = PADDING;
+	}
+
+	/**
+	 * Return the maximum number of bytes that this number of characters decodes into. The output buffer must have at
+	 * least this much room.
+	 */
+	public static int maxDecodedLength(int numChars) {
+		// each base-32 character encodes 5 bits
+		return (int) (((long) numChars * 5 + 7) / 8);
+	}
+
+	/**
+	 * Decode the base-32 characters and return them in a new array of the exact length.
+	 */
+	public static byte[] decode(CharSequence input) {
+		int numChars = input.length();
+		// padding ends the input so find it to size the result
+		for (int i = 0; i < numChars; i++) {
+			if (input.charAt(i) == '=') {
+				numChars = i;
+				break;
+			}
+		}
+		int length = maxDecodedLength(numChars);
+		if (numChars < input.length()) {
+			// with padding, any partial byte is dropped
+			length = numChars * 5 / 8;
+		}
+		byte[] result = new byte[length];
+		decodeChars(input, result, 0);
+		return result;
+	}
+
+	/**
+	 * Decode the base-32 characters into the output buffer.
+	 *
+	 * @param input
+	 *            Characters to decode.
+	 * @param output
+	 *            Buffer that the bytes are written into which needs room for {@link #maxDecodedLength(int)} bytes.
+	 * @param outputOffset
+	 *            Offset in the output buffer to start writing.
+	 * @return The number of bytes written.
+	 * @throws IllegalArgumentException
+	 *             If there is an invalid character in the input or the output buffer is too small.
+	 */
+	public static int decode(CharSequence input, byte[] output, int outputOffset) {
+		checkOutput(maxDecodedLength(input.length()), output.length, outputOffset);
+		return decodeChars(input, output, outputOffset);
+	}
+
+	/**
+	 * Similar to {@link #decode(CharSequence, byte[], int)} but the input is ASCII bytes.
+	 *
+	 * @param input
+	 *            Array of ASCII bytes to decode.
+	 * @param inputOffset
+	 *            Offset of the first byte to decode in the input.
+	 * @param inputLength
+	 *            Number of bytes to decode.
+	 * @param output
+	 *            Buffer that the bytes are written into which needs room for {@link #maxDecodedLength(int)} bytes.
+	 * @param outputOffset
+	 *            Offset in the output buffer to start writing.
+	 * @return The number of bytes written.
+	 */
+	public static int decode(byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) {
+		checkOutput(maxDecodedLength(inputLength), output.length, outputOffset);
+		return decodeBytes(input, inputOffset, inputLength, output, outputOffset);
+	}
+
+	/**
+	 * Similar to {@link #decode(CharSequence, byte[], int)} but decodes the ASCII bytes from the position to the limit
+	 * of the buffer. The position of the buffer is moved to the limit.
+	 */
+	public static int decode(ByteBuffer input, byte[] output, int outputOffset) {
+		int numBytes = input.remaining();
+		checkOutput(maxDecodedLength(numBytes), output.length, outputOffset);
+		int written;
+		if (input.hasArray()) {
+			written = decodeBytes(input.array(), input.arrayOffset() + input.position(), numBytes, output,
+					outputOffset);
+		} else {
+			int outputIndex = outputOffset;
+			long bits = 0;
+			int numChars = 0;
+			boolean padded = false;
+			for (int i = input.position(); i < input.limit(); i++) {
+				int ch = input.get(i) & 0xFF;
+				int val = lookup(ch);
+				if (val == PADDING) {
+					padded = true;
+					break;
+				} else if (val < 0) {
+					throw new IllegalArgumentException("Invalid base-32 character: " + (char) ch);
+				}
+				bits = (bits << 5) | val;
+				if (++numChars == 8) {
+					outputIndex = writeGroup(bits, output, outputIndex);
+					bits = 0;
+					numChars = 0;
+				}
+			}
+			written = finish(bits, numChars, padded, output, outputIndex) - outputOffset;
+		}
+		input.position(input.limit());
+		return written;
+	}
+
+	/**
+	 * Return the number of characters that this number of bytes encodes into without padding.
+	 */
+	public static int encodedLength(int numBytes) {
+		return (int) (((long) numBytes * 8 + 4) / 5);
+	}
+
+	/**
+	 * Encode the bytes as upper case base-32 characters without padding and return them as a string.
+	 */
+	public static String encode(byte[] input) {
+		char[] chars = new char[encodedLength(input.length)];
+		encodeChars(input, 0, input.length, chars, 0, chars.length);
+		return new String(chars);
+	}
+
+	/**
+	 * Encode the bytes as upper case base-32 characters without padding into the output buffer.
+	 *
+	 * @param input
+	 *            Bytes to encode.
+	 * @param inputOffset
+	 *            Offset of the first byte to encode in the input.
+	 * @param inputLength
+	 *            Number of bytes to encode.
+	 * @param output
+	 *            Buffer that the characters are written into which needs room for {@link #encodedLength(int)}
+	 *            characters.
+	 * @param outputOffset
+	 *            Offset in the output buffer to start writing.
+	 * @return The number of characters written.
+	 */
+	public static int encode(byte[] input, int inputOffset, int inputLength, char[] output, int outputOffset) {
+		int numChars = encodedLength(inputLength);
+		checkOutput(numChars, output.length, outputOffset);
+		encodeChars(input, inputOffset, inputLength, output, outputOffset, numChars);
+		return numChars;
+	}
+
+	/**
+	 * Similar to {@link #encode(byte[], int, int, char[], int)} but writes ASCII bytes.
+	 */
+	public static int encode(byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) {
+		int numChars = encodedLength(inputLength);
+		checkOutput(numChars, output.length, outputOffset);
+		int inputIndex = inputOffset;
+		int outputIndex = outputOffset;
+		int outputEnd = outputOffset + numChars;
+		// 5 bytes into 8 characters at a time
+		while (outputIndex + 8 <= outputEnd) {
+			long bits = readGroup(input, inputIndex);
+			for (int shift = 35; shift >= 0; shift -= 5) {
+				output[outputIndex++] = ENCODE_TABLE[(int) (bits >>> shift) & 0x1F];
+			}
+			inputIndex += 5;
+		}
+		int buffer = 0;
+		int numBits = 0;
+		int inputEnd = inputOffset + inputLength;
+		while (outputIndex < outputEnd) {
+			if (numBits < 5) {
+				// past the end of the input the bits are zero
+				buffer = (buffer << 8) | (inputIndex < inputEnd ? input[inputIndex++] & 0xFF : 0);
+				numBits += 8;
+			}
+			numBits -= 5;
+			output[outputIndex++] = ENCODE_TABLE[(buffer >>> numBits) & 0x1F];
+		}
+		return numChars;
+	}
+
+	/**
+	 * Encode the bytes into exactly this number of characters without checking the size of the output. This is used to
+	 * turn random bytes into a secret of any length.
+	 */
+	static void encodeChars(byte[] input, int inputOffset, int inputLength, char[] output, int outputOffset,
+			int numChars) {
+		int inputIndex = inputOffset;
+		int outputIndex = outputOffset;
+		int outputEnd = outputOffset + numChars;
+		int inputEnd = inputOffset + inputLength;
+		while (outputIndex + 8 <= outputEnd && inputIndex + 5 <= inputEnd) {
+			long bits = readGroup(input, inputIndex);
+			output[outputIndex] = (char) ENCODE_TABLE[(int) (bits >>> 35) & 0x1F];
+			output[outputIndex + 1] = (char) ENCODE_TABLE[(int) (bits >>> 30) & 0x1F];
+			output[outputIndex + 2] = (char) ENCODE_TABLE[(int) (bits >>> 25) & 0x1F];
+			output[outputIndex + 3] = (char) ENCODE_TABLE[(int) (bits >>> 20) & 0x1F];
+			output[outputIndex + 4] = (char) ENCODE_TABLE[(int) (bits >>> 15) & 0x1F];
+			output[outputIndex + 5] = (char) ENCODE_TABLE[(int) (bits >>> 10) & 0x1F];
+			output[outputIndex + 6] = (char) ENCODE_TABLE[(int) (bits >>> 5) & 0x1F];
+			output[outputIndex + 7] = (char) ENCODE_TABLE[(int) bits & 0x1F];
+			inputIndex += 5;
+			outputIndex += 8;
+		}
+		int buffer = 0;
+		int numBits = 0;
+		while (outputIndex < outputEnd) {
+			if (numBits < 5) {
+				// past the end of the input the bits are zero
+				buffer = (buffer << 8) | (inputIndex < inputEnd ? input[inputIndex++] & 0xFF : 0);
+				numBits += 8;
+			}
+			numBits -= 5;
+			output[outputIndex++] = (char) ENCODE_TABLE[(buffer >>> numBits) & 0x1F];
+		}
+	}
+
+	private static long readGroup(byte[] input, int inputIndex) {
+		return ((input[inputIndex] & 0xFFL) << 32) | ((input[inputIndex + 1] & 0xFFL) << 24)
+				| ((input[inputIndex + 2] & 0xFFL) << 16) | ((input[inputIndex + 3] & 0xFFL) << 8)
+				| (input[inputIndex + 4] & 0xFFL);
+	}
+
+	/**
+	 * Decode the characters without checking the size of the output.
+	 */
+	private static int decodeChars(CharSequence input, byte[] output, int outputOffset) {
+		int end = input.length();
+		int outputIndex = outputOffset;
+		int i = 0;
+		// 8 characters into 5 bytes at a time
+		while (i + 8 <= end) {
+			int v0 = lookup(input.charAt(i));
+			int v1 = lookup(input.charAt(i + 1));
+			int v2 = lookup(input.charAt(i + 2));
+			int v3 = lookup(input.charAt(i + 3));
+			int v4 = lookup(input.charAt(i + 4));
+			int v5 = lookup(input.charAt(i + 5));
+			int v6 = lookup(input.charAt(i + 6));
+			int v7 = lookup(input.charAt(i + 7));
+			if ((v0 | v1 | v2 | v3 | v4 | v5 | v6 | v7) < 0) {
+				// padding or an invalid character, handled below
+				break;
+			}
+			long bits = ((long) v0 << 35) | ((long) v1 << 30) | ((long) v2 << 25) | ((long) v3 << 20)
+					| ((long) v4 << 15) | ((long) v5 << 10) | ((long) v6 << 5) | v7;
+			outputIndex = writeGroup(bits, output, outputIndex);
+			i += 8;
+		}
+		long bits = 0;
+		int numChars = 0;
+		for (; i < end; i++) {
+			char ch = input.charAt(i);
+			int val = lookup(ch);
+			if (val == PADDING) {
+				return finish(bits, numChars, true, output, outputIndex) - outputOffset;
+			} else if (val < 0) {
+				throw new IllegalArgumentException("Invalid base-32 character: " + ch);
+			}
+			bits = (bits << 5) | val;
+			if (++numChars == 8) {
+				outputIndex = writeGroup(bits, output, outputIndex);
+				bits = 0;
+				numChars = 0;
+			}
+		}
+		return finish(bits, numChars, false, output, outputIndex) - outputOffset;
+	}
+
+	/**
+	 * Decode the ASCII bytes without checking the size of the output.
+	 */
+	private static int decodeBytes(byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) {
+		int end = inputOffset + inputLength;
+		int outputIndex = outputOffset;
+		int i = inputOffset;
+		while (i + 8 <= end) {
+			int v0 = lookup(input[i] & 0xFF);
+			int v1 = lookup(input[i + 1] & 0xFF);
+			int v2 = lookup(input[i + 2] & 0xFF);
+			int v3 = lookup(input[i + 3] & 0xFF);
+			int v4 = lookup(input[i + 4] & 0xFF);
+			int v5 = lookup(input[i + 5] & 0xFF);
+			int v6 = lookup(input[i + 6] & 0xFF);
+			int v7 = lookup(input[i + 7] & 0xFF);
+			if ((v0 | v1 | v2 | v3 | v4 | v5 | v6 | v7) < 0) {
+				break;
+			}
+			long bits = ((long) v0 << 35) | ((long) v1 << 30) | ((long) v2 << 25) | ((long) v3 << 20)
+					| ((long) v4 << 15) | ((long) v5 << 10) | ((long) v6 << 5) | v7;
+			outputIndex = writeGroup(bits, output, outputIndex);
+			i += 8;
+		}
+		long bits = 0;
+		int numChars = 0;
+		for (; i < end; i++) {
+			int ch = input[i] & 0xFF;
+			int val = lookup(ch);
+			if (val == PADDING) {
+				return finish(bits, numChars, true, output, outputIndex) - outputOffset;
+			} else if (val < 0) {
+				throw new IllegalArgumentException("Invalid base-32 character: " + (char) ch);
+			}
+			bits = (bits << 5) | val;
+			if (++numChars == 8) {
+				outputIndex = writeGroup(bits, output, outputIndex);
+				bits = 0;
+				numChars = 0;
+			}
+		}
+		return finish(bits, numChars, false, output, outputIndex) - outputOffset;
+	}
+
+	/**
+	 * Return the 5-bit value of the character, {@link #INVALID}, or {@link #PADDING}.
+	 */
+	private static int lookup(int ch) {
+		if (ch >= DECODE_TABLE.length) {
+			return INVALID;
+		}
+		return DECODE_TABLE[ch];
+	}
+
+	private static int writeGroup(long bits, byte[] output, int outputIndex) {
+		output[outputIndex] = (byte) (bits >>> 32);
+		output[outputIndex + 1] = (byte) (bits >>> 24);
+		output[outputIndex + 2] = (byte) (bits >>> 16);
+		output[outputIndex + 3] = (byte) (bits >>> 8);
+		output[outputIndex + 4] = (byte) bits;
+		return outputIndex + 5;
+	}
+
+	/**
+	 * Write the full bytes of the last partial group and return the output index after them. Without padding the
+	 * leftover bits are written as a final byte.
+	 */
+	private static int finish(long bits, int numChars, boolean padded, byte[] output, int outputIndex) {
+		int numBits = numChars * 5;
+		while (numBits >= 8) {
+			numBits -= 8;
+			output[outputIndex++] = (byte) (bits >>> numBits);
+		}
+		if (numBits > 0 && !padded) {
+			// leftover bits go in the top of the byte
+			output[outputIndex++] = (byte) ((bits & ((1 << numBits) - 1)) << (8 - numBits));
+		}
+		return outputIndex;
+	}
+
+	private static void checkOutput(int numNeeded, int outputLength, int outputOffset) {
+		if (outputOffset < 0 || outputLength - outputOffset < numNeeded) {
+			throw new IllegalArgumentException("Output buffer of length " + outputLength + " at offset "
+					+ outputOffset + " does not have room for " + numNeeded);
+		}
+	}
+}
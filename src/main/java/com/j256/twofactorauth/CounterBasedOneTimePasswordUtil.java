@@ -0,0 +1,238 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Implementation of the HMAC-based One-Time Password (HOTP) algorithm from RFC 4226 which is used by counter-based
+ * hardware tokens. The number is the same HMAC truncation as TOTP except the value that is hashed is a counter which
+ * the token increments every time the button is pressed instead of the time-step. You need to:
+ *
+ * <ol>
+ * <li>Store the secret key and the counter, starting at 0, in the database associated with the token.</li>
+ * <li>When the user logs in, validate the number with the stored counter using validateNumber(...).</li>
+ * <li>If it matched then store the returned counter so the same number cannot be used again.</li>
+ * </ol>
+ *
+ * <p>
+ * Tokens get ahead of the server when the button is pressed without logging in so the validation looks ahead a number
+ * of counters. If the token has gotten further ahead than that, ask the user for two consecutive numbers and call
+ * resynchronize(...) which searches a much larger range of counters for the pair. To search thousands of counters
+ * across a number of threads, see {@link HotpResynchronizer}.
+ * </p>
+ *
+ * <p>
+ * The prepared {@link TotpKey} works for HOTP as well and with it each counter only costs two hash compressions and no
+ * allocations. The static methods that take secret strings use the key cache if one has been set with
+ * {@link TimeBasedOneTimePasswordUtil#setKeyCache(TotpKeyCache)}.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class CounterBasedOneTimePasswordUtil {
+
+	/** default number of counters after the stored one that are checked when validating a number */
+	public static final int DEFAULT_LOOK_AHEAD = 10;
+	/** default number of counters after the stored one that are searched when resynchronizing */
+	public static final int DEFAULT_RESYNC_LENGTH = 1000;
+	/** returned by the validate and resynchronize methods if the number did not match */
+	public static final long NO_MATCHING_COUNTER = -1;
+
+	/**
+	 * Generate the number for the counter with the default number of digits.
+	 *
+	 * @param base32Secret
+	 *            Secret string encoded using base-32 that was loaded into the token.
+	 * @param counter
+	 *            Counter value which is hashed.
+	 * @return A number which should match the token output for the counter.
+	 */
+	public static int generateNumber(String base32Secret, long counter) throws GeneralSecurityException {
+		return generateNumber(base32Secret, counter, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #generateNumber(String, long)} but you specify the number of digits.
+	 */
+	public static int generateNumber(String base32Secret, long counter, int numDigits)
+			throws GeneralSecurityException {
+		return generateNumber(TimeBasedOneTimePasswordUtil.base32Key(base32Secret), counter, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #generateNumber(String, long, int)} but with a hexadecimal secret.
+	 */
+	public static int generateNumberHex(String hexSecret, long counter, int numDigits)
+			throws GeneralSecurityException {
+		return generateNumber(TimeBasedOneTimePasswordUtil.hexKey(hexSecret), counter, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #generateNumber(String, long, int)} but with a prepared key.
+	 */
+	public static int generateNumber(TotpKey key, long counter, int numDigits) throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.generateNumberFromKeyValue(key.getKey(), key.getHmac(), counter,
+				numDigits);
+	}
+
+	/**
+	 * Similar to {@link #generateNumber(String, long, int)} but returns a string with possible leading zeros.
+	 */
+	public static String generateNumberString(String base32Secret, long counter, int numDigits)
+			throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.zeroPrepend(generateNumber(base32Secret, counter, numDigits), numDigits);
+	}
+
+	/**
+	 * Validate the number against the stored counter and the {@link #DEFAULT_LOOK_AHEAD} counters after it.
+	 *
+	 * @param base32Secret
+	 *            Secret string encoded using base-32 that was loaded into the token.
+	 * @param authNumber
+	 *            Number provided by the user from their token.
+	 * @param counter
+	 *            Counter that was stored after the last successful validation.
+	 * @return The counter to store which is one past the counter that matched or {@link #NO_MATCHING_COUNTER} if it
+	 *         did not match.
+	 */
+	public static long validateNumber(String base32Secret, int authNumber, long counter)
+			throws GeneralSecurityException {
+		return validateNumber(TimeBasedOneTimePasswordUtil.base32Key(base32Secret), authNumber, counter,
+				DEFAULT_LOOK_AHEAD, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #validateNumber(String, int, long)} but with a hexadecimal secret.
+	 */
+	public static long validateNumberHex(String hexSecret, int authNumber, long counter)
+			throws GeneralSecurityException {
+		return validateNumber(TimeBasedOneTimePasswordUtil.hexKey(hexSecret), authNumber, counter,
+				DEFAULT_LOOK_AHEAD, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #validateNumber(String, int, long)} except with a prepared key and exposes other parameters.
+	 *
+	 * @param key
+	 *            Prepared key of the token.
+	 * @param authNumber
+	 *            Number provided by the user from their token.
+	 * @param counter
+	 *            Counter that was stored after the last successful validation.
+	 * @param lookAhead
+	 *            Number of counters after the stored one that are also checked. Set to 0 to only check the stored
+	 *            counter.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @return The counter to store which is one past the counter that matched or {@link #NO_MATCHING_COUNTER} if it
+	 *         did not match.
+	 */
+	public static long validateNumber(TotpKey key, int authNumber, long counter, int lookAhead, int numDigits)
+			throws GeneralSecurityException {
+		checkCounter(counter, lookAhead);
+		if (!TimeBasedOneTimePasswordUtil.isPossibleNumber(authNumber, numDigits)) {
+			return NO_MATCHING_COUNTER;
+		}
+		byte[] keyBytes = key.getKey();
+		PreparedHmac hmac = key.getHmac();
+		if (lookAhead > 0) {
+			hmac = TimeBasedOneTimePasswordUtil.prepareForSearch(keyBytes, hmac);
+		}
+		for (long value = counter; value <= counter + lookAhead; value++) {
+			if (TimeBasedOneTimePasswordUtil.generateNumberFromKeyValue(keyBytes, hmac, value,
+					numDigits) == authNumber) {
+				return value + 1;
+			}
+		}
+		return NO_MATCHING_COUNTER;
+	}
+
+	/**
+	 * Similar to {@link #validateNumber(TotpKey, int, long, int, int)} but the code is the characters that the user
+	 * typed. The code must be 1 to numDigits digits, any other characters cause it to not match.
+	 */
+	public static long validateNumber(TotpKey key, CharSequence authCode, long counter, int lookAhead, int numDigits)
+			throws GeneralSecurityException {
+		int authNumber = TimeBasedOneTimePasswordUtil.parseCode(authCode, numDigits);
+		if (authNumber == TimeBasedOneTimePasswordUtil.INVALID_CODE) {
+			return NO_MATCHING_COUNTER;
+		}
+		return validateNumber(key, authNumber, counter, lookAhead, numDigits);
+	}
+
+	/**
+	 * Find two consecutive numbers from the token in the {@link #DEFAULT_RESYNC_LENGTH} counters starting at the stored
+	 * one. See {@link #resynchronize(TotpKey, int, int, long, int, int)}.
+	 */
+	public static long resynchronize(String base32Secret, int firstNumber, int secondNumber, long counter)
+			throws GeneralSecurityException {
+		return resynchronize(TimeBasedOneTimePasswordUtil.base32Key(base32Secret), firstNumber, secondNumber, counter,
+				DEFAULT_RESYNC_LENGTH, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Resynchronize a token that has gotten further ahead of the stored counter than the look-ahead by finding where
+	 * two consecutive numbers from the token match consecutive counters. A single number has a one in a million chance
+	 * of matching each counter by accident which adds up over a large range but two in a row does not. The number for
+	 * each counter is calculated only once as the search moves forward.
+	 *
+	 * @param key
+	 *            Prepared key of the token.
+	 * @param firstNumber
+	 *            First number provided by the user from their token.
+	 * @param secondNumber
+	 *            Number that the token showed after the first one.
+	 * @param counter
+	 *            Counter that was stored after the last successful validation.
+	 * @param searchLength
+	 *            Number of counters starting at the stored one where the first number is searched for.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @return The counter to store which is one past the counter that matched the second number or
+	 *         {@link #NO_MATCHING_COUNTER} if the pair was not found.
+	 */
+	public static long resynchronize(TotpKey key, int firstNumber, int secondNumber, long counter, int searchLength,
+			int numDigits) throws GeneralSecurityException {
+		checkCounter(counter, searchLength);
+		if (!TimeBasedOneTimePasswordUtil.isPossibleNumber(firstNumber, numDigits)
+				|| !TimeBasedOneTimePasswordUtil.isPossibleNumber(secondNumber, numDigits)) {
+			return NO_MATCHING_COUNTER;
+		}
+		return findPair(key.getKey(), key.getHmac(), firstNumber, secondNumber, counter, counter + searchLength,
+				numDigits);
+	}
+
+	/**
+	 * Return the counter after the pair where the first number matches a counter from start up to but not including
+	 * end and the second number matches the counter after it or {@link #NO_MATCHING_COUNTER} if none.
+	 */
+	static long findPair(byte[] key, PreparedHmac hmac, int firstNumber, int secondNumber, long start, long end,
+			int numDigits) throws GeneralSecurityException {
+		hmac = TimeBasedOneTimePasswordUtil.prepareForSearch(key, hmac);
+		boolean previousMatched = false;
+		// the second number of the last pair is at end
+		for (long value = start; value <= end; value++) {
+			int number = TimeBasedOneTimePasswordUtil.generateNumberFromKeyValue(key, hmac, value, numDigits);
+			if (previousMatched && number == secondNumber) {
+				return value + 1;
+			}
+			previousMatched = (value < end && number == firstNumber);
+		}
+		return NO_MATCHING_COUNTER;
+	}
+
+	/**
+	 * Check the counter and the number of counters after it that are going to be checked. The counter after the last
+	 * one, which is returned on a match, must not overflow. Exposed for {@link HotpResynchronizer}.
+	 */
+	static void checkCounter(long counter, int length) {
+		if (counter < 0) {
+			throw new IllegalArgumentException("Counter cannot be negative: " + counter);
+		}
+		if (length < 0) {
+			throw new IllegalArgumentException("Number of counters cannot be negative: " + length);
+		}
+		if (counter > Long.MAX_VALUE - length - 1) {
+			throw new IllegalArgumentException("Counter is too large to check " + length + " counters: " + counter);
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Validator that remembers the time-step offset that each user's authenticator application last matched at. Phone
+ * clocks tend to drift slowly so the next number from a user most likely matches at the same offset. The predicted
+ * time-step is checked first and then the search widens out one step at a time in both directions so the common case
+ * is a single HMAC.
+ *
+ * <p>
+ * By default the whole window is still searched so any number that is valid in the window is accepted. If you set a
+ * non-negative drift tolerance then once the drift of a user is known, only the time-steps within
+ * {@link #getDriftToleranceSteps()} of the prediction (and still inside of the window) are checked so a failed attempt
+ * costs a couple of HMACs instead of the whole window. WARNING: a number that is valid in the window but outside of the
+ * tolerance is then rejected. The prediction is kept through {@link #MAX_PREDICTED_MISSES} consecutive failures and
+ * then forgotten so the next attempt from the user searches the whole window again in case their clock was reset.
+ * </p>
+ *
+ * <p>
+ * The offsets are stored as primitive longs in a lock-striped table of user-ids like {@link UsedCodeRegistry} and users
+ * which have not logged in within the retention are evicted.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class DriftTrackingValidator {
+
+	/** default number of steps on either side of the predicted time-step that are checked, negative for the window */
+	public static final int DEFAULT_DRIFT_TOLERANCE_STEPS = -1;
+	/** default number of time-steps that the drift of a user is remembered, 1 day of 30 second steps */
+	public static final int DEFAULT_RETENTION_STEPS = 2 * 60 * 24;
+	/** number of consecutive failures at the predicted time-step after which the prediction is forgotten */
+	public static final int MAX_PREDICTED_MISSES = 3;
+
+	/** stored for a user whose prediction was forgotten */
+	private static final long NO_DRIFT = Long.MIN_VALUE;
+	/** the drift is stored in the low 32 bits of the value and the number of consecutive misses above it */
+	private static final int MISSES_SHIFT = 32;
+
+	private final UserStepTable drifts;
+	private final int driftToleranceSteps;
+	private final AtomicLong predictedMatchCount = new AtomicLong();
+	private final AtomicLong widenedMatchCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong hmacCount = new AtomicLong();
+
+	public DriftTrackingValidator() {
+		this(DEFAULT_DRIFT_TOLERANCE_STEPS, UsedCodeRegistry.DEFAULT_NUM_STRIPES, DEFAULT_RETENTION_STEPS);
+	}
+
+	/**
+	 * @param driftToleranceSteps
+	 *            Number of steps on either side of the predicted time-step that are checked for users with a known
+	 *            drift which rejects valid numbers outside of them. Set to a negative value to always search the whole
+	 *            window in order from the prediction which is the default.
+	 * @param numStripes
+	 *            Number of lock stripes which is rounded up to a power of 2.
+	 * @param retentionSteps
+	 *            Number of time-steps that the drift of a user is remembered after their last match.
+	 */
+	public DriftTrackingValidator(int driftToleranceSteps, int numStripes, int retentionSteps) {
+		this.driftToleranceSteps = driftToleranceSteps;
+		this.drifts = new UserStepTable(numStripes, retentionSteps);
+	}
+
+	/**
+	 * Validate the number with the key using the current time and the default time-step and number of digits. See
+	 * {@link #validateCurrentNumberOffset(String, TotpKey, int, long, long, int, int)}.
+	 */
+	public boolean validateCurrentNumber(String userId, TotpKey key, int authNumber, long windowMillis)
+			throws GeneralSecurityException {
+		int offset = validateCurrentNumberOffset(userId, key, authNumber, windowMillis,
+				TimeBasedOneTimePasswordUtil.currentTimeMillis(),
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+		return (offset != TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET);
+	}
+
+	/**
+	 * Validate the number with the key starting at the time-step predicted by the last drift of the user and record
+	 * the new drift if it matches.
+	 *
+	 * @param userId
+	 *            Id of the user that the key belongs to.
+	 * @param key
+	 *            Prepared secret key of the user.
+	 * @param authNumber
+	 *            Time based number provided by the user from their authenticator application.
+	 * @param windowMillis
+	 *            Number of milliseconds that they are allowed to be off and still match.
+	 * @param timeMillis
+	 *            Time in milliseconds.
+	 * @param timeStepSeconds
+	 *            Time step in seconds. See {@link TimeBasedOneTimePasswordUtil#DEFAULT_TIME_STEP_SECONDS}.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @return The offset in time-steps from the current one that the number matched or
+	 *         {@link TimeBasedOneTimePasswordUtil#NO_MATCH_OFFSET} if it did not match.
+	 */
+	public int validateCurrentNumberOffset(String userId, TotpKey key, int authNumber, long windowMillis,
+			long timeMillis, int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		if (!TimeBasedOneTimePasswordUtil.isPossibleNumber(authNumber, numDigits)) {
+			// garbage does not count as a failure so it does not reset the drift of the user
+			return TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET;
+		}
+		long currentValue = TimeBasedOneTimePasswordUtil.generateValue(timeMillis, timeStepSeconds);
+		long startValue = currentValue;
+		long endValue = currentValue;
+		if (windowMillis > 0) {
+			startValue = TimeBasedOneTimePasswordUtil.generateValue(timeMillis - windowMillis, timeStepSeconds);
+			endValue = TimeBasedOneTimePasswordUtil.generateValue(timeMillis + windowMillis, timeStepSeconds);
+		}
+
+		long stored = drifts.get(userId, NO_DRIFT);
+		long drift = NO_DRIFT;
+		int misses = 0;
+		if (stored != NO_DRIFT) {
+			drift = (int) stored;
+			misses = (int) (stored >>> MISSES_SHIFT);
+		}
+		long predictedValue = currentValue;
+		if (drift != NO_DRIFT) {
+			predictedValue = Math.max(startValue, Math.min(endValue, currentValue + drift));
+			if (driftToleranceSteps >= 0) {
+				startValue = Math.max(startValue, predictedValue - driftToleranceSteps);
+				endValue = Math.min(endValue, predictedValue + driftToleranceSteps);
+			}
+		}
+
+		byte[] keyBytes = key.getKey();
+		PreparedHmac hmac = key.getHmac();
+		long numHmacs = 1;
+		long matchValue = TimeBasedOneTimePasswordUtil.NO_MATCHING_VALUE;
+		if (TimeBasedOneTimePasswordUtil.generateNumberFromKeyValue(keyBytes, hmac, predictedValue,
+				numDigits) == authNumber) {
+			matchValue = predictedValue;
+		} else {
+			// widen out from the prediction checking the earlier step first
+			for (long distance = 1;; distance++) {
+				long before = predictedValue - distance;
+				long after = predictedValue + distance;
+				if (before < startValue && after > endValue) {
+					break;
+				}
+				if (before >= startValue) {
+					numHmacs++;
+					if (TimeBasedOneTimePasswordUtil.generateNumberFromKeyValue(keyBytes, hmac, before,
+							numDigits) == authNumber) {
+						matchValue = before;
+						break;
+					}
+				}
+				if (after <= endValue) {
+					numHmacs++;
+					if (TimeBasedOneTimePasswordUtil.generateNumberFromKeyValue(keyBytes, hmac, after,
+							numDigits) == authNumber) {
+						matchValue = after;
+						break;
+					}
+				}
+			}
+		}
+		hmacCount.addAndGet(numHmacs);
+
+		if (matchValue == TimeBasedOneTimePasswordUtil.NO_MATCHING_VALUE) {
+			failedCount.incrementAndGet();
+			if (drift != NO_DRIFT) {
+				misses++;
+				if (misses >= MAX_PREDICTED_MISSES) {
+					// their clock may have been reset so search the whole window next time
+					drifts.put(userId, NO_DRIFT, currentValue);
+				} else {
+					drifts.put(userId, packDrift(drift, misses), currentValue);
+				}
+			}
+			return TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET;
+		}
+		if (matchValue == predictedValue) {
+			predictedMatchCount.incrementAndGet();
+		} else {
+			widenedMatchCount.incrementAndGet();
+		}
+		int offset = (int) (matchValue - currentValue);
+		drifts.put(userId, packDrift(offset, 0), currentValue);
+		return offset;
+	}
+
+	/**
+	 * Return the last offset in time-steps that the user matched at or
+	 * {@link TimeBasedOneTimePasswordUtil#NO_MATCH_OFFSET} if it is not known.
+	 */
+	public int getDrift(String userId) {
+		long stored = drifts.get(userId, NO_DRIFT);
+		if (stored == NO_DRIFT) {
+			return TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET;
+		} else {
+			return (int) stored;
+		}
+	}
+
+	/**
+	 * Forget the drift of the user so the next number is searched for in the whole window.
+	 */
+	public void resetDrift(String userId, long currentTimeStep) {
+		drifts.put(userId, NO_DRIFT, currentTimeStep);
+	}
+
+	/**
+	 * Sweep out the users that have not matched within the retention from the current time-step. This happens
+	 * automatically as numbers are validated but can also be called from a scheduled task.
+	 */
+	public void sweep(long currentTimeStep) {
+		drifts.sweep(currentTimeStep);
+	}
+
+	/**
+	 * Return the number of users whose drift is being tracked.
+	 */
+	public int getTrackedUserCount() {
+		return drifts.size();
+	}
+
+	public int getDriftToleranceSteps() {
+		return driftToleranceSteps;
+	}
+
+	/**
+	 * Return the number of validations that matched at the predicted time-step with a single HMAC.
+	 */
+	public long getPredictedMatchCount() {
+		return predictedMatchCount.get();
+	}
+
+	/**
+	 * Return the number of validations that matched after widening out from the predicted time-step.
+	 */
+	public long getWidenedMatchCount() {
+		return widenedMatchCount.get();
+	}
+
+	/**
+	 * Return the number of validations that did not match.
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Return the total number of HMACs that have been calculated. Divide by the number of validations to get the
+	 * average cost.
+	 */
+	public long getHmacCount() {
+		return hmacCount.get();
+	}
+
+	private static long packDrift(long drift, int misses) {
+		return ((long) misses << MISSES_SHIFT) | (drift & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,281 @@
+package com.j256.twofactorauth;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Table driven hexadecimal decoder and encoder which works with buffers that are passed in. The input to the decoder
+ * can be any {@link CharSequence} or ASCII bytes in an array or {@link ByteBuffer} so hex secrets read from a database
+ * column or a request do not need to be turned into a string first. The encoder writes upper case ASCII bytes or
+ * characters.
+ *
+ * <p>
+ * An odd number of characters is allowed and the value of the last character is written as a final byte to match
+ * {@link TimeBasedOneTimePasswordUtil#decodeHex(String)}.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class HexCodec {
+
+	/** table value of characters that are not hex digits */
+	private static final byte INVALID = -1;
+	private static final byte[] DECODE_TABLE = new byte[256];
+	private static final byte[] ENCODE_TABLE = "0123456789ABCDEF".getBytes(Charset.forName("US-ASCII"));
+
+	static {
+		for (int i = 0; i < DECODE_TABLE.length; i++) {
+			DECODE_TABLE[i] = INVALID;
+		}
+		for (int i = 0; i < 10; i++) {
+			DECODE_TABLE['0' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++) {
+			DECODE_TABLE['A' + i] = (byte) (10 + i);
+			DECODE_TABLE['a' + i] = (byte) (10 + i);
+		}
+	}
+
+	/**
+	 * Return the number of bytes that this number of characters decodes into.
+	 */
+	public static int decodedLength(int numChars) {
+		return (numChars + 1) / 2;
+	}
+
+	/**
+	 * Decode the hex characters and return them in a new array.
+	 */
+	public static byte[] decode(CharSequence input) {
+		byte[] result = new byte[decodedLength(input.length())];
+		decodeChars(input, result, 0);
+		return result;
+	}
+
+	/**
+	 * Decode the hex characters into the output buffer.
+	 *
+	 * @param input
+	 *            Characters to decode.
+	 * @param output
+	 *            Buffer that the bytes are written into which needs room for {@link #decodedLength(int)} bytes.
+	 * @param outputOffset
+	 *            Offset in the output buffer to start writing.
+	 * @return The number of bytes written.
+	 * @throws IllegalArgumentException
+	 *             If there is an invalid character in the input or the output buffer is too small.
+	 */
+	public static int decode(CharSequence input, byte[] output, int outputOffset) {
+		checkOutput(decodedLength(input.length()), output.length, outputOffset);
+		return decodeChars(input, output, outputOffset);
+	}
+
+	/**
+	 * Similar to {@link #decode(CharSequence, byte[], int)} but the input is ASCII bytes.
+	 *
+	 * @param input
+	 *            Array of ASCII bytes to decode.
+	 * @param inputOffset
+	 *            Offset of the first byte to decode in the input.
+	 * @param inputLength
+	 *            Number of bytes to decode.
+	 * @param output
+	 *            Buffer that the bytes are written into which needs room for {@link #decodedLength(int)} bytes.
+	 * @param outputOffset
+	 *            Offset in the output buffer to start writing.
+	 * @return The number of bytes written.
+	 */
+	public static int decode(byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) {
+		checkOutput(decodedLength(inputLength), output.length, outputOffset);
+		return decodeBytes(input, inputOffset, inputLength, output, outputOffset);
+	}
+
+	/**
+	 * Similar to {@link #decode(CharSequence, byte[], int)} but decodes the ASCII bytes from the position to the limit
+	 * of the buffer. The position of the buffer is moved to the limit.
+	 */
+	public static int decode(ByteBuffer input, byte[] output, int outputOffset) {
+		int numBytes = input.remaining();
+		checkOutput(decodedLength(numBytes), output.length, outputOffset);
+		if (input.hasArray()) {
+			decodeBytes(input.array(), input.arrayOffset() + input.position(), numBytes, output, outputOffset);
+		} else {
+			int outputIndex = outputOffset;
+			int i = input.position();
+			int end = input.limit();
+			for (; i < end; i++) {
+				int ch = input.get(i) & 0xFF;
+				int val = lookup(ch);
+				if (val < 0) {
+					throw invalidCharacter(ch);
+				}
+				if (((i - input.position()) & 1) == 0) {
+					// the value of an odd last character is the last byte
+					output[outputIndex] = (byte) val;
+				} else {
+					output[outputIndex] = (byte) ((output[outputIndex] << 4) | val);
+					outputIndex++;
+				}
+			}
+		}
+		input.position(input.limit());
+		return decodedLength(numBytes);
+	}
+
+	/**
+	 * Encode the bytes as upper case hex characters and return them as a string.
+	 */
+	public static String encode(byte[] input) {
+		char[] chars = new char[input.length * 2];
+		encode(input, 0, input.length, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * Encode the bytes as upper case hex characters into the output buffer which needs room for 2 characters per byte.
+	 *
+	 * @return The number of characters written.
+	 */
+	public static int encode(byte[] input, int inputOffset, int inputLength, char[] output, int outputOffset) {
+		checkOutput(inputLength * 2, output.length, outputOffset);
+		encodeChars(input, inputOffset, output, outputOffset, inputLength * 2);
+		return inputLength * 2;
+	}
+
+	/**
+	 * Encode the bytes as upper case hex ASCII bytes into the output buffer which needs room for 2 bytes per byte.
+	 *
+	 * @return The number of bytes written.
+	 */
+	public static int encode(byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) {
+		checkOutput(inputLength * 2, output.length, outputOffset);
+		int outputIndex = outputOffset;
+		for (int i = inputOffset; i < inputOffset + inputLength; i++) {
+			output[outputIndex++] = ENCODE_TABLE[(input[i] >> 4) & 0xF];
+			output[outputIndex++] = ENCODE_TABLE[input[i] & 0xF];
+		}
+		return inputLength * 2;
+	}
+
+	/**
+	 * Encode the bytes from the position to the limit of the input buffer as upper case hex ASCII bytes into the output
+	 * buffer. The positions of both buffers are moved past the bytes read and written.
+	 *
+	 * @throws BufferOverflowException
+	 *             If the output buffer does not have room for 2 bytes per input byte.
+	 */
+	public static void encode(ByteBuffer input, ByteBuffer output) {
+		if (output.remaining() < input.remaining() * 2) {
+			throw new BufferOverflowException();
+		}
+		while (input.hasRemaining()) {
+			byte b = input.get();
+			output.put(ENCODE_TABLE[(b >> 4) & 0xF]);
+			output.put(ENCODE_TABLE[b & 0xF]);
+		}
+	}
+
+	/**
+	 * Encode the bytes into exactly this number of characters without checking the size of the output. With an odd
+	 * number of characters only the high 4 bits of the last byte are used. This is used to turn random bytes into a
+	 * secret of any length.
+	 */
+	static void encodeChars(byte[] input, int inputOffset, char[] output, int outputOffset, int numChars) {
+		int inputIndex = inputOffset;
+		int outputIndex = outputOffset;
+		int outputEnd = outputOffset + numChars;
+		for (; outputIndex + 2 <= outputEnd; outputIndex += 2) {
+			output[outputIndex] = (char) ENCODE_TABLE[(input[inputIndex] >> 4) & 0xF];
+			output[outputIndex + 1] = (char) ENCODE_TABLE[input[inputIndex] & 0xF];
+			inputIndex++;
+		}
+		if (outputIndex < outputEnd) {
+			output[outputIndex] = (char) ENCODE_TABLE[(input[inputIndex] >> 4) & 0xF];
+		}
+	}
+
+	/**
+	 * Decode the characters without checking the size of the output.
+	 */
+	private static int decodeChars(CharSequence input, byte[] output, int outputOffset) {
+		int end = input.length();
+		int outputIndex = outputOffset;
+		int i = 0;
+		int invalid = 0;
+		for (; i + 2 <= end; i += 2) {
+			int high = lookup(input.charAt(i));
+			int low = lookup(input.charAt(i + 1));
+			invalid |= high | low;
+			output[outputIndex++] = (byte) ((high << 4) | low);
+		}
+		if (i < end) {
+			// the value of the odd character is the last byte
+			int val = lookup(input.charAt(i));
+			invalid |= val;
+			output[outputIndex++] = (byte) val;
+		}
+		if (invalid < 0) {
+			for (i = 0; i < end; i++) {
+				if (lookup(input.charAt(i)) < 0) {
+					throw invalidCharacter(input.charAt(i));
+				}
+			}
+		}
+		return outputIndex - outputOffset;
+	}
+
+	/**
+	 * Decode the ASCII bytes without checking the size of the output.
+	 */
+	private static int decodeBytes(byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) {
+		int end = inputOffset + inputLength;
+		int numPairs = inputLength / 2;
+		int i = inputOffset;
+		// invalid characters are negative in the table so or-ing the values together finds them after the loop
+		int invalid = 0;
+		for (int pair = 0; pair < numPairs; pair++) {
+			// the table covers all byte values so no range check is needed
+			int high = DECODE_TABLE[input[i] & 0xFF];
+			int low = DECODE_TABLE[input[i + 1] & 0xFF];
+			invalid |= high | low;
+			output[outputOffset + pair] = (byte) ((high << 4) | low);
+			i += 2;
+		}
+		int outputIndex = outputOffset + numPairs;
+		if (i < end) {
+			int val = DECODE_TABLE[input[i] & 0xFF];
+			invalid |= val;
+			output[outputIndex++] = (byte) val;
+		}
+		if (invalid < 0) {
+			for (i = inputOffset; i < end; i++) {
+				if (DECODE_TABLE[input[i] & 0xFF] < 0) {
+					throw invalidCharacter(input[i] & 0xFF);
+				}
+			}
+		}
+		return outputIndex - outputOffset;
+	}
+
+	/**
+	 * Return the 4-bit value of the character or {@link #INVALID}.
+	 */
+	private static int lookup(int ch) {
+		if (ch >= DECODE_TABLE.length) {
+			return INVALID;
+		}
+		return DECODE_TABLE[ch];
+	}
+
+	private static IllegalArgumentException invalidCharacter(int ch) {
+		return new IllegalArgumentException("Invalid hex character: " + (char) ch);
+	}
+
+	private static void checkOutput(int numBytes, int outputLength, int outputOffset) {
+		if (outputOffset < 0 || outputLength - outputOffset < numBytes) {
+			throw new IllegalArgumentException("Output buffer of length " + outputLength + " at offset "
+					+ outputOffset + " does not have room for " + numBytes + " bytes");
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.j256.twofactorauth;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-thread scratch buffers used when hashing the time-step values with the built-in HMACs so that generating and
+ * validating numbers does not allocate any memory once the thread has warmed up. The JCE {@link javax.crypto.Mac} path
+ * does not use these so threads borrowing from a {@link PooledMacSource} do not each get their own buffers.
+ *
+ * @author graywatson
+ */
+final class HmacScratch {
+
+	private static final AtomicInteger createdCount = new AtomicInteger();
+	private static final ThreadLocal<HmacScratch> threadScratch = new ThreadLocal<HmacScratch>() {
+		@Override
+		protected HmacScratch initialValue() {
+			createdCount.incrementAndGet();
+			return new HmacScratch();
+		}
+	};
+
+	/** message schedule for the SHA-1 and SHA-256 compressions */
+	final int[] schedule = new int[HmacSha1.SCHEDULE_LENGTH];
+	/** message schedule for the SHA-512 compressions */
+	final long[] longSchedule = new long[HmacSha512.SCHEDULE_LENGTH];
+	/** hash output which is long enough for any of the algorithms */
+	final byte[] hash = new byte[HmacSha512.HASH_LENGTH];
+
+	private HmacScratch() {
+		// only from the thread-local
+	}
+
+	/**
+	 * Return the scratch buffers for the current thread.
+	 */
+	static HmacScratch get() {
+		return threadScratch.get();
+	}
+
+	/**
+	 * Return the number of threads that have had scratch buffers created for them. Exposed for testing.
+	 */
+	static int getCreatedCount() {
+		return createdCount.get();
+	}
+}
@@ -0,0 +1,202 @@
+package com.j256.twofactorauth;
+
+/**
+ * Pure Java HMAC-SHA1 which is specialized for hashing the 8 byte time-step value. An HMAC over an 8 byte value takes
+ * four SHA-1 compressions but the first block of the inner and outer hashes (the key XOR'd with the ipad and opad) only
+ * depend on the key. This class compresses those two blocks once in the constructor and keeps the resulting 20 byte
+ * midstates so each number only costs two compressions. See {@link PreparedHmac}.
+ *
+ * <p>
+ * This class is immutable and can be shared between threads. The callers pass in the scratch space.
+ * </p>
+ *
+ * @author graywatson
+ */
+final class HmacSha1 extends PreparedHmac {
+
+	/** SHA-1 block length in bytes */
+	static final int BLOCK_LENGTH = 64;
+	/** SHA-1 hash length in bytes */
+	static final int HASH_LENGTH = 20;
+	/** number of ints in the message schedule that needs to be passed into {@link #hashValue(long, int[], byte[])} */
+	static final int SCHEDULE_LENGTH = 80;
+
+	private static final int[] INITIAL_STATE = new int[] { 0x67452301, 0xEFCDAB89, 0x98BADCFE, 0x10325476, 0xC3D2E1F0 };
+	/** bit length of the inner message: ipad block + 8 byte value */
+	private static final int INNER_BIT_LENGTH = (BLOCK_LENGTH + 8) * 8;
+	/** bit length of the outer message: opad block + inner hash */
+	private static final int OUTER_BIT_LENGTH = (BLOCK_LENGTH + HASH_LENGTH) * 8;
+
+	private final int[] innerState = new int[5];
+	private final int[] outerState = new int[5];
+
+	HmacSha1(byte[] key) {
+		if (key.length > BLOCK_LENGTH) {
+			// long keys are hashed first as per RFC 2104
+			key = digest(key);
+		}
+		byte[] block = new byte[BLOCK_LENGTH];
+		int[] schedule = new int[SCHEDULE_LENGTH];
+
+		for (int i = 0; i < BLOCK_LENGTH; i++) {
+			block[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x36);
+		}
+		loadBlock(block, 0, schedule);
+		compress(INITIAL_STATE, schedule, innerState);
+
+		for (int i = 0; i < BLOCK_LENGTH; i++) {
+			block[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x5C);
+		}
+		loadBlock(block, 0, schedule);
+		compress(INITIAL_STATE, schedule, outerState);
+	}
+
+	@Override
+	TotpAlgorithm getAlgorithm() {
+		return TotpAlgorithm.SHA1;
+	}
+
+	@Override
+	void hashValue(long value, HmacScratch scratch) {
+		hashValue(value, scratch.schedule, scratch.hash);
+	}
+
+	/**
+	 * Calculate the HMAC of the 8 byte big-endian value and write the 20 byte hash into the output array.
+	 *
+	 * @param value
+	 *            Value to be hashed. This is the time-step for TOTP.
+	 * @param schedule
+	 *            Scratch space of at least {@link #SCHEDULE_LENGTH} ints.
+	 * @param output
+	 *            Array of at least {@link #HASH_LENGTH} bytes where the hash is written.
+	 */
+	void hashValue(long value, int[] schedule, byte[] output) {
+		// inner hash: the value followed by the padding and the length
+		schedule[0] = (int) (value >>> 32);
+		schedule[1] = (int) value;
+		schedule[2] = 0x80000000;
+		for (int i = 3; i < 15; i++) {
+			schedule[i] = 0;
+		}
+		schedule[15] = INNER_BIT_LENGTH;
+		// the inner hash is written into the start of the schedule which is the start of the outer block
+		compress(innerState, schedule, schedule);
+
+		// outer hash: the inner hash followed by the padding and the length
+		schedule[5] = 0x80000000;
+		for (int i = 6; i < 15; i++) {
+			schedule[i] = 0;
+		}
+		schedule[15] = OUTER_BIT_LENGTH;
+		compress(outerState, schedule, schedule);
+
+		for (int i = 0; i < 5; i++) {
+			int word = schedule[i];
+			output[i * 4] = (byte) (word >>> 24);
+			output[i * 4 + 1] = (byte) (word >>> 16);
+			output[i * 4 + 2] = (byte) (word >>> 8);
+			output[i * 4 + 3] = (byte) word;
+		}
+	}
+
+	/**
+	 * Return the SHA-1 digest of the message. Only used for keys longer than the block length. Exposed for testing.
+	 */
+	static byte[] digest(byte[] message) {
+		// message plus 0x80 plus 8 byte length rounded up to the block length
+		int paddedLength = ((message.length + 1 + 8 + BLOCK_LENGTH - 1) / BLOCK_LENGTH) * BLOCK_LENGTH;
+		byte[] padded = new byte[paddedLength];
+		System.arraycopy(message, 0, padded, 0, message.length);
+		padded[message.length] = (byte) 0x80;
+		long bitLength = (long) message.length * 8;
+		for (int i = 0; i < 8; i++) {
+			padded[paddedLength - 1 - i] = (byte) (bitLength >>> (i * 8));
+		}
+
+		int[] state = INITIAL_STATE.clone();
+		int[] schedule = new int[SCHEDULE_LENGTH];
+		for (int offset = 0; offset < paddedLength; offset += BLOCK_LENGTH) {
+			loadBlock(padded, offset, schedule);
+			compress(state, schedule, state);
+		}
+
+		byte[] result = new byte[HASH_LENGTH];
+		for (int i = 0; i < 5; i++) {
+			result[i * 4] = (byte) (state[i] >>> 24);
+			result[i * 4 + 1] = (byte) (state[i] >>> 16);
+			result[i * 4 + 2] = (byte) (state[i] >>> 8);
+			result[i * 4 + 3] = (byte) state[i];
+		}
+		return result;
+	}
+
+	private static void loadBlock(byte[] bytes, int offset, int[] schedule) {
+		for (int i = 0; i < 16; i++) {
+			int index = offset + i * 4;
+			schedule[i] = (bytes[index] << 24) | ((bytes[index + 1] & 0xFF) << 16) | ((bytes[index + 2] & 0xFF) << 8)
+					| (bytes[index + 3] & 0xFF);
+		}
+	}
+
+	/**
+	 * SHA-1 compression of the block in the first 16 ints of the schedule starting from the state. The resulting 5 ints
+	 * are written into output which may be the state or the schedule array since it is written after they are read.
+	 */
+	private static void compress(int[] state, int[] schedule, int[] output) {
+		for (int t = 16; t < 80; t++) {
+			int x = schedule[t - 3] ^ schedule[t - 8] ^ schedule[t - 14] ^ schedule[t - 16];
+			schedule[t] = (x << 1) | (x >>> 31);
+		}
+
+		int a = state[0];
+		int b = state[1];
+		int c = state[2];
+		int d = state[3];
+		int e = state[4];
+		int temp;
+		for (int t = 0; t < 20; t++) {
+			temp = ((a << 5) | (a >>> 27)) + ((b & c) | (~b & d)) + e + 0x5A827999 + schedule[t];
+			e = d;
+			d = c;
+			c = (b << 30) | (b >>> 2);
+			b = a;
+			a = temp;
+		}
+		for (int t = 20; t < 40; t++) {
+			temp = ((a << 5) | (a >>> 27)) + (b ^ c ^ d) + e + 0x6ED9EBA1 + schedule[t];
+			e = d;
+			d = c;
+			c = (b << 30) | (b >>> 2);
+			b = a;
+			a = temp;
+		}
+		for (int t = 40; t < 60; t++) {
+			temp = ((a << 5) | (a >>> 27)) + ((b & c) | (b & d) | (c & d)) + e + 0x8F1BBCDC + schedule[t];
+			e = d;
+			d = c;
+			c = (b << 30) | (b >>> 2);
+			b = a;
+			a = temp;
+		}
+		for (int t = 60; t < 80; t++) {
+			temp = ((a << 5) | (a >>> 27)) + (b ^ c ^ d) + e + 0xCA62C1D6 + schedule[t];
+			e = d;
+			d = c;
+			c = (b << 30) | (b >>> 2);
+			b = a;
+			a = temp;
+		}
+
+		int h0 = state[0] + a;
+		int h1 = state[1] + b;
+		int h2 = state[2] + c;
+		int h3 = state[3] + d;
+		int h4 = state[4] + e;
+		output[0] = h0;
+		output[1] = h1;
+		output[2] = h2;
+		output[3] = h3;
+		output[4] = h4;
+	}
+}
@@ -0,0 +1,204 @@
+package com.j256.twofactorauth;
+
+/**
+ * Pure Java HMAC-SHA256 which is specialized for hashing the 8 byte time-step value. Like {@link HmacSha1}, the inner
+ * and outer key blocks are compressed once in the constructor and the resulting 32 byte midstates are kept so each
+ * number only costs two SHA-256 compressions.
+ *
+ * <p>
+ * This class is immutable and can be shared between threads. The callers pass in the scratch space.
+ * </p>
+ *
+ * @author graywatson
+ */
+final class HmacSha256 extends PreparedHmac {
+
+	/** SHA-256 block length in bytes */
+	static final int BLOCK_LENGTH = 64;
+	/** SHA-256 hash length in bytes */
+	static final int HASH_LENGTH = 32;
+	/** number of ints in the message schedule that needs to be passed into {@link #hashValue(long, int[], byte[])} */
+	static final int SCHEDULE_LENGTH = 64;
+
+	private static final int[] INITIAL_STATE = new int[] { 0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F,
+			0x9B05688C, 0x1F83D9AB, 0x5BE0CD19 };
+	private static final int[] ROUND_CONSTANTS = new int[] { 0x428A2F98, 0x71374491, 0xB5C0FBCF, 0xE9B5DBA5,
+			0x3956C25B, 0x59F111F1, 0x923F82A4, 0xAB1C5ED5, 0xD807AA98, 0x12835B01, 0x243185BE, 0x550C7DC3, 0x72BE5D74,
+			0x80DEB1FE, 0x9BDC06A7, 0xC19BF174, 0xE49B69C1, 0xEFBE4786, 0x0FC19DC6, 0x240CA1CC, 0x2DE92C6F, 0x4A7484AA,
+			0x5CB0A9DC, 0x76F988DA, 0x983E5152, 0xA831C66D, 0xB00327C8, 0xBF597FC7, 0xC6E00BF3, 0xD5A79147, 0x06CA6351,
+			0x14292967, 0x27B70A85, 0x2E1B2138, 0x4D2C6DFC, 0x53380D13, 0x650A7354, 0x766A0ABB, 0x81C2C92E, 0x92722C85,
+			0xA2BFE8A1, 0xA81A664B, 0xC24B8B70, 0xC76C51A3, 0xD192E819, 0xD6990624, 0xF40E3585, 0x106AA070, 0x19A4C116,
+			0x1E376C08, 0x2748774C, 0x34B0BCB5, 0x391C0CB3, 0x4ED8AA4A, 0x5B9CCA4F, 0x682E6FF3, 0x748F82EE, 0x78A5636F,
+			0x84C87814, 0x8CC70208, 0x90BEFFFA, 0xA4506CEB, 0xBEF9A3F7, 0xC67178F2 };
+	/** bit length of the inner message: ipad block + 8 byte value */
+	private static final int INNER_BIT_LENGTH = (BLOCK_LENGTH + 8) * 8;
+	/** bit length of the outer message: opad block + inner hash */
+	private static final int OUTER_BIT_LENGTH = (BLOCK_LENGTH + HASH_LENGTH) * 8;
+
+	private final int[] innerState = new int[8];
+	private final int[] outerState = new int[8];
+
+	HmacSha256(byte[] key) {
+		if (key.length > BLOCK_LENGTH) {
+			// long keys are hashed first as per RFC 2104
+			key = digest(key);
+		}
+		byte[] block = new byte[BLOCK_LENGTH];
+		int[] schedule = new int[SCHEDULE_LENGTH];
+
+		for (int i = 0; i < BLOCK_LENGTH; i++) {
+			block[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x36);
+		}
+		loadBlock(block, 0, schedule);
+		compress(INITIAL_STATE, schedule, innerState);
+
+		for (int i = 0; i < BLOCK_LENGTH; i++) {
+			block[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x5C);
+		}
+		loadBlock(block, 0, schedule);
+		compress(INITIAL_STATE, schedule, outerState);
+	}
+
+	@Override
+	TotpAlgorithm getAlgorithm() {
+		return TotpAlgorithm.SHA256;
+	}
+
+	@Override
+	void hashValue(long value, HmacScratch scratch) {
+		hashValue(value, scratch.schedule, scratch.hash);
+	}
+
+	/**
+	 * Calculate the HMAC of the 8 byte big-endian value and write the 32 byte hash into the output array.
+	 *
+	 * @param value
+	 *            Value to be hashed. This is the time-step for TOTP.
+	 * @param schedule
+	 *            Scratch space of at least {@link #SCHEDULE_LENGTH} ints.
+	 * @param output
+	 *            Array of at least {@link #HASH_LENGTH} bytes where the hash is written.
+	 */
+	void hashValue(long value, int[] schedule, byte[] output) {
+		// inner hash: the value followed by the padding and the length
+		schedule[0] = (int) (value >>> 32);
+		schedule[1] = (int) value;
+		schedule[2] = 0x80000000;
+		for (int i = 3; i < 15; i++) {
+			schedule[i] = 0;
+		}
+		schedule[15] = INNER_BIT_LENGTH;
+		// the inner hash is written into the start of the schedule which is the start of the outer block
+		compress(innerState, schedule, schedule);
+
+		// outer hash: the inner hash followed by the padding and the length
+		schedule[8] = 0x80000000;
+		for (int i = 9; i < 15; i++) {
+			schedule[i] = 0;
+		}
+		schedule[15] = OUTER_BIT_LENGTH;
+		compress(outerState, schedule, schedule);
+
+		for (int i = 0; i < 8; i++) {
+			int word = schedule[i];
+			output[i * 4] = (byte) (word >>> 24);
+			output[i * 4 + 1] = (byte) (word >>> 16);
+			output[i * 4 + 2] = (byte) (word >>> 8);
+			output[i * 4 + 3] = (byte) word;
+		}
+	}
+
+	/**
+	 * Return the SHA-256 digest of the message. Only used for keys longer than the block length. Exposed for testing.
+	 */
+	static byte[] digest(byte[] message) {
+		// message plus 0x80 plus 8 byte length rounded up to the block length
+		int paddedLength = ((message.length + 1 + 8 + BLOCK_LENGTH - 1) / BLOCK_LENGTH) * BLOCK_LENGTH;
+		byte[] padded = new byte[paddedLength];
+		System.arraycopy(message, 0, padded, 0, message.length);
+		padded[message.length] = (byte) 0x80;
+		long bitLength = (long) message.length * 8;
+		for (int i = 0; i < 8; i++) {
+			padded[paddedLength - 1 - i] = (byte) (bitLength >>> (i * 8));
+		}
+
+		int[] state = INITIAL_STATE.clone();
+		int[] schedule = new int[SCHEDULE_LENGTH];
+		for (int offset = 0; offset < paddedLength; offset += BLOCK_LENGTH) {
+			loadBlock(padded, offset, schedule);
+			compress(state, schedule, state);
+		}
+
+		byte[] result = new byte[HASH_LENGTH];
+		for (int i = 0; i < 8; i++) {
+			result[i * 4] = (byte) (state[i] >>> 24);
+			result[i * 4 + 1] = (byte) (state[i] >>> 16);
+			result[i * 4 + 2] = (byte) (state[i] >>> 8);
+			result[i * 4 + 3] = (byte) state[i];
+		}
+		return result;
+	}
+
+	private static void loadBlock(byte[] bytes, int offset, int[] schedule) {
+		for (int i = 0; i < 16; i++) {
+			int index = offset + i * 4;
+			schedule[i] = (bytes[index] << 24) | ((bytes[index + 1] & 0xFF) << 16) | ((bytes[index + 2] & 0xFF) << 8)
+					| (bytes[index + 3] & 0xFF);
+		}
+	}
+
+	/**
+	 * SHA-256 compression of the block in the first 16 ints of the schedule starting from the state. The resulting 8
+	 * ints are written into output which may be the state or the schedule array since it is written after they are
+	 * read.
+	 */
+	private static void compress(int[] state, int[] schedule, int[] output) {
+		for (int t = 16; t < 64; t++) {
+			int w15 = schedule[t - 15];
+			int w2 = schedule[t - 2];
+			int s0 = ((w15 >>> 7) | (w15 << 25)) ^ ((w15 >>> 18) | (w15 << 14)) ^ (w15 >>> 3);
+			int s1 = ((w2 >>> 17) | (w2 << 15)) ^ ((w2 >>> 19) | (w2 << 13)) ^ (w2 >>> 10);
+			schedule[t] = schedule[t - 16] + s0 + schedule[t - 7] + s1;
+		}
+
+		int a = state[0];
+		int b = state[1];
+		int c = state[2];
+		int d = state[3];
+		int e = state[4];
+		int f = state[5];
+		int g = state[6];
+		int h = state[7];
+		for (int t = 0; t < 64; t++) {
+			int s1 = ((e >>> 6) | (e << 26)) ^ ((e >>> 11) | (e << 21)) ^ ((e >>> 25) | (e << 7));
+			int temp1 = h + s1 + ((e & f) ^ (~e & g)) + ROUND_CONSTANTS[t] + schedule[t];
+			int s0 = ((a >>> 2) | (a << 30)) ^ ((a >>> 13) | (a << 19)) ^ ((a >>> 22) | (a << 10));
+			int temp2 = s0 + ((a & b) ^ (a & c) ^ (b & c));
+			h = g;
+			g = f;
+			f = e;
+			e = d + temp1;
+			d = c;
+			c = b;
+			b = a;
+			a = temp1 + temp2;
+		}
+
+		int h0 = state[0] + a;
+		int h1 = state[1] + b;
+		int h2 = state[2] + c;
+		int h3 = state[3] + d;
+		int h4 = state[4] + e;
+		int h5 = state[5] + f;
+		int h6 = state[6] + g;
+		int h7 = state[7] + h;
+		output[0] = h0;
+		output[1] = h1;
+		output[2] = h2;
+		output[3] = h3;
+		output[4] = h4;
+		output[5] = h5;
+		output[6] = h6;
+		output[7] = h7;
+	}
+}
@@ -0,0 +1,213 @@
+package com.j256.twofactorauth;
+
+/**
+ * Pure Java HMAC-SHA512 which is specialized for hashing the 8 byte time-step value. Like {@link HmacSha1}, the inner
+ * and outer key blocks are compressed once in the constructor and the resulting 64 byte midstates are kept so each
+ * number only costs two SHA-512 compressions.
+ *
+ * <p>
+ * This class is immutable and can be shared between threads. The callers pass in the scratch space.
+ * </p>
+ *
+ * @author graywatson
+ */
+final class HmacSha512 extends PreparedHmac {
+
+	/** SHA-512 block length in bytes */
+	static final int BLOCK_LENGTH = 128;
+	/** SHA-512 hash length in bytes */
+	static final int HASH_LENGTH = 64;
+	/** number of longs in the message schedule that needs to be passed into {@link #hashValue(long, long[], byte[])} */
+	static final int SCHEDULE_LENGTH = 80;
+
+	private static final long[] INITIAL_STATE = new long[] { 0x6A09E667F3BCC908L, 0xBB67AE8584CAA73BL,
+			0x3C6EF372FE94F82BL, 0xA54FF53A5F1D36F1L, 0x510E527FADE682D1L, 0x9B05688C2B3E6C1FL, 0x1F83D9ABFB41BD6BL,
+			0x5BE0CD19137E2179L };
+	private static final long[] ROUND_CONSTANTS = new long[] { 0x428A2F98D728AE22L, 0x7137449123EF65CDL,
+			0xB5C0FBCFEC4D3B2FL, 0xE9B5DBA58189DBBCL, 0x3956C25BF348B538L, 0x59F111F1B605D019L, 0x923F82A4AF194F9BL,
+			0xAB1C5ED5DA6D8118L, 0xD807AA98A3030242L, 0x12835B0145706FBEL, 0x243185BE4EE4B28CL, 0x550C7DC3D5FFB4E2L,
+			0x72BE5D74F27B896FL, 0x80DEB1FE3B1696B1L, 0x9BDC06A725C71235L, 0xC19BF174CF692694L, 0xE49B69C19EF14AD2L,
+			0xEFBE4786384F25E3L, 0x0FC19DC68B8CD5B5L, 0x240CA1CC77AC9C65L, 0x2DE92C6F592B0275L, 0x4A7484AA6EA6E483L,
+			0x5CB0A9DCBD41FBD4L, 0x76F988DA831153B5L, 0x983E5152EE66DFABL, 0xA831C66D2DB43210L, 0xB00327C898FB213FL,
+			0xBF597FC7BEEF0EE4L, 0xC6E00BF33DA88FC2L, 0xD5A79147930AA725L, 0x06CA6351E003826FL, 0x142929670A0E6E70L,
+			0x27B70A8546D22FFCL, 0x2E1B21385C26C926L, 0x4D2C6DFC5AC42AEDL, 0x53380D139D95B3DFL, 0x650A73548BAF63DEL,
+			0x766A0ABB3C77B2A8L, 0x81C2C92E47EDAEE6L, 0x92722C851482353BL, 0xA2BFE8A14CF10364L, 0xA81A664BBC423001L,
+			0xC24B8B70D0F89791L, 0xC76C51A30654BE30L, 0xD192E819D6EF5218L, 0xD69906245565A910L, 0xF40E35855771202AL,
+			0x106AA07032BBD1B8L, 0x19A4C116B8D2D0C8L, 0x1E376C085141AB53L, 0x2748774CDF8EEB99L, 0x34B0BCB5E19B48A8L,
+			0x391C0CB3C5C95A63L, 0x4ED8AA4AE3418ACBL, 0x5B9CCA4F7763E373L, 0x682E6FF3D6B2B8A3L, 0x748F82EE5DEFB2FCL,
+			0x78A5636F43172F60L, 0x84C87814A1F0AB72L, 0x8CC702081A6439ECL, 0x90BEFFFA23631E28L, 0xA4506CEBDE82BDE9L,
+			0xBEF9A3F7B2C67915L, 0xC67178F2E372532BL, 0xCA273ECEEA26619CL, 0xD186B8C721C0C207L, 0xEADA7DD6CDE0EB1EL,
+			0xF57D4F7FEE6ED178L, 0x06F067AA72176FBAL, 0x0A637DC5A2C898A6L, 0x113F9804BEF90DAEL, 0x1B710B35131C471BL,
+			0x28DB77F523047D84L, 0x32CAAB7B40C72493L, 0x3C9EBE0A15C9BEBCL, 0x431D67C49C100D4CL, 0x4CC5D4BECB3E42B6L,
+			0x597F299CFC657E2AL, 0x5FCB6FAB3AD6FAECL, 0x6C44198C4A475817L };
+	/** bit length of the inner message: ipad block + 8 byte value */
+	private static final long INNER_BIT_LENGTH = (BLOCK_LENGTH + 8) * 8;
+	/** bit length of the outer message: opad block + inner hash */
+	private static final long OUTER_BIT_LENGTH = (BLOCK_LENGTH + HASH_LENGTH) * 8;
+
+	private final long[] innerState = new long[8];
+	private final long[] outerState = new long[8];
+
+	HmacSha512(byte[] key) {
+		if (key.length > BLOCK_LENGTH) {
+			// long keys are hashed first as per RFC 2104
+			key = digest(key);
+		}
+		byte[] block = new byte[BLOCK_LENGTH];
+		long[] schedule = new long[SCHEDULE_LENGTH];
+
+		for (int i = 0; i < BLOCK_LENGTH; i++) {
+			block[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x36);
+		}
+		loadBlock(block, 0, schedule);
+		compress(INITIAL_STATE, schedule, innerState);
+
+		for (int i = 0; i < BLOCK_LENGTH; i++) {
+			block[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x5C);
+		}
+		loadBlock(block, 0, schedule);
+		compress(INITIAL_STATE, schedule, outerState);
+	}
+
+	@Override
+	TotpAlgorithm getAlgorithm() {
+		return TotpAlgorithm.SHA512;
+	}
+
+	@Override
+	void hashValue(long value, HmacScratch scratch) {
+		hashValue(value, scratch.longSchedule, scratch.hash);
+	}
+
+	/**
+	 * Calculate the HMAC of the 8 byte big-endian value and write the 64 byte hash into the output array.
+	 *
+	 * @param value
+	 *            Value to be hashed. This is the time-step for TOTP.
+	 * @param schedule
+	 *            Scratch space of at least {@link #SCHEDULE_LENGTH} longs.
+	 * @param output
+	 *            Array of at least {@link #HASH_LENGTH} bytes where the hash is written.
+	 */
+	void hashValue(long value, long[] schedule, byte[] output) {
+		// inner hash: the value followed by the padding and the 16 byte length
+		schedule[0] = value;
+		schedule[1] = 0x8000000000000000L;
+		for (int i = 2; i < 15; i++) {
+			schedule[i] = 0;
+		}
+		schedule[15] = INNER_BIT_LENGTH;
+		// the inner hash is written into the start of the schedule which is the start of the outer block
+		compress(innerState, schedule, schedule);
+
+		// outer hash: the inner hash followed by the padding and the length
+		schedule[8] = 0x8000000000000000L;
+		for (int i = 9; i < 15; i++) {
+			schedule[i] = 0;
+		}
+		schedule[15] = OUTER_BIT_LENGTH;
+		compress(outerState, schedule, schedule);
+
+		for (int i = 0; i < 8; i++) {
+			long word = schedule[i];
+			for (int j = 0; j < 8; j++) {
+				output[i * 8 + j] = (byte) (word >>> (56 - j * 8));
+			}
+		}
+	}
+
+	/**
+	 * Return the SHA-512 digest of the message. Only used for keys longer than the block length. Exposed for testing.
+	 */
+	static byte[] digest(byte[] message) {
+		// message plus 0x80 plus 16 byte length rounded up to the block length
+		int paddedLength = ((message.length + 1 + 16 + BLOCK_LENGTH - 1) / BLOCK_LENGTH) * BLOCK_LENGTH;
+		byte[] padded = new byte[paddedLength];
+		System.arraycopy(message, 0, padded, 0, message.length);
+		padded[message.length] = (byte) 0x80;
+		long bitLength = (long) message.length * 8;
+		for (int i = 0; i < 8; i++) {
+			padded[paddedLength - 1 - i] = (byte) (bitLength >>> (i * 8));
+		}
+
+		long[] state = INITIAL_STATE.clone();
+		long[] schedule = new long[SCHEDULE_LENGTH];
+		for (int offset = 0; offset < paddedLength; offset += BLOCK_LENGTH) {
+			loadBlock(padded, offset, schedule);
+			compress(state, schedule, state);
+		}
+
+		byte[] result = new byte[HASH_LENGTH];
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				result[i * 8 + j] = (byte) (state[i] >>> (56 - j * 8));
+			}
+		}
+		return result;
+	}
+
+	private static void loadBlock(byte[] bytes, int offset, long[] schedule) {
+		for (int i = 0; i < 16; i++) {
+			long word = 0;
+			for (int j = 0; j < 8; j++) {
+				word = (word << 8) | (bytes[offset + i * 8 + j] & 0xFF);
+			}
+			schedule[i] = word;
+		}
+	}
+
+	/**
+	 * SHA-512 compression of the block in the first 16 longs of the schedule starting from the state. The resulting 8
+	 * longs are written into output which may be the state or the schedule array since it is written after they are
+	 * read.
+	 */
+	private static void compress(long[] state, long[] schedule, long[] output) {
+		for (int t = 16; t < 80; t++) {
+			long w15 = schedule[t - 15];
+			long w2 = schedule[t - 2];
+			long s0 = ((w15 >>> 1) | (w15 << 63)) ^ ((w15 >>> 8) | (w15 << 56)) ^ (w15 >>> 7);
+			long s1 = ((w2 >>> 19) | (w2 << 45)) ^ ((w2 >>> 61) | (w2 << 3)) ^ (w2 >>> 6);
+			schedule[t] = schedule[t - 16] + s0 + schedule[t - 7] + s1;
+		}
+
+		long a = state[0];
+		long b = state[1];
+		long c = state[2];
+		long d = state[3];
+		long e = state[4];
+		long f = state[5];
+		long g = state[6];
+		long h = state[7];
+		for (int t = 0; t < 80; t++) {
+			long s1 = ((e >>> 14) | (e << 50)) ^ ((e >>> 18) | (e << 46)) ^ ((e >>> 41) | (e << 23));
+			long temp1 = h + s1 + ((e & f) ^ (~e & g)) + ROUND_CONSTANTS[t] + schedule[t];
+			long s0 = ((a >>> 28) | (a << 36)) ^ ((a >>> 34) | (a << 30)) ^ ((a >>> 39) | (a << 25));
+			long temp2 = s0 + ((a & b) ^ (a & c) ^ (b & c));
+			h = g;
+			g = f;
+			f = e;
+			e = d + temp1;
+			d = c;
+			c = b;
+			b = a;
+			a = temp1 + temp2;
+		}
+
+		long h0 = state[0] + a;
+		long h1 = state[1] + b;
+		long h2 = state[2] + c;
+		long h3 = state[3] + d;
+		long h4 = state[4] + e;
+		long h5 = state[5] + f;
+		long h6 = state[6] + g;
+		long h7 = state[7] + h;
+		output[0] = h0;
+		output[1] = h1;
+		output[2] = h2;
+		output[3] = h3;
+		output[4] = h4;
+		output[5] = h5;
+		output[6] = h6;
+		output[7] = h7;
+	}
+}
@@ -0,0 +1,168 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resynchronizes HOTP tokens whose counter has gotten thousands of counters ahead of the stored one, for example after
+ * the button was pressed over and over in a drawer. The counter range is split into chunks which are searched for the
+ * two consecutive numbers by the threads of an {@link ExecutorService} such as a {@code ForkJoinPool}. Each chunk
+ * uses the prepared key midstates. The earliest matching counter is returned, the same as
+ * {@link CounterBasedOneTimePasswordUtil#resynchronize(TotpKey, int, int, long, int, int)}, and once it is known the
+ * chunks after it are cancelled or skipped.
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class HotpResynchronizer {
+
+	/** default number of counters searched by each task */
+	public static final int DEFAULT_CHUNK_SIZE = 256;
+
+	private final ExecutorService executor;
+	private final int chunkSize;
+	private final AtomicLong skippedChunkCount = new AtomicLong();
+
+	/**
+	 * Create a resynchronizer which splits the search into chunks of {@link #DEFAULT_CHUNK_SIZE} counters.
+	 */
+	public HotpResynchronizer(ExecutorService executor) {
+		this(executor, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param executor
+	 *            Executor that searches the chunks.
+	 * @param chunkSize
+	 *            Number of counters searched by each task. Ranges that are not larger than this are searched in the
+	 *            calling thread.
+	 */
+	public HotpResynchronizer(ExecutorService executor, int chunkSize) {
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor cannot be null");
+		}
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+		}
+		this.executor = executor;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Find two consecutive numbers from the token in the counters starting at the stored one. See
+	 * {@link CounterBasedOneTimePasswordUtil#resynchronize(TotpKey, int, int, long, int, int)}.
+	 *
+	 * @param key
+	 *            Prepared key of the token.
+	 * @param firstNumber
+	 *            First number provided by the user from their token.
+	 * @param secondNumber
+	 *            Number that the token showed after the first one.
+	 * @param counter
+	 *            Counter that was stored after the last successful validation.
+	 * @param searchLength
+	 *            Number of counters starting at the stored one where the first number is searched for.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @return The counter to store which is one past the counter that matched the second number or
+	 *         {@link CounterBasedOneTimePasswordUtil#NO_MATCHING_COUNTER} if the pair was not found.
+	 */
+	public long resynchronize(TotpKey key, final int firstNumber, final int secondNumber, long counter,
+			int searchLength, final int numDigits) throws GeneralSecurityException {
+		if (searchLength <= chunkSize) {
+			return CounterBasedOneTimePasswordUtil.resynchronize(key, firstNumber, secondNumber, counter,
+					searchLength, numDigits);
+		}
+		CounterBasedOneTimePasswordUtil.checkCounter(counter, searchLength);
+		if (!TimeBasedOneTimePasswordUtil.isPossibleNumber(firstNumber, numDigits)
+				|| !TimeBasedOneTimePasswordUtil.isPossibleNumber(secondNumber, numDigits)) {
+			return CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER;
+		}
+
+		final byte[] keyBytes = key.getKey();
+		final PreparedHmac hmac = TimeBasedOneTimePasswordUtil.prepareForSearch(keyBytes, key.getHmac());
+		// lowest counter that the first number has matched so far so the chunks after it can be skipped
+		final AtomicLong earliestMatch = new AtomicLong(Long.MAX_VALUE);
+		long end = counter + searchLength;
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		for (long start = counter; start < end; start += chunkSize) {
+			final long chunkStart = start;
+			final long chunkEnd = Math.min(end, start + chunkSize);
+			futures.add(executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws GeneralSecurityException {
+					if (earliestMatch.get() < chunkStart) {
+						skippedChunkCount.incrementAndGet();
+						return CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER;
+					}
+					long match = CounterBasedOneTimePasswordUtil.findPair(keyBytes, hmac, firstNumber, secondNumber,
+							chunkStart, chunkEnd, numDigits);
+					if (match != CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER) {
+						// the match is the counter after the second number
+						updateEarliest(earliestMatch, match - 2);
+					}
+					return match;
+				}
+			}));
+		}
+
+		try {
+			// the chunks are in counter order so the first one with a match has the earliest match
+			for (int i = 0; i < futures.size(); i++) {
+				long match = futures.get(i).get();
+				if (match != CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER) {
+					cancelAll(futures.subList(i + 1, futures.size()));
+					return match;
+				}
+			}
+			return CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			cancelAll(futures);
+			throw new IllegalStateException("Interrupted while waiting for the resynchronization", ie);
+		} catch (ExecutionException ee) {
+			cancelAll(futures);
+			Throwable cause = ee.getCause();
+			if (cause instanceof GeneralSecurityException) {
+				throw (GeneralSecurityException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new IllegalStateException("Problems resynchronizing", cause);
+			}
+		}
+	}
+
+	/**
+	 * Return the number of chunks that were skipped because an earlier chunk had already matched.
+	 */
+	public long getSkippedChunkCount() {
+		return skippedChunkCount.get();
+	}
+
+	private static void updateEarliest(AtomicLong earliestMatch, long matchCounter) {
+		while (true) {
+			long current = earliestMatch.get();
+			if (current <= matchCounter || earliestMatch.compareAndSet(current, matchCounter)) {
+				return;
+			}
+		}
+	}
+
+	private static void cancelAll(List<Future<Long>> futures) {
+		for (Future<Long> future : futures) {
+			future.cancel(false);
+		}
+	}
+}
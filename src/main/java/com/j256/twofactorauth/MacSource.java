@@ -0,0 +1,31 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+
+/**
+ * Strategy for acquiring a {@link Mac} instance to hash the time-step value. Looking up a {@link Mac} with
+ * {@link Mac#getInstance(String)} resolves the provider service each time which is expensive so implementations hand
+ * out and take back instances so they can be reused. See {@link TimeBasedOneTimePasswordUtil#setMacSource(MacSource)}.
+ *
+ * <p>
+ * Implementations must be thread-safe. The caller always calls {@link Mac#init(java.security.Key)} on the returned
+ * instance before using it.
+ * </p>
+ *
+ * @author graywatson
+ */
+public interface MacSource {
+
+	/**
+	 * Acquire a {@link Mac} for the algorithm (e.g. "HmacSHA1"). The instance must not be used by anyone else until it
+	 * has been passed to {@link #release(Mac)}.
+	 */
+	public Mac acquire(String algorithm) throws GeneralSecurityException;
+
+	/**
+	 * Give back a {@link Mac} which was returned by {@link #acquire(String)} so it can be reused.
+	 */
+	public void release(Mac mac);
+}
@@ -0,0 +1,89 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.crypto.Mac;
+
+/**
+ * {@link MacSource} which keeps a bounded lock-free pool of {@link Mac} instances shared by all threads. Unlike
+ * {@link ThreadLocalMacSource}, the number of instances is limited by the pool size and not the number of threads which
+ * is important if you are running validations in virtual threads. Each algorithm has its own pool so the instances of
+ * one do not crowd out another. If the pool is empty then a new instance is created and if the pool is full then the
+ * released instance is dropped.
+ *
+ * @author graywatson
+ */
+public class PooledMacSource implements MacSource {
+
+	/** default number of instances kept in the pool of each algorithm */
+	public static final int DEFAULT_POOL_SIZE = 64;
+
+	private final AtomicReferenceArray<Mac>[] pools;
+
+	public PooledMacSource() {
+		this(DEFAULT_POOL_SIZE);
+	}
+
+	public PooledMacSource(int poolSize) {
+		if (poolSize <= 0) {
+			throw new IllegalArgumentException("Pool size must be positive: " + poolSize);
+		}
+		@SuppressWarnings("unchecked")
+		AtomicReferenceArray<Mac>[] pools = new AtomicReferenceArray[TotpAlgorithm.NUM_MAC_SLOTS];
+		for (int i = 0; i < pools.length; i++) {
+			pools[i] = new AtomicReferenceArray<Mac>(poolSize);
+		}
+		this.pools = pools;
+	}
+
+	@Override
+	public Mac acquire(String algorithm) throws GeneralSecurityException {
+		AtomicReferenceArray<Mac> slots = pools[TotpAlgorithm.macSlot(algorithm)];
+		int length = slots.length();
+		// start at a per-thread slot to spread out the contention
+		int start = startIndex(length);
+		for (int i = 0; i < length; i++) {
+			int index = (start + i) % length;
+			Mac mac = slots.get(index);
+			if (mac != null && mac.getAlgorithm().equals(algorithm) && slots.compareAndSet(index, mac, null)) {
+				return mac;
+			}
+		}
+		// pool is empty so we have to make a new one
+		return Mac.getInstance(algorithm);
+	}
+
+	@Override
+	public void release(Mac mac) {
+		AtomicReferenceArray<Mac> slots = pools[TotpAlgorithm.macSlot(mac.getAlgorithm())];
+		int length = slots.length();
+		int start = startIndex(length);
+		for (int i = 0; i < length; i++) {
+			int index = (start + i) % length;
+			if (slots.get(index) == null && slots.compareAndSet(index, null, mac)) {
+				return;
+			}
+		}
+		// pool is full so drop it on the floor
+	}
+
+	/**
+	 * Return the number of instances of all of the algorithms currently sitting in the pool.
+	 */
+	public int getPoolCount() {
+		int count = 0;
+		for (AtomicReferenceArray<Mac> slots : pools) {
+			for (int i = 0; i < slots.length(); i++) {
+				if (slots.get(i) != null) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private int startIndex(int length) {
+		return (int) (Thread.currentThread().getId() % length);
+	}
+}
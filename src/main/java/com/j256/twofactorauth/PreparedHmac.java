@@ -0,0 +1,26 @@
+package com.j256.twofactorauth;
+
+/**
+ * Pure Java HMAC which is specialized for hashing the 8 byte time-step value. The first block of the inner and outer
+ * hashes (the key XOR'd with the ipad and opad) only depend on the key so the implementations compress those two
+ * blocks once in their constructors and keep the resulting midstates. Each number then only costs two compressions.
+ *
+ * <p>
+ * Implementations are immutable and can be shared between threads. The callers pass in the scratch space.
+ * </p>
+ *
+ * @author graywatson
+ */
+abstract class PreparedHmac {
+
+	/**
+	 * Return the algorithm of this HMAC.
+	 */
+	abstract TotpAlgorithm getAlgorithm();
+
+	/**
+	 * Calculate the HMAC of the 8 byte big-endian value and write the hash into the start of the scratch hash array.
+	 * The hash is {@link TotpAlgorithm#getHashLength()} bytes long.
+	 */
+	abstract void hashValue(long value, HmacScratch scratch);
+}
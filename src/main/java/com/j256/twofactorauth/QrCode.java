@@ -0,0 +1,740 @@
+package com.j256.twofactorauth;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * QR code encoder which renders the otpauth URL into a PNG or SVG image locally instead of asking a remote chart
+ * service to draw it. The text is encoded in byte mode with the medium error correction level, the same as the
+ * Google chart URL from {@link TimeBasedOneTimePasswordUtil#qrImageUrl(String, String)}, in the smallest version
+ * that it fits in. The PNG is written with the {@link Deflater} and {@link CRC32} classes from the JDK so there are no
+ * external dependencies.
+ *
+ * <p>
+ * The images are square and include the quiet zone of {@link #QUIET_ZONE_MODULES} light modules around the code that
+ * scanners need. This class is immutable and thread-safe.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class QrCode {
+
+	/** number of light modules around each side of the code */
+	public static final int QUIET_ZONE_MODULES = 4;
+
+	private static final int MIN_VERSION = 1;
+	private static final int MAX_VERSION = 40;
+	/** error correction codewords in each block for the medium level indexed by version */
+	private static final int[] ECC_CODEWORDS_PER_BLOCK = new int[] { -1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30,
+			22, 22, 24, 24, 28, 28, 26, 26, 26, 26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+			28, 28 };
+	/** number of error correction blocks for the medium level indexed by version */
+	private static final int[] NUM_ECC_BLOCKS = new int[] { -1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11,
+			13, 14, 16, 17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49 };
+	/** the format bits for the medium level are 00 followed by the mask */
+	private static final int ECC_LEVEL_FORMAT_BITS = 0;
+	private static final int BYTE_MODE_INDICATOR = 0x4;
+	private static final int[] PAD_CODEWORDS = new int[] { 0xEC, 0x11 };
+	private static final int NUM_MASKS = 8;
+	/** all of the mask patterns repeat every 12 modules across and down */
+	private static final int MASK_PERIOD = 12;
+	/** mask patterns indexed by mask, row, and then column which saves the divisions for each module */
+	private static final boolean[][][] MASK_PATTERNS = new boolean[NUM_MASKS][MASK_PERIOD][MASK_PERIOD];
+	private static final int PENALTY_RUN = 3;
+	private static final int PENALTY_BLOCK = 3;
+	private static final int PENALTY_FINDER_LIKE = 40;
+	private static final int PENALTY_BALANCE = 10;
+	/** 11 module patterns 0000 1011101 and 1011101 0000 which look like a finder pattern */
+	private static final int FINDER_LIKE_BEFORE = 0x05D;
+	private static final int FINDER_LIKE_AFTER = 0x5D0;
+	private static final int FINDER_LIKE_MASK = 0x7FF;
+	private static final byte[] PNG_SIGNATURE = new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	/** the image data is written in chunks of this size as it is compressed */
+	private static final int PNG_IDAT_SIZE = 8192;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	static {
+		for (int mask = 0; mask < NUM_MASKS; mask++) {
+			for (int y = 0; y < MASK_PERIOD; y++) {
+				for (int x = 0; x < MASK_PERIOD; x++) {
+					MASK_PATTERNS[mask][y][x] = maskBit(mask, x, y);
+				}
+			}
+		}
+	}
+
+	private final int version;
+	private final int size;
+	/** modules indexed by row and then column, true if dark */
+	private final boolean[][] modules;
+
+	private QrCode(int version, boolean[][] modules) {
+		this.version = version;
+		this.size = modules.length;
+		this.modules = modules;
+	}
+
+	/**
+	 * Encode the text as UTF-8 bytes.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the text does not fit in the largest version.
+	 */
+	public static QrCode encode(String text) {
+		return encode(text.getBytes(UTF_8));
+	}
+
+	/**
+	 * Encode the bytes in byte mode.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the data does not fit in the largest version.
+	 */
+	public static QrCode encode(byte[] data) {
+		int version = MIN_VERSION;
+		while (4 + charCountBits(version) + data.length * 8 > numDataCodewords(version) * 8) {
+			if (version == MAX_VERSION) {
+				throw new IllegalArgumentException("Data is too long for a QR code: " + data.length + " bytes");
+			}
+			version++;
+		}
+		byte[] codewords = addErrorCorrection(version, dataCodewords(version, data));
+
+		int size = version * 4 + 17;
+		boolean[][] modules = new boolean[size][size];
+		boolean[][] function = new boolean[size][size];
+		drawFunctionPatterns(version, modules, function);
+		drawCodewords(codewords, modules, function);
+
+		// pick the mask with the lowest penalty, applying a mask twice removes it
+		int bestMask = 0;
+		int bestPenalty = Integer.MAX_VALUE;
+		for (int mask = 0; mask < NUM_MASKS; mask++) {
+			applyMask(mask, modules, function);
+			drawFormatBits(mask, modules, function);
+			int penalty = penalty(modules);
+			if (penalty < bestPenalty) {
+				bestMask = mask;
+				bestPenalty = penalty;
+			}
+			applyMask(mask, modules, function);
+		}
+		applyMask(bestMask, modules, function);
+		drawFormatBits(bestMask, modules, function);
+		return new QrCode(version, modules);
+	}
+
+	/**
+	 * Return the version of the code from 1 to 40 which determines its size.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Return the number of modules on each side of the code not including the quiet zone.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Return true if the module at the column and row is dark. Modules outside of the code are light.
+	 */
+	public boolean isDark(int x, int y) {
+		return (x >= 0 && x < size && y >= 0 && y < size && modules[y][x]);
+	}
+
+	/**
+	 * Return the width and height in pixels of the PNG image for the requested dimension. This is the dimension unless
+	 * it is too small to draw each module with at least one pixel.
+	 */
+	public int getImageDimension(int imageDimension) {
+		return Math.max(imageDimension, size + QUIET_ZONE_MODULES * 2);
+	}
+
+	/**
+	 * Write the code as a black and white PNG image to the output stream. The modules are drawn with the largest whole
+	 * number of pixels that fits in the dimension and the code is centered in the image. The output stream is flushed
+	 * but not closed.
+	 *
+	 * @param imageDimension
+	 *            The dimension of the image, width and height. Can be set to
+	 *            {@link TimeBasedOneTimePasswordUtil#DEFAULT_QR_DIMENTION}. See {@link #getImageDimension(int)}.
+	 * @param output
+	 *            Stream that the image is written to.
+	 */
+	public void writePng(int imageDimension, OutputStream output) throws IOException {
+		int dimension = getImageDimension(imageDimension);
+		int scale = dimension / (size + QUIET_ZONE_MODULES * 2);
+		int offset = (dimension - size * scale) / 2;
+
+		DataOutputStream dataOutput = new DataOutputStream(output);
+		dataOutput.write(PNG_SIGNATURE);
+		byte[] header = new byte[13];
+		writeInt(header, 0, dimension);
+		writeInt(header, 4, dimension);
+		// 1 bit grayscale, the compression, filter, and interlace methods are all 0
+		header[8] = 1;
+		writePngChunk(dataOutput, "IHDR", header, header.length);
+
+		// each row starts with the filter type which is 0 for none and then the pixels with light as 1
+		byte[] row = new byte[1 + (dimension + 7) / 8];
+		byte[] lightRow = new byte[row.length];
+		setPixels(lightRow, dimension);
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			DeflaterOutputStream deflaterOutput =
+					new DeflaterOutputStream(new PngDataOutputStream(dataOutput), deflater, PNG_IDAT_SIZE);
+			for (int i = 0; i < offset; i++) {
+				deflaterOutput.write(lightRow);
+			}
+			for (int y = 0; y < size; y++) {
+				System.arraycopy(lightRow, 0, row, 0, row.length);
+				for (int x = 0; x < size; x++) {
+					if (modules[y][x]) {
+						clearPixels(row, offset + x * scale, scale);
+					}
+				}
+				for (int i = 0; i < scale; i++) {
+					deflaterOutput.write(row);
+				}
+			}
+			for (int i = offset + size * scale; i < dimension; i++) {
+				deflaterOutput.write(lightRow);
+			}
+			// finishes the compression and writes the last image data chunk without closing the output
+			deflaterOutput.close();
+		} finally {
+			deflater.end();
+		}
+		writePngChunk(dataOutput, "IEND", new byte[0], 0);
+		dataOutput.flush();
+	}
+
+	/**
+	 * Return the code as a PNG image. See {@link #writePng(int, OutputStream)}.
+	 */
+	public byte[] toPng(int imageDimension) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			writePng(imageDimension, output);
+		} catch (IOException ioe) {
+			// should not happen with a byte array stream
+			throw new IllegalStateException("Problems writing the PNG", ioe);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Write the code as an SVG image to the writer. Each horizontal run of dark modules is a single part of the path so
+	 * the image is small and scales to any size without blurring. The writer is flushed but not closed.
+	 *
+	 * @param imageDimension
+	 *            The width and height of the image. Can be set to
+	 *            {@link TimeBasedOneTimePasswordUtil#DEFAULT_QR_DIMENTION}.
+	 * @param writer
+	 *            Writer that the image is written to.
+	 */
+	public void writeSvg(int imageDimension, Writer writer) throws IOException {
+		int viewSize = size + QUIET_ZONE_MODULES * 2;
+		writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + imageDimension + "\" height=\""
+				+ imageDimension + "\" viewBox=\"0 0 " + viewSize + " " + viewSize
+				+ "\" shape-rendering=\"crispEdges\">");
+		writer.write("<rect width=\"" + viewSize + "\" height=\"" + viewSize + "\" fill=\"#fff\"/>");
+		writer.write("<path fill=\"#000\" d=\"");
+		for (int y = 0; y < size; y++) {
+			int x = 0;
+			while (x < size) {
+				if (!modules[y][x]) {
+					x++;
+					continue;
+				}
+				int start = x;
+				while (x < size && modules[y][x]) {
+					x++;
+				}
+				writer.write("M" + (start + QUIET_ZONE_MODULES) + "," + (y + QUIET_ZONE_MODULES) + "h" + (x - start)
+						+ "v1h-" + (x - start) + "z");
+			}
+		}
+		writer.write("\"/></svg>");
+		writer.flush();
+	}
+
+	/**
+	 * Similar to {@link #writeSvg(int, Writer)} but writes the image as UTF-8 to the output stream which is flushed but
+	 * not closed.
+	 */
+	public void writeSvg(int imageDimension, OutputStream output) throws IOException {
+		writeSvg(imageDimension, new BufferedWriter(new OutputStreamWriter(output, UTF_8)));
+	}
+
+	/**
+	 * Return the code as an SVG image. See {@link #writeSvg(int, Writer)}.
+	 */
+	public String toSvg(int imageDimension) {
+		StringWriter writer = new StringWriter();
+		try {
+			writeSvg(imageDimension, writer);
+		} catch (IOException ioe) {
+			// should not happen with a string writer
+			throw new IllegalStateException("Problems writing the SVG", ioe);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Return the number of 8-bit codewords in the version including the error correction, without the remainder bits.
+	 */
+	private static int numRawCodewords(int version) {
+		int bits = (16 * version + 128) * version + 64;
+		if (version >= 2) {
+			int numAlign = version / 7 + 2;
+			bits -= (25 * numAlign - 10) * numAlign - 55;
+			if (version >= 7) {
+				// version information blocks
+				bits -= 36;
+			}
+		}
+		return bits / 8;
+	}
+
+	private static int numDataCodewords(int version) {
+		return numRawCodewords(version) - ECC_CODEWORDS_PER_BLOCK[version] * NUM_ECC_BLOCKS[version];
+	}
+
+	private static int charCountBits(int version) {
+		return (version <= 9 ? 8 : 16);
+	}
+
+	/**
+	 * Return the byte mode segment followed by the terminator and padding to fill the data codewords of the version.
+	 */
+	private static byte[] dataCodewords(int version, byte[] data) {
+		byte[] result = new byte[numDataCodewords(version)];
+		int bitLength = 0;
+		bitLength = appendBits(result, bitLength, BYTE_MODE_INDICATOR, 4);
+		bitLength = appendBits(result, bitLength, data.length, charCountBits(version));
+		for (byte b : data) {
+			bitLength = appendBits(result, bitLength, b & 0xFF, 8);
+		}
+		// the terminator is up to 4 zero bits and then zero bits to the byte boundary which are already in the array
+		int length = (Math.min(bitLength + 4, result.length * 8) + 7) / 8;
+		for (int i = 0; length < result.length; i++) {
+			result[length++] = (byte) PAD_CODEWORDS[i % PAD_CODEWORDS.length];
+		}
+		return result;
+	}
+
+	private static int appendBits(byte[] buffer, int bitLength, int value, int numBits) {
+		for (int i = numBits - 1; i >= 0; i--) {
+			if (((value >>> i) & 1) != 0) {
+				buffer[bitLength >>> 3] |= 0x80 >>> (bitLength & 7);
+			}
+			bitLength++;
+		}
+		return bitLength;
+	}
+
+	/**
+	 * Split the data into the blocks, calculate the Reed-Solomon codewords of each, and interleave the blocks.
+	 */
+	private static byte[] addErrorCorrection(int version, byte[] data) {
+		int numBlocks = NUM_ECC_BLOCKS[version];
+		int eccLength = ECC_CODEWORDS_PER_BLOCK[version];
+		int rawCodewords = numRawCodewords(version);
+		// the short blocks come first and the long blocks have one more data codeword
+		int numShortBlocks = numBlocks - rawCodewords % numBlocks;
+		int shortDataLength = rawCodewords / numBlocks - eccLength;
+		byte[] divisor = reedSolomonDivisor(eccLength);
+
+		int[] blockStarts = new int[numBlocks];
+		byte[][] blockEcc = new byte[numBlocks][];
+		for (int i = 0, start = 0; i < numBlocks; i++) {
+			int length = shortDataLength + (i < numShortBlocks ? 0 : 1);
+			blockStarts[i] = start;
+			blockEcc[i] = reedSolomonRemainder(data, start, length, divisor);
+			start += length;
+		}
+
+		byte[] result = new byte[rawCodewords];
+		int resultLength = 0;
+		for (int i = 0; i <= shortDataLength; i++) {
+			for (int block = 0; block < numBlocks; block++) {
+				if (i < shortDataLength || block >= numShortBlocks) {
+					result[resultLength++] = data[blockStarts[block] + i];
+				}
+			}
+		}
+		for (int i = 0; i < eccLength; i++) {
+			for (int block = 0; block < numBlocks; block++) {
+				result[resultLength++] = blockEcc[block][i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the coefficients of the generator polynomial of the degree, highest power first without the leading 1.
+	 */
+	private static byte[] reedSolomonDivisor(int degree) {
+		byte[] result = new byte[degree];
+		// start with the monomial x^0
+		result[degree - 1] = 1;
+		int root = 1;
+		// multiply by (x - r^i) for each i
+		for (int i = 0; i < degree; i++) {
+			for (int j = 0; j < result.length; j++) {
+				result[j] = (byte) gfMultiply(result[j] & 0xFF, root);
+				if (j + 1 < result.length) {
+					result[j] ^= result[j + 1];
+				}
+			}
+			root = gfMultiply(root, 0x02);
+		}
+		return result;
+	}
+
+	private static byte[] reedSolomonRemainder(byte[] data, int offset, int length, byte[] divisor) {
+		byte[] result = new byte[divisor.length];
+		for (int i = offset; i < offset + length; i++) {
+			int factor = (data[i] ^ result[0]) & 0xFF;
+			System.arraycopy(result, 1, result, 0, result.length - 1);
+			result[result.length - 1] = 0;
+			for (int j = 0; j < result.length; j++) {
+				result[j] ^= gfMultiply(divisor[j] & 0xFF, factor);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Multiply in GF(2^8) with the QR code polynomial 0x11D.
+	 */
+	private static int gfMultiply(int x, int y) {
+		int result = 0;
+		for (int i = 7; i >= 0; i--) {
+			result = (result << 1) ^ ((result >>> 7) * 0x11D);
+			result ^= ((y >>> i) & 1) * x;
+		}
+		return result;
+	}
+
+	private static void drawFunctionPatterns(int version, boolean[][] modules, boolean[][] function) {
+		int size = modules.length;
+		for (int i = 0; i < size; i++) {
+			setFunction(modules, function, 6, i, i % 2 == 0);
+			setFunction(modules, function, i, 6, i % 2 == 0);
+		}
+		drawFinderPattern(modules, function, 3, 3);
+		drawFinderPattern(modules, function, size - 4, 3);
+		drawFinderPattern(modules, function, 3, size - 4);
+
+		int[] alignPositions = alignmentPatternPositions(version);
+		int numAlign = alignPositions.length;
+		for (int i = 0; i < numAlign; i++) {
+			for (int j = 0; j < numAlign; j++) {
+				// skip the three corners with the finder patterns
+				if ((i == 0 && j == 0) || (i == 0 && j == numAlign - 1) || (i == numAlign - 1 && j == 0)) {
+					continue;
+				}
+				for (int dy = -2; dy <= 2; dy++) {
+					for (int dx = -2; dx <= 2; dx++) {
+						setFunction(modules, function, alignPositions[i] + dx, alignPositions[j] + dy,
+								Math.max(Math.abs(dx), Math.abs(dy)) != 1);
+					}
+				}
+			}
+		}
+
+		// reserve the format bits which are drawn after the mask is picked
+		drawFormatBits(0, modules, function);
+		if (version >= 7) {
+			int remainder = version;
+			for (int i = 0; i < 12; i++) {
+				remainder = (remainder << 1) ^ ((remainder >>> 11) * 0x1F25);
+			}
+			int bits = (version << 12) | remainder;
+			for (int i = 0; i < 18; i++) {
+				boolean bit = (((bits >>> i) & 1) != 0);
+				int a = size - 11 + i % 3;
+				int b = i / 3;
+				setFunction(modules, function, a, b, bit);
+				setFunction(modules, function, b, a, bit);
+			}
+		}
+	}
+
+	/**
+	 * Draw the finder pattern centered at the module and its separator.
+	 */
+	private static void drawFinderPattern(boolean[][] modules, boolean[][] function, int x, int y) {
+		int size = modules.length;
+		for (int dy = -4; dy <= 4; dy++) {
+			for (int dx = -4; dx <= 4; dx++) {
+				int distance = Math.max(Math.abs(dx), Math.abs(dy));
+				if (x + dx >= 0 && x + dx < size && y + dy >= 0 && y + dy < size) {
+					setFunction(modules, function, x + dx, y + dy, distance != 2 && distance != 4);
+				}
+			}
+		}
+	}
+
+	private static int[] alignmentPatternPositions(int version) {
+		if (version == 1) {
+			return new int[0];
+		}
+		int numAlign = version / 7 + 2;
+		int step = (version * 8 + numAlign * 3 + 5) / (numAlign * 4 - 4) * 2;
+		int[] result = new int[numAlign];
+		result[0] = 6;
+		for (int i = numAlign - 1, position = version * 4 + 10; i >= 1; i--, position -= step) {
+			result[i] = position;
+		}
+		return result;
+	}
+
+	private static void drawFormatBits(int mask, boolean[][] modules, boolean[][] function) {
+		int data = (ECC_LEVEL_FORMAT_BITS << 3) | mask;
+		int remainder = data;
+		for (int i = 0; i < 10; i++) {
+			remainder = (remainder << 1) ^ ((remainder >>> 9) * 0x537);
+		}
+		int bits = ((data << 10) | remainder) ^ 0x5412;
+
+		int size = modules.length;
+		// first copy around the top left finder pattern
+		for (int i = 0; i <= 5; i++) {
+			setFunction(modules, function, 8, i, formatBit(bits, i));
+		}
+		setFunction(modules, function, 8, 7, formatBit(bits, 6));
+		setFunction(modules, function, 8, 8, formatBit(bits, 7));
+		setFunction(modules, function, 7, 8, formatBit(bits, 8));
+		for (int i = 9; i < 15; i++) {
+			setFunction(modules, function, 14 - i, 8, formatBit(bits, i));
+		}
+		// second copy split between the other two finder patterns
+		for (int i = 0; i < 8; i++) {
+			setFunction(modules, function, size - 1 - i, 8, formatBit(bits, i));
+		}
+		for (int i = 8; i < 15; i++) {
+			setFunction(modules, function, 8, size - 15 + i, formatBit(bits, i));
+		}
+		// always dark
+		setFunction(modules, function, 8, size - 8, true);
+	}
+
+	private static boolean formatBit(int bits, int i) {
+		return (((bits >>> i) & 1) != 0);
+	}
+
+	private static void setFunction(boolean[][] modules, boolean[][] function, int x, int y, boolean dark) {
+		modules[y][x] = dark;
+		function[y][x] = true;
+	}
+
+	/**
+	 * Draw the codewords in the zig-zag of two module columns from the bottom right corner.
+	 */
+	private static void drawCodewords(byte[] codewords, boolean[][] modules, boolean[][] function) {
+		int size = modules.length;
+		int bitIndex = 0;
+		for (int right = size - 1; right >= 1; right -= 2) {
+			// skip the vertical timing pattern
+			if (right == 6) {
+				right = 5;
+			}
+			boolean upward = (((right + 1) & 2) == 0);
+			for (int vert = 0; vert < size; vert++) {
+				int y = (upward ? size - 1 - vert : vert);
+				for (int j = 0; j < 2; j++) {
+					int x = right - j;
+					// the remainder bits after the codewords are left light
+					if (!function[y][x] && bitIndex < codewords.length * 8) {
+						modules[y][x] = (((codewords[bitIndex >>> 3] >>> (7 - (bitIndex & 7))) & 1) != 0);
+						bitIndex++;
+					}
+				}
+			}
+		}
+	}
+
+	private static void applyMask(int mask, boolean[][] modules, boolean[][] function) {
+		int size = modules.length;
+		for (int y = 0; y < size; y++) {
+			boolean[] pattern = MASK_PATTERNS[mask][y % MASK_PERIOD];
+			for (int x = 0, column = 0; x < size; x++) {
+				if (pattern[column] && !function[y][x]) {
+					modules[y][x] = !modules[y][x];
+				}
+				if (++column == MASK_PERIOD) {
+					column = 0;
+				}
+			}
+		}
+	}
+
+	private static boolean maskBit(int mask, int x, int y) {
+		switch (mask) {
+			case 0:
+				return (x + y) % 2 == 0;
+			case 1:
+				return y % 2 == 0;
+			case 2:
+				return x % 3 == 0;
+			case 3:
+				return (x + y) % 3 == 0;
+			case 4:
+				return (x / 3 + y / 2) % 2 == 0;
+			case 5:
+				return x * y % 2 + x * y % 3 == 0;
+			case 6:
+				return (x * y % 2 + x * y % 3) % 2 == 0;
+			case 7:
+				return ((x + y) % 2 + x * y % 3) % 2 == 0;
+			default:
+				throw new IllegalArgumentException("Unknown mask: " + mask);
+		}
+	}
+
+	/**
+	 * Return the penalty score of the masked modules which is used to pick the mask that is easiest to scan.
+	 */
+	private static int penalty(boolean[][] modules) {
+		int size = modules.length;
+		int result = 0;
+		int numDark = 0;
+		// the conditional adds instead of branches are faster because the modules are close to random
+		for (int y = 0; y < size; y++) {
+			result += linePenalty(modules, y, true) + linePenalty(modules, y, false);
+			boolean[] top = modules[y];
+			for (int x = 0; x < size; x++) {
+				numDark += (top[x] ? 1 : 0);
+			}
+			if (y + 1 < size) {
+				boolean[] bottom = modules[y + 1];
+				for (int x = 0; x + 1 < size; x++) {
+					boolean dark = top[x];
+					result += ((dark == top[x + 1] & dark == bottom[x] & dark == bottom[x + 1]) ? PENALTY_BLOCK : 0);
+				}
+			}
+		}
+		int total = size * size;
+		result += Math.abs(numDark * 2 - total) * 10 / total * PENALTY_BALANCE;
+		return result;
+	}
+
+	/**
+	 * Return the penalty for the runs of 5 or more modules of the same color in the row or column and for the 1:1:3:1:1
+	 * dark and light modules with 4 light modules before or after that look like a finder pattern.
+	 */
+	private static int linePenalty(boolean[][] modules, int index, boolean row) {
+		int result = 0;
+		int runLength = 0;
+		// modules so far with the latest in the low bit
+		int window = 0;
+		for (int i = 0; i < modules.length; i++) {
+			boolean dark = (row ? modules[index][i] : modules[i][index]);
+			window = (window << 1) | (dark ? 1 : 0);
+			runLength = (((window ^ (window >>> 1)) & 1) == 0 ? runLength + 1 : 1);
+			result += (runLength == 5 ? PENALTY_RUN : (runLength > 5 ? 1 : 0));
+			int finderWindow = (window & FINDER_LIKE_MASK);
+			result += (((finderWindow == FINDER_LIKE_BEFORE | finderWindow == FINDER_LIKE_AFTER) & i >= 10)
+					? PENALTY_FINDER_LIKE : 0);
+		}
+		return result;
+	}
+
+	private static void setPixels(byte[] row, int length) {
+		for (int i = 0; i < length; i++) {
+			row[1 + (i >>> 3)] |= 0x80 >>> (i & 7);
+		}
+	}
+
+	private static void clearPixels(byte[] row, int start, int length) {
+		for (int i = start; i < start + length; i++) {
+			row[1 + (i >>> 3)] &= ~(0x80 >>> (i & 7));
+		}
+	}
+
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	private static void writePngChunk(DataOutputStream output, String type, byte[] data, int length)
+			throws IOException {
+		byte[] typeBytes = type.getBytes(UTF_8);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		output.writeInt(length);
+		output.write(typeBytes);
+		output.write(data, 0, length);
+		output.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Writes the compressed image data into IDAT chunks as it fills each one instead of holding all of it in memory.
+	 */
+	private static class PngDataOutputStream extends OutputStream {
+
+		private final DataOutputStream output;
+		private final byte[] buffer = new byte[PNG_IDAT_SIZE];
+		private int length;
+
+		public PngDataOutputStream(DataOutputStream output) {
+			this.output = output;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (length == buffer.length) {
+				writeChunk();
+			}
+			buffer[length++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int count) throws IOException {
+			while (count > 0) {
+				if (length == buffer.length) {
+					writeChunk();
+				}
+				int copy = Math.min(count, buffer.length - length);
+				System.arraycopy(bytes, offset, buffer, length, copy);
+				length += copy;
+				offset += copy;
+				count -= copy;
+			}
+		}
+
+		/**
+		 * Write the last chunk but do not close the underlying stream.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (length > 0) {
+				writeChunk();
+			}
+		}
+
+		private void writeChunk() throws IOException {
+			writePngChunk(output, "IDAT", buffer, length);
+			length = 0;
+		}
+	}
+}
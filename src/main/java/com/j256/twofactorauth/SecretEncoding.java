@@ -0,0 +1,29 @@
+package com.j256.twofactorauth;
+
+/**
+ * Encoding of the secrets produced by a {@link SecretPool}.
+ *
+ * @author graywatson
+ */
+public enum SecretEncoding {
+
+	/** base32 format (A-Z2-7) like {@link TimeBasedOneTimePasswordUtil#generateBase32Secret(int)} */
+	BASE32 {
+		@Override
+		String[] generate(SecretGenerator generator, int numSecrets, int numChars) {
+			return generator.generateBase32Secrets(numSecrets, numChars);
+		}
+	},
+	/** hexadecimal format (0-9A-F) like {@link TimeBasedOneTimePasswordUtil#generateHexSecret(int)} */
+	HEX {
+		@Override
+		String[] generate(SecretGenerator generator, int numSecrets, int numChars) {
+			return generator.generateHexSecrets(numSecrets, numChars);
+		}
+	};
+
+	/**
+	 * Generate a number of secrets with this number of characters.
+	 */
+	abstract String[] generate(SecretGenerator generator, int numSecrets, int numChars);
+}
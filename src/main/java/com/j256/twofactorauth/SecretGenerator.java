@@ -0,0 +1,250 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Generates secrets from random bytes which are pulled in bulk with {@link SecureRandom#nextBytes(byte[])} and then
+ * encoded, 5 bytes into 8 base-32 characters, instead of drawing a random number per character. The secrets can be
+ * returned as strings or written into character buffers that are passed in, or the raw key bytes can be generated
+ * directly.
+ *
+ * <p>
+ * By default each thread gets its own {@link SecureRandom} which is created and seeded on first use and then reused so
+ * threads do not contend on the same generator. The algorithm and provider of the {@link SecureRandom} can be
+ * specified, for example "NativePRNGNonBlocking" on Linux so the seeding does not block, or a single
+ * {@link SecureRandom} can be passed in to be shared by all threads.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class SecretGenerator {
+
+	/** default number of characters in a base-32 secret */
+	public static final int DEFAULT_BASE32_LENGTH = 16;
+	/** default number of characters in a hexadecimal secret */
+	public static final int DEFAULT_HEX_LENGTH = 32;
+
+	private final String algorithm;
+	private final String provider;
+	private final SecureRandom sharedRandom;
+	private final ThreadLocal<SecureRandom> threadRandom;
+
+	/**
+	 * Create a generator which uses a default {@link SecureRandom} per thread.
+	 */
+	public SecretGenerator() {
+		this.algorithm = null;
+		this.provider = null;
+		this.sharedRandom = null;
+		this.threadRandom = new ThreadLocal<SecureRandom>() {
+			@Override
+			protected SecureRandom initialValue() {
+				return new SecureRandom();
+			}
+		};
+	}
+
+	/**
+	 * Create a generator which uses a {@link SecureRandom} per thread with the algorithm from the first provider that
+	 * supports it. See {@link #SecretGenerator(String, String)}.
+	 */
+	public SecretGenerator(String algorithm) throws GeneralSecurityException {
+		this(algorithm, null);
+	}
+
+	/**
+	 * Create a generator which uses a {@link SecureRandom} per thread with the algorithm and provider.
+	 *
+	 * @param algorithm
+	 *            Name of the random number generator algorithm such as "SHA1PRNG" or "NativePRNGNonBlocking".
+	 * @param provider
+	 *            Name of the security provider or null to use the first provider that supports the algorithm.
+	 * @throws GeneralSecurityException
+	 *             If the algorithm or provider is not available.
+	 */
+	public SecretGenerator(String algorithm, String provider) throws GeneralSecurityException {
+		if (algorithm == null) {
+			throw new IllegalArgumentException("Algorithm cannot be null");
+		}
+		this.algorithm = algorithm;
+		this.provider = provider;
+		this.sharedRandom = null;
+		// create the first one here so a bad algorithm or provider is reported right away
+		final SecureRandom first = createRandom();
+		this.threadRandom = new ThreadLocal<SecureRandom>() {
+			private boolean firstUsed;
+
+			@Override
+			protected synchronized SecureRandom initialValue() {
+				if (!firstUsed) {
+					firstUsed = true;
+					return first;
+				}
+				try {
+					return createRandom();
+				} catch (GeneralSecurityException gse) {
+					// should not happen because the first one was created
+					throw new IllegalStateException("Could not create SecureRandom " + SecretGenerator.this.algorithm,
+							gse);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Create a generator which uses the random for all threads.
+	 */
+	public SecretGenerator(SecureRandom random) {
+		if (random == null) {
+			throw new IllegalArgumentException("Random cannot be null");
+		}
+		this.algorithm = random.getAlgorithm();
+		this.provider = (random.getProvider() == null ? null : random.getProvider().getName());
+		this.sharedRandom = random;
+		this.threadRandom = null;
+	}
+
+	/**
+	 * Generate and return a secret key of random bytes.
+	 */
+	public byte[] generateKey(int numBytes) {
+		byte[] bytes = new byte[numBytes];
+		random().nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Generate and return a 16-character secret key in base32 format (A-Z2-7).
+	 */
+	public String generateBase32Secret() {
+		return generateBase32Secret(DEFAULT_BASE32_LENGTH);
+	}
+
+	/**
+	 * Generate and return a secret key in base32 format (A-Z2-7) with this number of characters.
+	 */
+	public String generateBase32Secret(int numChars) {
+		char[] chars = new char[numChars];
+		generateBase32Secret(numChars, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * Generate a secret key in base32 format (A-Z2-7) with this number of characters into the output buffer.
+	 *
+	 * @return The number of characters written.
+	 */
+	public int generateBase32Secret(int numChars, char[] output, int outputOffset) {
+		checkOutput(numChars, output, outputOffset);
+		// each character holds 5 random bits
+		byte[] bytes = generateKey(Base32Codec.maxDecodedLength(numChars));
+		Base32Codec.encodeChars(bytes, 0, bytes.length, output, outputOffset, numChars);
+		return numChars;
+	}
+
+	/**
+	 * Generate a number of secret keys in base32 format (A-Z2-7) with the random bytes for all of them pulled at once.
+	 * This is useful when enrolling a large number of users.
+	 */
+	public String[] generateBase32Secrets(int numSecrets, int numChars) {
+		int bytesPerSecret = Base32Codec.maxDecodedLength(numChars);
+		byte[] bytes = generateKey(numSecrets * bytesPerSecret);
+		char[] chars = new char[numChars];
+		String[] secrets = new String[numSecrets];
+		for (int i = 0; i < numSecrets; i++) {
+			Base32Codec.encodeChars(bytes, i * bytesPerSecret, bytesPerSecret, chars, 0, numChars);
+			secrets[i] = new String(chars);
+		}
+		return secrets;
+	}
+
+	/**
+	 * Generate and return a 32-character secret key in hexadecimal format (0-9A-F).
+	 */
+	public String generateHexSecret() {
+		return generateHexSecret(DEFAULT_HEX_LENGTH);
+	}
+
+	/**
+	 * Generate and return a secret key in hexadecimal format (0-9A-F) with this number of characters.
+	 */
+	public String generateHexSecret(int numChars) {
+		char[] chars = new char[numChars];
+		generateHexSecret(numChars, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * Generate a secret key in hexadecimal format (0-9A-F) with this number of characters into the output buffer.
+	 *
+	 * @return The number of characters written.
+	 */
+	public int generateHexSecret(int numChars, char[] output, int outputOffset) {
+		checkOutput(numChars, output, outputOffset);
+		byte[] bytes = generateKey(HexCodec.decodedLength(numChars));
+		HexCodec.encodeChars(bytes, 0, output, outputOffset, numChars);
+		return numChars;
+	}
+
+	/**
+	 * Generate a number of secret keys in hexadecimal format (0-9A-F) with the random bytes for all of them pulled at
+	 * once.
+	 */
+	public String[] generateHexSecrets(int numSecrets, int numChars) {
+		int bytesPerSecret = HexCodec.decodedLength(numChars);
+		byte[] bytes = generateKey(numSecrets * bytesPerSecret);
+		char[] chars = new char[numChars];
+		String[] secrets = new String[numSecrets];
+		for (int i = 0; i < numSecrets; i++) {
+			HexCodec.encodeChars(bytes, i * bytesPerSecret, chars, 0, numChars);
+			secrets[i] = new String(chars);
+		}
+		return secrets;
+	}
+
+	/**
+	 * Return the algorithm of the random number generator or null if it is the default.
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Return the provider of the random number generator or null if it is the default or the first provider that
+	 * supports the algorithm.
+	 */
+	public String getProvider() {
+		return provider;
+	}
+
+	private SecureRandom createRandom() throws GeneralSecurityException {
+		if (provider == null) {
+			return SecureRandom.getInstance(algorithm);
+		} else {
+			return SecureRandom.getInstance(algorithm, provider);
+		}
+	}
+
+	private SecureRandom random() {
+		if (sharedRandom == null) {
+			return threadRandom.get();
+		} else {
+			return sharedRandom;
+		}
+	}
+
+	private static void checkOutput(int numChars, char[] output, int outputOffset) {
+		if (numChars < 0) {
+			throw new IllegalArgumentException("Number of characters cannot be negative: " + numChars);
+		}
+		if (outputOffset < 0 || output.length - outputOffset < numChars) {
+			throw new IllegalArgumentException("Output buffer of length " + output.length + " at offset "
+					+ outputOffset + " does not have room for " + numChars + " characters");
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package com.j256.twofactorauth;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of secrets which are generated ahead of time so enrolling a user during a burst of sign-ups does not wait on the
+ * random number generator. The secrets are kept in a lock-free queue. Whenever the number of secrets drops to the low
+ * water mark, a background task generates secrets in batches until the pool is full again. If the pool is empty
+ * then the secret is generated synchronously.
+ *
+ * <p>
+ * Call {@link #start()} to fill the pool in the background and {@link #close()} to stop refilling it.
+ * </p>
+ *
+ * <p>
+ * WARNING: This keeps the unused secrets in memory until they are taken.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class SecretPool implements Closeable {
+
+	/** default number of secrets in a full pool */
+	public static final int DEFAULT_POOL_SIZE = 1000;
+	/** number of secrets that are generated from each pull of random bytes during a refill */
+	private static final int REFILL_BATCH_SIZE = 64;
+
+	private final SecretGenerator generator;
+	private final SecretEncoding encoding;
+	private final int numChars;
+	private final int poolSize;
+	private final int lowWaterMark;
+	private final Executor executor;
+	private final ExecutorService ownExecutor;
+	private final Queue<String> secrets = new ConcurrentLinkedQueue<String>();
+	// the queue size method walks the queue so we keep our own count which includes the room reserved by a fill
+	private final AtomicInteger depth = new AtomicInteger();
+	private final AtomicBoolean refilling = new AtomicBoolean();
+	private final AtomicLong pooledCount = new AtomicLong();
+	private final AtomicLong fallbackCount = new AtomicLong();
+	private final AtomicLong refillCount = new AtomicLong();
+	private final Runnable refillTask = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				fill();
+			} finally {
+				refilling.set(false);
+			}
+			// secrets may have been taken after the fill finished
+			refillIfNeeded();
+		}
+	};
+	private volatile boolean closed;
+
+	/**
+	 * Create a pool of 16-character base32 secrets with the default size which is refilled on its own daemon thread.
+	 */
+	public SecretPool() {
+		this(new SecretGenerator(), SecretEncoding.BASE32, SecretGenerator.DEFAULT_BASE32_LENGTH, DEFAULT_POOL_SIZE,
+				DEFAULT_POOL_SIZE / 2, null);
+	}
+
+	/**
+	 * @param generator
+	 *            Generator used to create the secrets.
+	 * @param encoding
+	 *            Encoding of the secrets.
+	 * @param numChars
+	 *            Number of characters in each secret.
+	 * @param poolSize
+	 *            Number of secrets in a full pool.
+	 * @param lowWaterMark
+	 *            When the number of secrets drops to this, the pool is refilled in the background.
+	 * @param executor
+	 *            Executor that the refill task is run on or null to create one with a single daemon thread which is
+	 *            shutdown by {@link #close()}.
+	 */
+	public SecretPool(SecretGenerator generator, SecretEncoding encoding, int numChars, int poolSize, int lowWaterMark,
+			Executor executor) {
+		if (poolSize <= 0) {
+			throw new IllegalArgumentException("Pool size must be positive: " + poolSize);
+		}
+		if (lowWaterMark < 0 || lowWaterMark >= poolSize) {
+			throw new IllegalArgumentException("Low water mark must be between 0 and less than the pool size: "
+					+ lowWaterMark);
+		}
+		this.generator = generator;
+		this.encoding = encoding;
+		this.numChars = numChars;
+		this.poolSize = poolSize;
+		this.lowWaterMark = lowWaterMark;
+		if (executor == null) {
+			this.ownExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, SecretPool.class.getSimpleName());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.executor = ownExecutor;
+		} else {
+			this.executor = executor;
+			this.ownExecutor = null;
+		}
+	}
+
+	/**
+	 * Start filling the pool in the background.
+	 */
+	public void start() {
+		refillIfNeeded();
+	}
+
+	/**
+	 * Take a secret from the pool. If the pool is empty then the secret is generated synchronously.
+	 */
+	public String nextSecret() {
+		String secret = secrets.poll();
+		if (secret == null) {
+			fallbackCount.incrementAndGet();
+			secret = encoding.generate(generator, 1, numChars)[0];
+		} else {
+			depth.decrementAndGet();
+			pooledCount.incrementAndGet();
+		}
+		refillIfNeeded();
+		return secret;
+	}
+
+	/**
+	 * Generate secrets in the calling thread until the pool is full. This is called by the background task but can also
+	 * be called directly to fill the pool before a known burst. Each batch reserves its room in the pool before it is
+	 * generated so concurrent fills do not go past the pool size.
+	 */
+	public void fill() {
+		refillCount.incrementAndGet();
+		while (!closed) {
+			int current = depth.get();
+			int numNeeded = Math.min(poolSize - current, REFILL_BATCH_SIZE);
+			if (numNeeded <= 0) {
+				break;
+			}
+			if (!depth.compareAndSet(current, current + numNeeded)) {
+				// another fill or a take changed the depth so try again
+				continue;
+			}
+			int numAdded = 0;
+			for (String secret : encoding.generate(generator, numNeeded, numChars)) {
+				if (closed) {
+					break;
+				}
+				secrets.add(secret);
+				numAdded++;
+			}
+			if (numAdded < numNeeded) {
+				// give back the room that we did not use
+				depth.addAndGet(numAdded - numNeeded);
+			}
+		}
+		if (closed) {
+			// close may have cleared the pool before our last secrets were added
+			clear();
+		}
+	}
+
+	/**
+	 * Return the number of secrets in the pool.
+	 */
+	public int getDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * Return the number of secrets that were taken from the pool.
+	 */
+	public long getPooledCount() {
+		return pooledCount.get();
+	}
+
+	/**
+	 * Return the number of secrets that had to be generated synchronously because the pool was empty.
+	 */
+	public long getFallbackCount() {
+		return fallbackCount.get();
+	}
+
+	/**
+	 * Return the number of times that the pool has been refilled.
+	 */
+	public long getRefillCount() {
+		return refillCount.get();
+	}
+
+	/**
+	 * Stop refilling the pool and clear the secrets from it. If the executor was created by this class then it is shut
+	 * down. Secrets can still be taken and are generated synchronously.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		if (ownExecutor != null) {
+			ownExecutor.shutdownNow();
+		}
+		clear();
+	}
+
+	private void clear() {
+		while (secrets.poll() != null) {
+			depth.decrementAndGet();
+		}
+	}
+
+	private void refillIfNeeded() {
+		if (closed || depth.get() > lowWaterMark || !refilling.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			executor.execute(refillTask);
+		} catch (RuntimeException re) {
+			// rejected, the next secret that is taken will try again
+			refilling.set(false);
+		}
+	}
+}
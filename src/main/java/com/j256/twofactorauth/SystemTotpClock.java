@@ -0,0 +1,23 @@
+package com.j256.twofactorauth;
+
+/**
+ * Clock which calls {@link System#currentTimeMillis()} each time. This is the default.
+ *
+ * <p>
+ * WARNING: This requires a system clock that is in sync with the world.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class SystemTotpClock implements TotpClock {
+
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public long currentTimeStep(int timeStepSeconds) {
+		return TimeBasedOneTimePasswordUtil.generateValue(System.currentTimeMillis(), timeStepSeconds);
+	}
+}
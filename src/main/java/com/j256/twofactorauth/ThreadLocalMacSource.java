@@ -0,0 +1,39 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+
+/**
+ * {@link MacSource} which keeps a {@link Mac} for each algorithm per thread. This works best with a fixed pool of
+ * platform threads. With virtual threads, where every task gets a new thread, consider {@link PooledMacSource} instead.
+ *
+ * @author graywatson
+ */
+public class ThreadLocalMacSource implements MacSource {
+
+	private final ThreadLocal<Mac[]> threadMacs = new ThreadLocal<Mac[]>() {
+		@Override
+		protected Mac[] initialValue() {
+			return new Mac[TotpAlgorithm.NUM_MAC_SLOTS];
+		}
+	};
+
+	@Override
+	public Mac acquire(String algorithm) throws GeneralSecurityException {
+		// keep one for each algorithm so switching between them does not look up the provider again
+		Mac[] macs = threadMacs.get();
+		int slot = TotpAlgorithm.macSlot(algorithm);
+		Mac mac = macs[slot];
+		if (mac == null || !mac.getAlgorithm().equals(algorithm)) {
+			mac = Mac.getInstance(algorithm);
+			macs[slot] = mac;
+		}
+		return mac;
+	}
+
+	@Override
+	public void release(Mac mac) {
+		// nothing to do, the mac stays with the thread
+	}
+}
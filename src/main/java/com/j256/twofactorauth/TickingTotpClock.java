@@ -0,0 +1,90 @@
+package com.j256.twofactorauth;
+
+import java.io.Closeable;
+
+/**
+ * Clock which publishes the current time-step in a volatile field that is updated by a single daemon thread at each
+ * time-step boundary. Getting the current time-step is then a single field read instead of a call to
+ * {@link System#currentTimeMillis()} and a division. Time-steps of other sizes and the current time in milliseconds
+ * still go to the system clock.
+ *
+ * <p>
+ * The ticker thread is woken by {@link Thread#sleep(long)} so the published time-step can be a few milliseconds late
+ * after each boundary. That is well within the windows that are typically used to validate numbers. Call
+ * {@link #close()} to stop the thread.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class TickingTotpClock implements TotpClock, Closeable {
+
+	private final int timeStepSeconds;
+	private final long timeStepMillis;
+	private final Thread thread;
+	private volatile long currentTimeStep;
+	private volatile boolean closed;
+
+	/**
+	 * Create a clock that ticks every {@link TimeBasedOneTimePasswordUtil#DEFAULT_TIME_STEP_SECONDS}.
+	 */
+	public TickingTotpClock() {
+		this(TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS);
+	}
+
+	/**
+	 * @param timeStepSeconds
+	 *            Time step in seconds that is published by the ticker thread.
+	 */
+	public TickingTotpClock(int timeStepSeconds) {
+		if (timeStepSeconds <= 0) {
+			throw new IllegalArgumentException("Time step seconds must be positive: " + timeStepSeconds);
+		}
+		this.timeStepSeconds = timeStepSeconds;
+		this.timeStepMillis = timeStepSeconds * 1000L;
+		this.currentTimeStep = System.currentTimeMillis() / timeStepMillis;
+		this.thread = new Thread(new Ticker(), getClass().getSimpleName() + "-" + timeStepSeconds + "s");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public long currentTimeStep(int timeStepSeconds) {
+		if (timeStepSeconds == this.timeStepSeconds) {
+			return currentTimeStep;
+		} else {
+			return TimeBasedOneTimePasswordUtil.generateValue(System.currentTimeMillis(), timeStepSeconds);
+		}
+	}
+
+	/**
+	 * Stop the ticker thread. The clock should not be used after this.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		thread.interrupt();
+	}
+
+	private class Ticker implements Runnable {
+		@Override
+		public void run() {
+			while (!closed) {
+				long now = System.currentTimeMillis();
+				long step = now / timeStepMillis;
+				currentTimeStep = step;
+				try {
+					// sleep until the start of the next time-step
+					Thread.sleep((step + 1) * timeStepMillis - now);
+				} catch (InterruptedException ie) {
+					// we are being closed
+					return;
+				}
+			}
+		}
+	}
+}
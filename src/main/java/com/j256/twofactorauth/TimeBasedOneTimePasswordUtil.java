@@ -1,9 +1,10 @@
 package com.j256.twofactorauth;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
-import java.util.Arrays;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -14,7 +15,8 @@ import javax.crypto.spec.SecretKeySpec;
  * <ol>
  * <li>Use generateBase32Secret() to generate a secret key for a user.</li>
  * <li>Store the secret key in the database associated with the user account.</li>
- * <li>Display the QR image URL returned by qrImageUrl(...) to the user.</li>
+ * <li>Display the QR image URL returned by qrImageUrl(...) to the user or render the image locally with
+ * writeQrImagePng(...) or qrImageSvg(...).</li>
  * <li>User uses the image to load the secret key into his authenticator application.</li>
  * </ol>
  * 
@@ -43,19 +45,95 @@ public class TimeBasedOneTimePasswordUtil {
 
 	/** default time-step which is part of the spec, 30 seconds is default */
 	public static final int DEFAULT_TIME_STEP_SECONDS = 30;
+	/** returned by the validate offset methods if the number did not match */
+	public static final int NO_MATCH_OFFSET = Integer.MIN_VALUE;
 	/** default number of digits in a OTP string */
 	public static int DEFAULT_OTP_LENGTH = 6;
 	/** default hight/width of QR image */
 	public static int DEFAULT_QR_DIMENTION = 200;
-	/** set to the number of digits to control 0 prefix, set to 0 for no prefix */
-	private static int MAX_NUM_DIGITS_OUTPUT = 100;
+	/** maximum number of digits in a positive int */
+	private static final int MAX_INT_DIGITS = 10;
+	/** returned by the package methods that find the time-step value that matched if there was no match */
+	static final long NO_MATCHING_VALUE = Long.MIN_VALUE;
+	/** returned by the package methods that parse a code if it is not made up of the right number of digits */
+	static final int INVALID_CODE = -1;
+	/** numbers with i digits are less than POWERS_OF_TEN[i] */
+	private static final int[] POWERS_OF_TEN =
+			new int[] { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000 };
 
-	private static final String blockOfZeros;
+	/** used for the secrets that have not been prepared when no mac source has been set */
+	private static final MacSource DEFAULT_MAC_SOURCE = new ThreadLocalMacSource();
 
-	static {
-		char[] chars = new char[MAX_NUM_DIGITS_OUTPUT];
-		Arrays.fill(chars, '0');
-		blockOfZeros = new String(chars);
+	private static volatile MacSource macSource;
+	private static volatile WindowSearchOrder windowSearchOrder = WindowSearchOrder.CENTER_OUT;
+	private static volatile TotpClock clock = new SystemTotpClock();
+	private static volatile TotpKeyCache keyCache;
+	private static volatile SecretGenerator secretGenerator = new SecretGenerator();
+	private static final AtomicLong rejectedCodeCount = new AtomicLong();
+
+	/**
+	 * Set the strategy used to acquire JCE {@link Mac} instances to hash the time-step values. By default this is null
+	 * and prepared keys such as {@link TotpKey} use the built-in pure Java HMAC with their cached midstates which is
+	 * faster while secrets that are only used once use a {@link Mac} per thread. Set this if you need all of the
+	 * hashing to be done by a particular security provider. Use a {@link ThreadLocalMacSource} for platform threads or
+	 * a {@link PooledMacSource} if you are validating numbers in virtual threads. Set to null to go back to the default
+	 * behavior.
+	 */
+	public static void setMacSource(MacSource macSource) {
+		TimeBasedOneTimePasswordUtil.macSource = macSource;
+	}
+
+	/**
+	 * Set the order in which the time-steps in the validation window are checked. The default is
+	 * {@link WindowSearchOrder#CENTER_OUT} which checks the current time-step first.
+	 */
+	public static void setWindowSearchOrder(WindowSearchOrder windowSearchOrder) {
+		if (windowSearchOrder == null) {
+			throw new IllegalArgumentException("Window search order cannot be null");
+		}
+		TimeBasedOneTimePasswordUtil.windowSearchOrder = windowSearchOrder;
+	}
+
+	/**
+	 * Set the clock used by the methods that generate or validate the current number. Set to null to go back to the
+	 * default {@link SystemTotpClock}. See {@link TickingTotpClock}.
+	 */
+	public static void setClock(TotpClock clock) {
+		if (clock == null) {
+			TimeBasedOneTimePasswordUtil.clock = new SystemTotpClock();
+		} else {
+			TimeBasedOneTimePasswordUtil.clock = clock;
+		}
+	}
+
+	/**
+	 * Set the cache of decoded secrets used by the methods that take secret strings. By default this is null and the
+	 * secret is decoded on every call. Set to null to turn off caching.
+	 */
+	public static void setKeyCache(TotpKeyCache keyCache) {
+		TimeBasedOneTimePasswordUtil.keyCache = keyCache;
+	}
+
+	/**
+	 * Set the generator used by the methods that generate secrets. For example, use
+	 * <code>new SecretGenerator("NativePRNGNonBlocking")</code> on Linux so that generating a secret does not block
+	 * waiting for entropy. Set to null to go back to the default which uses a default {@link SecureRandom} per thread.
+	 */
+	public static void setSecretGenerator(SecretGenerator secretGenerator) {
+		if (secretGenerator == null) {
+			TimeBasedOneTimePasswordUtil.secretGenerator = new SecretGenerator();
+		} else {
+			TimeBasedOneTimePasswordUtil.secretGenerator = secretGenerator;
+		}
+	}
+
+	/**
+	 * Return the number of codes that were rejected without calculating any HMACs because they could not possibly
+	 * match. These are negative numbers, numbers with too many digits, or codes with characters that are not digits.
+	 * A high count may mean that someone is guessing codes.
+	 */
+	public static long getRejectedCodeCount() {
+		return rejectedCodeCount.get();
 	}
 
 	/**
@@ -67,20 +145,11 @@ public class TimeBasedOneTimePasswordUtil {
 	}
 
 	/**
-	 * Similar to {@link #generateBase32Secret()} but specifies a character length.
+	 * Similar to {@link #generateBase32Secret()} but specifies a character length. See {@link SecretGenerator} to
+	 * generate secrets in bulk or into a buffer.
 	 */
 	public static String generateBase32Secret(int numDigits) {
-		StringBuilder sb = new StringBuilder(numDigits);
-		Random random = new SecureRandom();
-		for (int i = 0; i < numDigits; i++) {
-			int val = random.nextInt(32);
-			if (val < 26) {
-				sb.append((char) ('A' + val));
-			} else {
-				sb.append((char) ('2' + (val - 26)));
-			}
-		}
-		return sb.toString();
+		return secretGenerator.generateBase32Secret(numDigits);
 	}
 
 	/**
@@ -96,17 +165,7 @@ public class TimeBasedOneTimePasswordUtil {
 	 * Similar to {@link #generateHexSecret()} but specifies a character length.
 	 */
 	public static String generateHexSecret(int numDigits) {
-		StringBuilder sb = new StringBuilder(numDigits);
-		Random random = new SecureRandom();
-		for (int i = 0; i < numDigits; i++) {
-			int val = random.nextInt(16);
-			if (val < 10) {
-				sb.append((char) ('0' + val));
-			} else {
-				sb.append((char) ('A' + (val - 10)));
-			}
-		}
-		return sb.toString();
+		return secretGenerator.generateHexSecret(numDigits);
 	}
 
 	/**
@@ -130,7 +189,7 @@ public class TimeBasedOneTimePasswordUtil {
 	 */
 	public static boolean validateCurrentNumber(String base32Secret, int authNumber, long windowMillis)
 			throws GeneralSecurityException {
-		return validateCurrentNumber(base32Secret, authNumber, windowMillis, System.currentTimeMillis(),
+		return validateCurrentNumber(base32Secret, authNumber, windowMillis, clock.currentTimeMillis(),
 				DEFAULT_TIME_STEP_SECONDS, DEFAULT_OTP_LENGTH);
 	}
 
@@ -149,7 +208,7 @@ public class TimeBasedOneTimePasswordUtil {
 	 */
 	public static boolean validateCurrentNumberHex(String hexSecret, int authNumber, long windowMillis)
 			throws GeneralSecurityException {
-		return validateCurrentNumberHex(hexSecret, authNumber, windowMillis, System.currentTimeMillis(),
+		return validateCurrentNumberHex(hexSecret, authNumber, windowMillis, clock.currentTimeMillis(),
 				DEFAULT_TIME_STEP_SECONDS, DEFAULT_OTP_LENGTH);
 	}
 
@@ -218,8 +277,9 @@ public class TimeBasedOneTimePasswordUtil {
 	 */
 	public static boolean validateCurrentNumber(String base32Secret, int authNumber, long windowMillis, long timeMillis,
 			int timeStepSeconds, int numDigits) throws GeneralSecurityException {
-		byte[] key = decodeBase32(base32Secret);
-		return validateCurrentNumber(key, authNumber, windowMillis, timeMillis, timeStepSeconds, numDigits);
+		TotpKey key = base32Key(base32Secret);
+		return validateCurrentNumber(key.getKey(), key.getHmac(), authNumber, windowMillis, timeMillis,
+				timeStepSeconds, numDigits);
 	}
 
 	/**
@@ -243,8 +303,210 @@ public class TimeBasedOneTimePasswordUtil {
 	 */
 	public static boolean validateCurrentNumberHex(String hexSecret, int authNumber, long windowMillis, long timeMillis,
 			int timeStepSeconds, int numDigits) throws GeneralSecurityException {
-		byte[] key = decodeHex(hexSecret);
-		return validateCurrentNumber(key, authNumber, windowMillis, timeMillis, timeStepSeconds, numDigits);
+		TotpKey key = hexKey(hexSecret);
+		return validateCurrentNumber(key.getKey(), key.getHmac(), authNumber, windowMillis, timeMillis,
+				timeStepSeconds, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(String, int, long, long, int, int)} except the numbers are generated
+	 * with the HMAC algorithm from the algorithm argument instead of HMAC-SHA1.
+	 *
+	 * @param base32Secret
+	 *            Secret string encoded using base-32 that was used to generate the QR code or shared with the user.
+	 * @param authNumber
+	 *            Time based number provided by the user from their authenticator application.
+	 * @param windowMillis
+	 *            Number of milliseconds that they are allowed to be off and still match. This checks before and after
+	 *            the current time to account for clock variance. Set to 0 for no window.
+	 * @param timeMillis
+	 *            Time in milliseconds.
+	 * @param timeStepSeconds
+	 *            Time step in seconds. The default value is 30 seconds here. See {@link #DEFAULT_TIME_STEP_SECONDS}.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @param algorithm
+	 *            HMAC algorithm that the authenticator application was configured with.
+	 * @return True if the authNumber matched the calculated number within the specified window.
+	 */
+	public static boolean validateCurrentNumber(String base32Secret, int authNumber, long windowMillis, long timeMillis,
+			int timeStepSeconds, int numDigits, TotpAlgorithm algorithm) throws GeneralSecurityException {
+		TotpKey key = base32Key(base32Secret, algorithm);
+		return validateCurrentNumber(key.getKey(), key.getHmac(), authNumber, windowMillis, timeMillis,
+				timeStepSeconds, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(String, int, long, long, int, int, TotpAlgorithm)} except it uses a
+	 * hexadecimal secret instead of base-32.
+	 */
+	public static boolean validateCurrentNumberHex(String hexSecret, int authNumber, long windowMillis, long timeMillis,
+			int timeStepSeconds, int numDigits, TotpAlgorithm algorithm) throws GeneralSecurityException {
+		TotpKey key = hexKey(hexSecret, algorithm);
+		return validateCurrentNumber(key.getKey(), key.getHmac(), authNumber, windowMillis, timeMillis,
+				timeStepSeconds, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(String, int, long, long, int, int)} except with separate windows in the
+	 * past and the future. Numbers are typically entered a little after they were generated so a larger past window
+	 * and a smaller (or no) future window accepts the same logins while calculating fewer HMACs for invalid numbers.
+	 *
+	 * @param base32Secret
+	 *            Secret string encoded using base-32 that was used to generate the QR code or shared with the user.
+	 * @param authNumber
+	 *            Time based number provided by the user from their authenticator application.
+	 * @param pastWindowMillis
+	 *            Number of milliseconds before the current time that they are allowed to be off and still match. Set
+	 *            to 0 for no window in the past.
+	 * @param futureWindowMillis
+	 *            Number of milliseconds after the current time that they are allowed to be off and still match. Set
+	 *            to 0 for no window in the future.
+	 * @param timeMillis
+	 *            Time in milliseconds.
+	 * @param timeStepSeconds
+	 *            Time step in seconds. The default value is 30 seconds here. See {@link #DEFAULT_TIME_STEP_SECONDS}.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @return True if the authNumber matched the calculated number within the specified windows.
+	 */
+	public static boolean validateCurrentNumber(String base32Secret, int authNumber, long pastWindowMillis,
+			long futureWindowMillis, long timeMillis, int timeStepSeconds, int numDigits)
+			throws GeneralSecurityException {
+		TotpKey key = base32Key(base32Secret);
+		return (findMatchingValue(key.getKey(), key.getHmac(), authNumber, pastWindowMillis, futureWindowMillis, timeMillis,
+				timeStepSeconds, numDigits) != NO_MATCHING_VALUE);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(String, int, long, long, long, int, int)} except this uses a
+	 * hexadecimal secret.
+	 */
+	public static boolean validateCurrentNumberHex(String hexSecret, int authNumber, long pastWindowMillis,
+			long futureWindowMillis, long timeMillis, int timeStepSeconds, int numDigits)
+			throws GeneralSecurityException {
+		TotpKey key = hexKey(hexSecret);
+		return (findMatchingValue(key.getKey(), key.getHmac(), authNumber, pastWindowMillis, futureWindowMillis, timeMillis,
+				timeStepSeconds, numDigits) != NO_MATCHING_VALUE);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(String, int, long)} except that it returns the number of time-steps from
+	 * the current one that the number matched. For example, -1 if the user's authenticator application is a little
+	 * behind. This can be used to track clock drift or to record the time-step for replay protection without having to
+	 * calculate the numbers again.
+	 *
+	 * @param base32Secret
+	 *            Secret string encoded using base-32 that was used to generate the QR code or shared with the user.
+	 * @param authNumber
+	 *            Time based number provided by the user from their authenticator application.
+	 * @param windowMillis
+	 *            Number of milliseconds that they are allowed to be off and still match. This checks before and after
+	 *            the current time to account for clock variance. Set to 0 for no window.
+	 * @return The offset in time-steps of the matching number or {@link #NO_MATCH_OFFSET} if it did not match.
+	 */
+	public static int validateCurrentNumberOffset(String base32Secret, int authNumber, long windowMillis)
+			throws GeneralSecurityException {
+		return validateCurrentNumberOffset(base32Secret, authNumber, windowMillis, clock.currentTimeMillis(),
+				DEFAULT_TIME_STEP_SECONDS, DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumberOffset(String, int, long)} except exposes other parameters.
+	 *
+	 * @param base32Secret
+	 *            Secret string encoded using base-32 that was used to generate the QR code or shared with the user.
+	 * @param authNumber
+	 *            Time based number provided by the user from their authenticator application.
+	 * @param windowMillis
+	 *            Number of milliseconds that they are allowed to be off and still match. This checks before and after
+	 *            the current time to account for clock variance. Set to 0 for no window.
+	 * @param timeMillis
+	 *            Time in milliseconds.
+	 * @param timeStepSeconds
+	 *            Time step in seconds. The default value is 30 seconds here. See {@link #DEFAULT_TIME_STEP_SECONDS}.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @return The offset in time-steps of the matching number or {@link #NO_MATCH_OFFSET} if it did not match.
+	 */
+	public static int validateCurrentNumberOffset(String base32Secret, int authNumber, long windowMillis,
+			long timeMillis, int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		TotpKey key = base32Key(base32Secret);
+		return findMatchingOffset(key.getKey(), key.getHmac(), authNumber, windowMillis, timeMillis, timeStepSeconds,
+				numDigits);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumberOffset(String, int, long, long, int, int)} except it uses a hexadecimal
+	 * secret.
+	 */
+	public static int validateCurrentNumberOffsetHex(String hexSecret, int authNumber, long windowMillis,
+			long timeMillis, int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		TotpKey key = hexKey(hexSecret);
+		return findMatchingOffset(key.getKey(), key.getHmac(), authNumber, windowMillis, timeMillis, timeStepSeconds,
+				numDigits);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(String, int, long)} but the code is the characters that the user typed.
+	 * The digits are parsed in place so no string is created and no exception is thrown for bad input. See
+	 * {@link #validateCurrentNumber(String, CharSequence, long, long, int, int)}.
+	 */
+	public static boolean validateCurrentNumber(String base32Secret, CharSequence authCode, long windowMillis)
+			throws GeneralSecurityException {
+		return validateCurrentNumber(base32Secret, authCode, windowMillis, clock.currentTimeMillis(),
+				DEFAULT_TIME_STEP_SECONDS, DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(String, int, long, long, int, int)} but the code is the characters that
+	 * the user typed.
+	 *
+	 * @param base32Secret
+	 *            Secret string encoded using base-32 that was used to generate the QR code or shared with the user.
+	 * @param authCode
+	 *            Code provided by the user from their authenticator application. It must be 1 to numDigits digits. Any
+	 *            other characters cause it to not match.
+	 * @param windowMillis
+	 *            Number of milliseconds that they are allowed to be off and still match. This checks before and after
+	 *            the current time to account for clock variance. Set to 0 for no window.
+	 * @param timeMillis
+	 *            Time in milliseconds.
+	 * @param timeStepSeconds
+	 *            Time step in seconds. The default value is 30 seconds here. See {@link #DEFAULT_TIME_STEP_SECONDS}.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @return True if the authCode matched the calculated number within the specified window.
+	 */
+	public static boolean validateCurrentNumber(String base32Secret, CharSequence authCode, long windowMillis,
+			long timeMillis, int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		int authNumber = parseCode(authCode, numDigits);
+		if (authNumber == INVALID_CODE) {
+			return false;
+		}
+		return validateCurrentNumber(base32Secret, authNumber, windowMillis, timeMillis, timeStepSeconds, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(String, CharSequence, long)} except it uses a hexadecimal secret.
+	 */
+	public static boolean validateCurrentNumberHex(String hexSecret, CharSequence authCode, long windowMillis)
+			throws GeneralSecurityException {
+		return validateCurrentNumberHex(hexSecret, authCode, windowMillis, clock.currentTimeMillis(),
+				DEFAULT_TIME_STEP_SECONDS, DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(String, CharSequence, long, long, int, int)} except it uses a
+	 * hexadecimal secret.
+	 */
+	public static boolean validateCurrentNumberHex(String hexSecret, CharSequence authCode, long windowMillis,
+			long timeMillis, int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		int authNumber = parseCode(authCode, numDigits);
+		if (authNumber == INVALID_CODE) {
+			return false;
+		}
+		return validateCurrentNumberHex(hexSecret, authNumber, windowMillis, timeMillis, timeStepSeconds, numDigits);
 	}
 
 	/**
@@ -260,7 +522,7 @@ public class TimeBasedOneTimePasswordUtil {
 	 *         output.
 	 */
 	public static String generateCurrentNumberString(String base32Secret) throws GeneralSecurityException {
-		return generateNumberString(base32Secret, System.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS,
+		return generateNumberString(base32Secret, clock.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS,
 				DEFAULT_OTP_LENGTH);
 	}
 
@@ -273,7 +535,7 @@ public class TimeBasedOneTimePasswordUtil {
 	 *         output.
 	 */
 	public static String generateCurrentNumberStringHex(String hexSecret) throws GeneralSecurityException {
-		return generateNumberStringHex(hexSecret, System.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS,
+		return generateNumberStringHex(hexSecret, clock.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS,
 				DEFAULT_OTP_LENGTH);
 	}
 
@@ -289,7 +551,7 @@ public class TimeBasedOneTimePasswordUtil {
 	 */
 	public static String generateCurrentNumberString(String base32Secret, int numDigits)
 			throws GeneralSecurityException {
-		return generateNumberString(base32Secret, System.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS, numDigits);
+		return generateNumberString(base32Secret, clock.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS, numDigits);
 	}
 
 	/**
@@ -304,7 +566,7 @@ public class TimeBasedOneTimePasswordUtil {
 	 */
 	public static String generateCurrentNumberStringHex(String hexSecret, int numDigits)
 			throws GeneralSecurityException {
-		return generateNumberStringHex(hexSecret, System.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS, numDigits);
+		return generateNumberStringHex(hexSecret, clock.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS, numDigits);
 	}
 
 	/**
@@ -353,7 +615,9 @@ public class TimeBasedOneTimePasswordUtil {
 	 * @return A number which should match the user's authenticator application output.
 	 */
 	public static int generateCurrentNumber(String base32Secret) throws GeneralSecurityException {
-		return generateNumber(base32Secret, System.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS, DEFAULT_OTP_LENGTH);
+		long value = clock.currentTimeStep(DEFAULT_TIME_STEP_SECONDS);
+		TotpKey key = base32Key(base32Secret);
+		return generateNumberFromKeyValue(key.getKey(), key.getHmac(), value, DEFAULT_OTP_LENGTH);
 	}
 
 	/**
@@ -362,7 +626,9 @@ public class TimeBasedOneTimePasswordUtil {
 	 * @return A number which should match the user's authenticator application output.
 	 */
 	public static int generateCurrentNumberHex(String hexSecret) throws GeneralSecurityException {
-		return generateNumberHex(hexSecret, System.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS, DEFAULT_OTP_LENGTH);
+		long value = clock.currentTimeStep(DEFAULT_TIME_STEP_SECONDS);
+		TotpKey key = hexKey(hexSecret);
+		return generateNumberFromKeyValue(key.getKey(), key.getHmac(), value, DEFAULT_OTP_LENGTH);
 	}
 
 	/**
@@ -371,7 +637,9 @@ public class TimeBasedOneTimePasswordUtil {
 	 * @return A number which should match the user's authenticator application output.
 	 */
 	public static int generateCurrentNumber(String base32Secret, int numDigits) throws GeneralSecurityException {
-		return generateNumber(base32Secret, System.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS, numDigits);
+		long value = clock.currentTimeStep(DEFAULT_TIME_STEP_SECONDS);
+		TotpKey key = base32Key(base32Secret);
+		return generateNumberFromKeyValue(key.getKey(), key.getHmac(), value, numDigits);
 	}
 
 	/**
@@ -380,7 +648,9 @@ public class TimeBasedOneTimePasswordUtil {
 	 * @return A number which should match the user's authenticator application output.
 	 */
 	public static int generateCurrentNumberHex(String hexSecret, int numDigits) throws GeneralSecurityException {
-		return generateNumberHex(hexSecret, System.currentTimeMillis(), DEFAULT_TIME_STEP_SECONDS, numDigits);
+		long value = clock.currentTimeStep(DEFAULT_TIME_STEP_SECONDS);
+		TotpKey key = hexKey(hexSecret);
+		return generateNumberFromKeyValue(key.getKey(), key.getHmac(), value, numDigits);
 	}
 
 	/**
@@ -411,8 +681,8 @@ public class TimeBasedOneTimePasswordUtil {
 	public static int generateNumber(String base32Secret, long timeMillis, int timeStepSeconds, int numDigits)
 			throws GeneralSecurityException {
 		long value = generateValue(timeMillis, timeStepSeconds);
-		byte[] key = decodeBase32(base32Secret);
-		return generateNumberFromKeyValue(key, value, numDigits);
+		TotpKey key = base32Key(base32Secret);
+		return generateNumberFromKeyValue(key.getKey(), key.getHmac(), value, numDigits);
 	}
 
 	/**
@@ -423,8 +693,132 @@ public class TimeBasedOneTimePasswordUtil {
 	public static int generateNumberHex(String hexSecret, long timeMillis, int timeStepSeconds, int numDigits)
 			throws GeneralSecurityException {
 		long value = generateValue(timeMillis, timeStepSeconds);
-		byte[] key = decodeHex(hexSecret);
-		return generateNumberFromKeyValue(key, value, numDigits);
+		TotpKey key = hexKey(hexSecret);
+		return generateNumberFromKeyValue(key.getKey(), key.getHmac(), value, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #generateCurrentNumber(String, int)} except the number is generated with the HMAC algorithm
+	 * from the algorithm argument instead of HMAC-SHA1.
+	 *
+	 * @return A number which should match the user's authenticator application output.
+	 */
+	public static int generateCurrentNumber(String base32Secret, int numDigits, TotpAlgorithm algorithm)
+			throws GeneralSecurityException {
+		long value = clock.currentTimeStep(DEFAULT_TIME_STEP_SECONDS);
+		TotpKey key = base32Key(base32Secret, algorithm);
+		return generateNumberFromKeyValue(key.getKey(), key.getHmac(), value, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #generateNumber(String, long, int, int)} except the number is generated with the HMAC
+	 * algorithm from the algorithm argument instead of HMAC-SHA1.
+	 *
+	 * @return A number which should match the user's authenticator application output.
+	 */
+	public static int generateNumber(String base32Secret, long timeMillis, int timeStepSeconds, int numDigits,
+			TotpAlgorithm algorithm) throws GeneralSecurityException {
+		long value = generateValue(timeMillis, timeStepSeconds);
+		TotpKey key = base32Key(base32Secret, algorithm);
+		return generateNumberFromKeyValue(key.getKey(), key.getHmac(), value, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #generateNumber(String, long, int, int, TotpAlgorithm)} but with a hexadecimal secret.
+	 *
+	 * @return A number which should match the user's authenticator application output.
+	 */
+	public static int generateNumberHex(String hexSecret, long timeMillis, int timeStepSeconds, int numDigits,
+			TotpAlgorithm algorithm) throws GeneralSecurityException {
+		long value = generateValue(timeMillis, timeStepSeconds);
+		TotpKey key = hexKey(hexSecret, algorithm);
+		return generateNumberFromKeyValue(key.getKey(), key.getHmac(), value, numDigits);
+	}
+
+	/**
+	 * Generate the numbers for a large number of keys at once for the same time-step. This is for bulk operations such
+	 * as audits or printing offline token sheets. The per-thread scratch space is looked up once for the whole array.
+	 *
+	 * @param keys
+	 *            Secret keys already decoded from base-32 or hexadecimal.
+	 * @param timeStep
+	 *            Time-step value that is hashed which is the time in seconds divided by the time-step seconds. For
+	 *            example: timeMillis / 1000 / {@link #DEFAULT_TIME_STEP_SECONDS}.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @param output
+	 *            Array where the number for keys[i] is written at output[i].
+	 */
+	public static void generateNumbers(byte[][] keys, long timeStep, int numDigits, int[] output)
+			throws GeneralSecurityException {
+		checkBulkLengths(keys.length, output.length);
+		if (macSource != null) {
+			for (int i = 0; i < keys.length; i++) {
+				output[i] = generateNumberFromKeyValue(keys[i], null, timeStep, numDigits);
+			}
+			return;
+		}
+		HmacScratch scratch = HmacScratch.get();
+		for (int i = 0; i < keys.length; i++) {
+			new HmacSha1(keys[i]).hashValue(timeStep, scratch.schedule, scratch.hash);
+			output[i] = truncateHash(scratch.hash, HmacSha1.HASH_LENGTH, numDigits);
+		}
+	}
+
+	/**
+	 * Similar to {@link #generateNumbers(byte[][], long, int, int[])} but with prepared keys so their cached midstates
+	 * are used and each key only takes two SHA-1 compressions and no allocations.
+	 */
+	public static void generateNumbers(TotpKey[] keys, long timeStep, int numDigits, int[] output)
+			throws GeneralSecurityException {
+		checkBulkLengths(keys.length, output.length);
+		if (macSource != null) {
+			for (int i = 0; i < keys.length; i++) {
+				output[i] = generateNumberFromKeyValue(keys[i].getKey(), keys[i].getHmac(), timeStep, numDigits);
+			}
+			return;
+		}
+		HmacScratch scratch = HmacScratch.get();
+		for (int i = 0; i < keys.length; i++) {
+			PreparedHmac hmac = keys[i].getHmac();
+			hmac.hashValue(timeStep, scratch);
+			output[i] = truncateHash(scratch.hash, hmac.getAlgorithm().getHashLength(), numDigits);
+		}
+	}
+
+	/**
+	 * Write the number into the output buffer as digits with leading zeros to make it the number of digits. This is the
+	 * same as the generate string methods but without creating a string.
+	 *
+	 * @param number
+	 *            Number to write which must not be negative.
+	 * @param numDigits
+	 *            The number of digits of the OTP. If the number has more digits then they are all written.
+	 * @param output
+	 *            Buffer that the digits are written into.
+	 * @param outputOffset
+	 *            Offset in the output buffer to start writing.
+	 * @return The number of characters written.
+	 */
+	public static int formatNumber(int number, int numDigits, char[] output, int outputOffset) {
+		int length = formattedLength(number, numDigits, output.length, outputOffset);
+		for (int i = outputOffset + length - 1; i >= outputOffset; i--) {
+			output[i] = (char) ('0' + number % 10);
+			number /= 10;
+		}
+		return length;
+	}
+
+	/**
+	 * Similar to {@link #formatNumber(int, int, char[], int)} but writes ASCII bytes.
+	 */
+	public static int formatNumber(int number, int numDigits, byte[] output, int outputOffset) {
+		int length = formattedLength(number, numDigits, output.length, outputOffset);
+		for (int i = outputOffset + length - 1; i >= outputOffset; i--) {
+			output[i] = (byte) ('0' + number % 10);
+			number /= 10;
+		}
+		return length;
 	}
 
 	/**
@@ -472,10 +866,20 @@ public class TimeBasedOneTimePasswordUtil {
 	 *            The dimension of the image, width and height. Can be set to {@link #DEFAULT_QR_DIMENTION}.
 	 */
 	public static String qrImageUrl(String keyId, String secret, int numDigits, int imageDimension) {
+		return qrImageUrl(keyId, secret, numDigits, imageDimension, TotpAlgorithm.SHA1);
+	}
+
+	/**
+	 * Similar to {@link #qrImageUrl(String, String, int, int)} but the authenticator program is told to use the HMAC
+	 * algorithm from the algorithm argument instead of HMAC-SHA1. See
+	 * {@link #generateOtpAuthUrl(String, String, int, TotpAlgorithm)}.
+	 */
+	public static String qrImageUrl(String keyId, String secret, int numDigits, int imageDimension,
+			TotpAlgorithm algorithm) {
 		StringBuilder sb = new StringBuilder(128);
 		sb.append("https://chart.googleapis.com/chart?chs=" + imageDimension + "x" + imageDimension + "&cht=qr&chl="
 				+ imageDimension + "x" + imageDimension + "&chld=M|0&cht=qr&chl=");
-		addOtpAuthPart(keyId, secret, sb, numDigits);
+		addOtpAuthPart(keyId, secret, sb, numDigits, algorithm);
 		return sb.toString();
 	}
 
@@ -506,62 +910,377 @@ public class TimeBasedOneTimePasswordUtil {
 	 *            The number of digits" of the OTP.
 	 */
 	public static String generateOtpAuthUrl(String keyId, String secret, int numDigits) {
+		return generateOtpAuthUrl(keyId, secret, numDigits, TotpAlgorithm.SHA1);
+	}
+
+	/**
+	 * Similar to {@link #generateOtpAuthUrl(String, String, int)} but with the HMAC algorithm that the authenticator
+	 * program should use. SHA1 is the default so the algorithm parameter is only added for the other algorithms.
+	 *
+	 * @param keyId
+	 *            Name of the key that you want to show up in the users authentication application. Should already be
+	 *            URL encoded.
+	 * @param secret
+	 *            Secret string that will be used when generating the current number.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @param algorithm
+	 *            HMAC algorithm that the numbers are generated with.
+	 */
+	public static String generateOtpAuthUrl(String keyId, String secret, int numDigits, TotpAlgorithm algorithm) {
 		StringBuilder sb = new StringBuilder(128);
-		addOtpAuthPart(keyId, secret, sb, numDigits);
+		addOtpAuthPart(keyId, secret, sb, numDigits, algorithm);
 		return sb.toString();
 	}
 
-	private static void addOtpAuthPart(String keyId, String secret, StringBuilder sb, int numDigits) {
+	/**
+	 * Return the QR code of the otpauth URL which is rendered locally so the page that shows it to the user does not
+	 * depend on a remote chart service. Unlike {@link #generateOtpAuthUrl(String, String, int, TotpAlgorithm)}, the
+	 * query part of the URL in the code is not escaped because it is not being passed inside of another URL.
+	 *
+	 * @param keyId
+	 *            Name of the key that you want to show up in the users authentication application. Should already be
+	 *            URL encoded.
+	 * @param secret
+	 *            Secret string that will be used when generating the current number.
+	 * @param numDigits
+	 *            The number of digits of the OTP. Can be set to {@link #DEFAULT_OTP_LENGTH}.
+	 * @param algorithm
+	 *            HMAC algorithm that the authenticator program should use.
+	 */
+	public static QrCode qrCode(String keyId, String secret, int numDigits, TotpAlgorithm algorithm) {
+		StringBuilder sb = new StringBuilder(64);
+		addOtpAuthPart(keyId, secret, sb, numDigits, algorithm, false);
+		return QrCode.encode(sb.toString());
+	}
+
+	/**
+	 * Write the QR image as a PNG with the default number of digits and dimension. This can be shown to the user
+	 * instead of the image from {@link #qrImageUrl(String, String)}.
+	 *
+	 * @param keyId
+	 *            Name of the key that you want to show up in the users authentication application. Should already be
+	 *            URL encoded.
+	 * @param secret
+	 *            Secret string that will be used when generating the current number.
+	 * @param output
+	 *            Stream that the image is written to. It is flushed but not closed.
+	 */
+	public static void writeQrImagePng(String keyId, String secret, OutputStream output) throws IOException {
+		writeQrImagePng(keyId, secret, DEFAULT_OTP_LENGTH, DEFAULT_QR_DIMENTION, TotpAlgorithm.SHA1, output);
+	}
+
+	/**
+	 * Similar to {@link #writeQrImagePng(String, String, OutputStream)} but you specify the number of digits, the
+	 * dimension of the image, and the HMAC algorithm. See {@link QrCode#writePng(int, OutputStream)}.
+	 */
+	public static void writeQrImagePng(String keyId, String secret, int numDigits, int imageDimension,
+			TotpAlgorithm algorithm, OutputStream output) throws IOException {
+		qrCode(keyId, secret, numDigits, algorithm).writePng(imageDimension, output);
+	}
+
+	/**
+	 * Return the QR image as an SVG with the default number of digits and dimension. This can be put directly in the
+	 * page that is shown to the user instead of the image from {@link #qrImageUrl(String, String)}.
+	 *
+	 * @param keyId
+	 *            Name of the key that you want to show up in the users authentication application. Should already be
+	 *            URL encoded.
+	 * @param secret
+	 *            Secret string that will be used when generating the current number.
+	 */
+	public static String qrImageSvg(String keyId, String secret) {
+		return qrImageSvg(keyId, secret, DEFAULT_OTP_LENGTH, DEFAULT_QR_DIMENTION, TotpAlgorithm.SHA1);
+	}
+
+	/**
+	 * Similar to {@link #qrImageSvg(String, String)} but you specify the number of digits, the dimension of the image,
+	 * and the HMAC algorithm. See {@link QrCode#writeSvg(int, java.io.Writer)}.
+	 */
+	public static String qrImageSvg(String keyId, String secret, int numDigits, int imageDimension,
+			TotpAlgorithm algorithm) {
+		return qrCode(keyId, secret, numDigits, algorithm).toSvg(imageDimension);
+	}
+
+	private static void addOtpAuthPart(String keyId, String secret, StringBuilder sb, int numDigits,
+			TotpAlgorithm algorithm) {
+		addOtpAuthPart(keyId, secret, sb, numDigits, algorithm, true);
+	}
+
+	/**
+	 * Append the otpauth URL with the query part escaped if it is going to be passed inside of another URL.
+	 */
+	private static void addOtpAuthPart(String keyId, String secret, StringBuilder sb, int numDigits,
+			TotpAlgorithm algorithm, boolean escaped) {
+		String equals = (escaped ? "%3D" : "=");
+		String and = (escaped ? "%26" : "&");
 		sb.append("otpauth://totp/")
 				.append(keyId)
-				.append("%3Fsecret%3D")
+				.append(escaped ? "%3F" : "?")
+				.append("secret")
+				.append(equals)
 				.append(secret)
-				.append("%26digits%3D")
+				.append(and)
+				.append("digits")
+				.append(equals)
 				.append(numDigits);
+		if (algorithm != TotpAlgorithm.SHA1) {
+			sb.append(and).append("algorithm").append(equals).append(algorithm.getOtpAuthName());
+		}
 	}
 
-	private static boolean validateCurrentNumber(byte[] key, int authNumber, long windowMillis, long timeMillis,
-			int timeStepSeconds, int numDigits) throws GeneralSecurityException {
-		if (windowMillis <= 0) {
-			// just test the current time
-			long value = generateValue(timeMillis, timeStepSeconds);
-			long generatedNumber = generateNumberFromKeyValue(key, value, numDigits);
-			return (generatedNumber == authNumber);
+	/**
+	 * Return the key for the secret string encoded using base-32 from the cache if one has been set. Otherwise the
+	 * secret is decoded and the HMAC midstates are calculated as needed. Exposed for
+	 * {@link CounterBasedOneTimePasswordUtil} and {@link TotpBatchVerifier}.
+	 */
+	static TotpKey base32Key(String base32Secret) {
+		return base32Key(base32Secret, TotpAlgorithm.SHA1);
+	}
+
+	/**
+	 * Similar to {@link #base32Key(String)} but for the HMAC algorithm from the algorithm argument instead of
+	 * HMAC-SHA1.
+	 */
+	private static TotpKey base32Key(String base32Secret, TotpAlgorithm algorithm) {
+		TotpKeyCache cache = keyCache;
+		if (cache == null) {
+			return uncachedKey(decodeBase32(base32Secret), algorithm);
+		} else {
+			return cache.getBase32(base32Secret, algorithm);
+		}
+	}
+
+	/**
+	 * Similar to {@link #base32Key(String)} but for a secret string encoded in hexadecimal.
+	 */
+	static TotpKey hexKey(String hexSecret) {
+		return hexKey(hexSecret, TotpAlgorithm.SHA1);
+	}
+
+	/**
+	 * Similar to {@link #hexKey(String)} but for the HMAC algorithm from the algorithm argument instead of HMAC-SHA1.
+	 */
+	private static TotpKey hexKey(String hexSecret, TotpAlgorithm algorithm) {
+		TotpKeyCache cache = keyCache;
+		if (cache == null) {
+			return uncachedKey(decodeHex(hexSecret), algorithm);
+		} else {
+			return cache.getHex(hexSecret, algorithm);
+		}
+	}
+
+	private static TotpKey uncachedKey(byte[] bytes, TotpAlgorithm algorithm) {
+		if (algorithm == TotpAlgorithm.SHA1) {
+			// a null HMAC means SHA1 with the midstates calculated as needed
+			return new TotpKey(bytes, (PreparedHmac) null);
+		} else {
+			// the other algorithms are identified by their prepared HMAC
+			return new TotpKey(bytes, algorithm.prepare(bytes));
 		}
+	}
+
+	/**
+	 * Validate the number with the key and the optional prepared HMAC. Exposed for {@link TotpKey}.
+	 */
+	static boolean validateCurrentNumber(byte[] key, PreparedHmac hmac, int authNumber, long windowMillis,
+			long timeMillis, int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		return (findMatchingValue(key, hmac, authNumber, windowMillis, timeMillis, timeStepSeconds,
+				numDigits) != NO_MATCHING_VALUE);
+	}
+
+	/**
+	 * Return the time-step value that the number matched within the window or {@link #NO_MATCHING_VALUE} if none.
+	 * Exposed for {@link TotpKey}.
+	 */
+	static long findMatchingValue(byte[] key, PreparedHmac hmac, int authNumber, long windowMillis, long timeMillis,
+			int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		return findMatchingValue(key, hmac, authNumber, windowMillis, windowMillis, timeMillis, timeStepSeconds,
+				numDigits);
+	}
+
+	/**
+	 * Similar to {@link #findMatchingValue(byte[], PreparedHmac, int, long, long, int, int)} but with separate windows
+	 * in the past and the future.
+	 */
+	static long findMatchingValue(byte[] key, PreparedHmac hmac, int authNumber, long pastWindowMillis,
+			long futureWindowMillis, long timeMillis, int timeStepSeconds, int numDigits)
+			throws GeneralSecurityException {
+		long currentValue = generateValue(timeMillis, timeStepSeconds);
+		long startValue = currentValue;
+		long endValue = currentValue;
 		// maybe check multiple values
-		long startValue = generateValue(timeMillis - windowMillis, timeStepSeconds);
-		long endValue = generateValue(timeMillis + windowMillis, timeStepSeconds);
-		for (long value = startValue; value <= endValue; value++) {
-			long generatedNumber = generateNumberFromKeyValue(key, value, numDigits);
-			if (generatedNumber == authNumber) {
-				return true;
+		if (pastWindowMillis > 0) {
+			startValue = generateValue(timeMillis - pastWindowMillis, timeStepSeconds);
+		}
+		if (futureWindowMillis > 0) {
+			endValue = generateValue(timeMillis + futureWindowMillis, timeStepSeconds);
+		}
+		return findMatchingValue(key, hmac, authNumber, startValue, currentValue, endValue, numDigits);
+	}
+
+	/**
+	 * Return the offset in time-steps from the current one that the number matched within the window or
+	 * {@link #NO_MATCH_OFFSET} if none. Exposed for {@link TotpKey}.
+	 */
+	static int findMatchingOffset(byte[] key, PreparedHmac hmac, int authNumber, long windowMillis, long timeMillis,
+			int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		long value =
+				findMatchingValue(key, hmac, authNumber, windowMillis, timeMillis, timeStepSeconds, numDigits);
+		if (value == NO_MATCHING_VALUE) {
+			return NO_MATCH_OFFSET;
+		} else {
+			return (int) (value - generateValue(timeMillis, timeStepSeconds));
+		}
+	}
+
+	/**
+	 * Validate the number against the time-step values from start to end inclusive. Exposed for
+	 * {@link TotpBatchVerifier} which calculates the values once for the whole batch.
+	 */
+	static boolean validateValues(byte[] key, PreparedHmac hmac, int authNumber, long startValue, long currentValue,
+			long endValue, int numDigits) throws GeneralSecurityException {
+		return (findMatchingValue(key, hmac, authNumber, startValue, currentValue, endValue,
+				numDigits) != NO_MATCHING_VALUE);
+	}
+
+	private static long findMatchingValue(byte[] key, PreparedHmac hmac, int authNumber, long startValue,
+			long currentValue, long endValue, int numDigits) throws GeneralSecurityException {
+		if (!isPossibleNumber(authNumber, numDigits)) {
+			return NO_MATCHING_VALUE;
+		}
+		if (endValue > startValue) {
+			// compute the midstates once for all of the values in the window
+			hmac = prepareForSearch(key, hmac);
+		}
+		if (windowSearchOrder == WindowSearchOrder.LINEAR) {
+			for (long value = startValue; value <= endValue; value++) {
+				if (generateNumberFromKeyValue(key, hmac, value, numDigits) == authNumber) {
+					return value;
+				}
 			}
+			return NO_MATCHING_VALUE;
 		}
-		return false;
+
+		// current value first and then work outwards, previous before next
+		if (generateNumberFromKeyValue(key, hmac, currentValue, numDigits) == authNumber) {
+			return currentValue;
+		}
+		for (long distance = 1;; distance++) {
+			long before = currentValue - distance;
+			long after = currentValue + distance;
+			if (before < startValue && after > endValue) {
+				return NO_MATCHING_VALUE;
+			}
+			if (before >= startValue && generateNumberFromKeyValue(key, hmac, before, numDigits) == authNumber) {
+				return before;
+			}
+			if (after <= endValue && generateNumberFromKeyValue(key, hmac, after, numDigits) == authNumber) {
+				return after;
+			}
+		}
+	}
+
+	/**
+	 * Return the HMAC to use when hashing more than one value with the key. If there is no prepared HMAC and no
+	 * {@link MacSource} then the SHA1 midstates are calculated once here instead of for each value. A single value
+	 * should not call this and use the JCE {@link Mac} instead. Exposed for {@link CounterBasedOneTimePasswordUtil}.
+	 */
+	static PreparedHmac prepareForSearch(byte[] key, PreparedHmac hmac) {
+		if (hmac == null && macSource == null) {
+			return new HmacSha1(key);
+		} else {
+			return hmac;
+		}
+	}
+
+	private static void checkBulkLengths(int numKeys, int outputLength) {
+		if (outputLength < numKeys) {
+			throw new IllegalArgumentException(
+					"Output length " + outputLength + " is less than the number of keys " + numKeys);
+		}
+	}
+
+	/**
+	 * Return the current time in milliseconds from the clock. Exposed for the other classes in the package.
+	 */
+	static long currentTimeMillis() {
+		return clock.currentTimeMillis();
 	}
 
-	private static long generateValue(long timeMillis, int timeStepSeconds) {
+	/**
+	 * Return the current time-step value from the clock. Exposed for the other classes in the package.
+	 */
+	static long currentTimeStep(int timeStepSeconds) {
+		return clock.currentTimeStep(timeStepSeconds);
+	}
+
+	/**
+	 * Convert the time in milliseconds into the time-step value which is hashed. Exposed for {@link TotpKey}.
+	 */
+	static long generateValue(long timeMillis, int timeStepSeconds) {
 		return timeMillis / 1000 / timeStepSeconds;
 	}
 
-	private static int generateNumberFromKeyValue(byte[] key, long value, int numDigits)
+	/**
+	 * Generate the number from the key and the time-step value. If no {@link MacSource} has been set then this uses the
+	 * prepared HMAC which does not allocate any memory. If the prepared one is null then the key is only being used
+	 * once so calculating its midstates would not pay off and a JCE {@link Mac} for the thread is used instead. Exposed
+	 * for {@link TotpKey}.
+	 */
+	static int generateNumberFromKeyValue(byte[] key, PreparedHmac hmac, long value, int numDigits)
 			throws GeneralSecurityException {
 
+		MacSource source = macSource;
+		if (source == null && hmac != null) {
+			HmacScratch scratch = HmacScratch.get();
+			hmac.hashValue(value, scratch);
+			return truncateHash(scratch.hash, hmac.getAlgorithm().getHashLength(), numDigits);
+		}
+
+		if (source == null) {
+			source = DEFAULT_MAC_SOURCE;
+		}
+		// a null prepared HMAC means SHA1
+		TotpAlgorithm algorithm = (hmac == null ? TotpAlgorithm.SHA1 : hmac.getAlgorithm());
+		// no per-thread scratch here since the init copies the key anyway and a pooled source is for virtual threads
+		byte[] data = valueToBytes(value);
+		// encrypt the data with the key and return the hash of it
+		SecretKeySpec signKey = new SecretKeySpec(key, algorithm.getMacAlgorithm());
+		Mac mac = source.acquire(algorithm.getMacAlgorithm());
+		byte[] hash;
+		try {
+			mac.init(signKey);
+			hash = mac.doFinal(data);
+		} finally {
+			source.release(mac);
+		}
+		return truncateHash(hash, hash.length, numDigits);
+	}
+
+	/**
+	 * Convert the time-step value into the 8 big-endian bytes which are hashed. Exposed for testing.
+	 */
+	static byte[] valueToBytes(long value) {
 		byte[] data = new byte[8];
-		for (int i = 7; value > 0; i--) {
+		valueToBytes(value, data);
+		return data;
+	}
+
+	private static void valueToBytes(long value, byte[] data) {
+		for (int i = 7; i >= 0; i--) {
 			data[i] = (byte) (value & 0xFF);
 			value >>= 8;
 		}
+	}
 
-		// encrypt the data with the key and return the SHA1 of it in hex
-		SecretKeySpec signKey = new SecretKeySpec(key, "HmacSHA1");
-		// if this is expensive, could put in a thread-local
-		Mac mac = Mac.getInstance("HmacSHA1");
-		mac.init(signKey);
-		byte[] hash = mac.doFinal(data);
+	/**
+	 * Turn the HMAC hash into the OTP number using the dynamic truncation from RFC 4226.
+	 */
+	static int truncateHash(byte[] hash, int hashLength, int numDigits) {
 
 		// take the 4 least significant bits from the encrypted string as an offset
-		int offset = hash[hash.length - 1] & 0xF;
+		int offset = hash[hashLength - 1] & 0xF;
 
 		// We're using a long because Java hasn't got unsigned int.
 		long truncatedHash = 0;
@@ -586,157 +1305,98 @@ public class TimeBasedOneTimePasswordUtil {
 	 * Return the string prepended with 0s. Tested as 10x faster than String.format("%06d", ...); Exposed for testing.
 	 */
 	static String zeroPrepend(int num, int digits) {
-		String numStr = Integer.toString(num);
-		if (numStr.length() >= digits) {
-			return numStr;
-		} else {
-			StringBuilder sb = new StringBuilder(digits);
-			int zeroCount = digits - numStr.length();
-			sb.append(blockOfZeros, 0, zeroCount);
-			sb.append(numStr);
-			return sb.toString();
-		}
+		char[] chars = new char[Math.max(digits, MAX_INT_DIGITS)];
+		int length = formatNumber(num, digits, chars, 0);
+		return new String(chars, 0, length);
 	}
 
 	/**
-	 * Decode base-32 string. I didn't want to add a dependency to Apache Codec just for this decode method. Exposed for
-	 * testing.
+	 * Parse the digits of the code into a number without creating any objects. Returns {@link #INVALID_CODE} and counts
+	 * the code as rejected if it is empty, has more than the number of digits, has a character that is not a digit, or
+	 * is larger than the largest int.
 	 */
-	static byte[] decodeBase32(String str) {
-		// each base-32 character encodes 5 bits
-		int numBytes = ((str.length() * 5) + 7) / 8;
-		byte[] result = new byte[numBytes];
-		int resultIndex = 0;
-		int which = 0;
-		int working = 0;
-		for (int i = 0; i < str.length(); i++) {
-			char ch = str.charAt(i);
-			int val;
-			if (ch >= 'a' && ch <= 'z') {
-				val = ch - 'a';
-			} else if (ch >= 'A' && ch <= 'Z') {
-				val = ch - 'A';
-			} else if (ch >= '2' && ch <= '7') {
-				val = 26 + (ch - '2');
-			} else if (ch == '=') {
-				// special case
-				which = 0;
-				break;
-			} else {
-				throw new IllegalArgumentException("Invalid base-32 character: " + ch);
-			}
-			/*
-			 * There are probably better ways to do this but this seemed the most straightforward.
-			 */
-			switch (which) {
-				case 0:
-					// all 5 bits is top 5 bits
-					working = (val & 0x1F) << 3;
-					which = 1;
-					break;
-				case 1:
-					// top 3 bits is lower 3 bits
-					working |= (val & 0x1C) >> 2;
-					result[resultIndex++] = (byte) working;
-					// lower 2 bits is upper 2 bits
-					working = (val & 0x03) << 6;
-					which = 2;
-					break;
-				case 2:
-					// all 5 bits is mid 5 bits
-					working |= (val & 0x1F) << 1;
-					which = 3;
-					break;
-				case 3:
-					// top 1 bit is lowest 1 bit
-					working |= (val & 0x10) >> 4;
-					result[resultIndex++] = (byte) working;
-					// lower 4 bits is top 4 bits
-					working = (val & 0x0F) << 4;
-					which = 4;
-					break;
-				case 4:
-					// top 4 bits is lowest 4 bits
-					working |= (val & 0x1E) >> 1;
-					result[resultIndex++] = (byte) working;
-					// lower 1 bit is top 1 bit
-					working = (val & 0x01) << 7;
-					which = 5;
-					break;
-				case 5:
-					// all 5 bits is mid 5 bits
-					working |= (val & 0x1F) << 2;
-					which = 6;
-					break;
-				case 6:
-					// top 2 bits is lowest 2 bits
-					working |= (val & 0x18) >> 3;
-					result[resultIndex++] = (byte) working;
-					// lower 3 bits of byte 6 is top 3 bits
-					working = (val & 0x07) << 5;
-					which = 7;
-					break;
-				case 7:
-					// all 5 bits is lower 5 bits
-					working |= (val & 0x1F);
-					result[resultIndex++] = (byte) working;
-					which = 0;
-					break;
+	static int parseCode(CharSequence code, int numDigits) {
+		int length = code.length();
+		if (length == 0 || length > numDigits) {
+			rejectedCodeCount.incrementAndGet();
+			return INVALID_CODE;
+		}
+		long number = 0;
+		for (int i = 0; i < length; i++) {
+			int digit = code.charAt(i) - '0';
+			number = number * 10 + digit;
+			// 10 digit codes can be larger than an int which no number could match
+			if (digit < 0 || digit > 9 || number > Integer.MAX_VALUE) {
+				rejectedCodeCount.incrementAndGet();
+				return INVALID_CODE;
 			}
 		}
-		if (which != 0) {
-			result[resultIndex++] = (byte) working;
+		return (int) number;
+	}
+
+	/**
+	 * Similar to {@link #parseCode(CharSequence, int)} but the code is ASCII bytes.
+	 */
+	static int parseCode(byte[] code, int codeOffset, int codeLength, int numDigits) {
+		if (codeLength == 0 || codeLength > numDigits) {
+			rejectedCodeCount.incrementAndGet();
+			return INVALID_CODE;
 		}
-		if (resultIndex != result.length) {
-			result = Arrays.copyOf(result, resultIndex);
+		long number = 0;
+		for (int i = codeOffset; i < codeOffset + codeLength; i++) {
+			int digit = code[i] - '0';
+			number = number * 10 + digit;
+			// 10 digit codes can be larger than an int which no number could match
+			if (digit < 0 || digit > 9 || number > Integer.MAX_VALUE) {
+				rejectedCodeCount.incrementAndGet();
+				return INVALID_CODE;
+			}
 		}
-		return result;
+		return (int) number;
 	}
 
 	/**
-	 * Decode hexadecimal string method. I didn't want to add a dependency to Apache Codec just for this decode method.
-	 * Exposed for testing.
+	 * Return true if the number could be generated with this number of digits. Otherwise it is counted as rejected so
+	 * the callers can skip the HMACs. Exposed for the validators in the package.
 	 */
-	static byte[] decodeHex(String str) {
-		// each hex character encodes 4 bits
-		int numBytes = ((str.length() * 4) + 7) / 8;
-		byte[] result = new byte[numBytes];
-		int resultIndex = 0;
-		int which = 0;
-		int working = 0;
-		for (int i = 0; i < str.length(); i++) {
-			char ch = str.charAt(i);
-			int val;
-			if (ch >= '0' && ch <= '9') {
-				val = (ch - '0');
-			} else if (ch >= 'a' && ch <= 'f') {
-				val = 10 + (ch - 'a');
-			} else if (ch >= 'A' && ch <= 'F') {
-				val = 10 + (ch - 'A');
-			} else {
-				throw new IllegalArgumentException("Invalid hex character: " + ch);
-			}
-			/*
-			 * There are probably better ways to do this but this seemed the most straightforward.
-			 */
-			if (which == 0) {
-				// top 4 bits
-				working = (val & 0xF) << 4;
-				which = 1;
-			} else {
-				// lower 4 bits
-				working |= (val & 0xF);
-				result[resultIndex++] = (byte) working;
-				which = 0;
-			}
+	static boolean isPossibleNumber(int authNumber, int numDigits) {
+		if (authNumber >= 0
+				&& (numDigits >= POWERS_OF_TEN.length || authNumber < POWERS_OF_TEN[Math.max(numDigits, 0)])) {
+			return true;
+		}
+		rejectedCodeCount.incrementAndGet();
+		return false;
+	}
+
+	private static int formattedLength(int number, int numDigits, int outputLength, int outputOffset) {
+		if (number < 0) {
+			throw new IllegalArgumentException("Number cannot be negative: " + number);
 		}
-		if (which != 0) {
-			result[resultIndex++] = (byte) (working >> 4);
+		int length = 1;
+		for (int rest = number / 10; rest > 0; rest /= 10) {
+			length++;
 		}
-		if (resultIndex != result.length) {
-			// may not happen but let's be careful out there
-			result = Arrays.copyOf(result, resultIndex);
+		length = Math.max(length, numDigits);
+		if (outputOffset < 0 || outputLength - outputOffset < length) {
+			throw new IllegalArgumentException("Output buffer of length " + outputLength + " at offset "
+					+ outputOffset + " does not have room for " + length + " digits");
 		}
-		return result;
+		return length;
+	}
+
+	/**
+	 * Decode base-32 string. I didn't want to add a dependency to Apache Codec just for this decode method. See
+	 * {@link Base32Codec} to decode into a buffer without allocating. Exposed for testing.
+	 */
+	static byte[] decodeBase32(String str) {
+		return Base32Codec.decode(str);
+	}
+
+	/**
+	 * Decode hexadecimal string method. I didn't want to add a dependency to Apache Codec just for this decode method.
+	 * See {@link HexCodec} to decode into a buffer without allocating. Exposed for testing.
+	 */
+	static byte[] decodeHex(String str) {
+		return HexCodec.decode(str);
 	}
 }
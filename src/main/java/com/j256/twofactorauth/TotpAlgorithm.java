@@ -0,0 +1,86 @@
+package com.j256.twofactorauth;
+
+/**
+ * HMAC algorithms that can be used to generate the numbers. RFC 6238 allows HMAC-SHA1, HMAC-SHA256, and HMAC-SHA512.
+ * SHA1 is the default and the only one that some older authenticator applications support. Each algorithm has its own
+ * pure Java engine which caches the key midstates. See {@link TotpKey#TotpKey(byte[], TotpAlgorithm)}.
+ *
+ * @author graywatson
+ */
+public enum TotpAlgorithm {
+
+	/** HMAC-SHA1 which is the default */
+	SHA1("HmacSHA1", "SHA1", HmacSha1.HASH_LENGTH) {
+		@Override
+		PreparedHmac prepare(byte[] key) {
+			return new HmacSha1(key);
+		}
+	},
+	/** HMAC-SHA256 */
+	SHA256("HmacSHA256", "SHA256", HmacSha256.HASH_LENGTH) {
+		@Override
+		PreparedHmac prepare(byte[] key) {
+			return new HmacSha256(key);
+		}
+	},
+	/** HMAC-SHA512 */
+	SHA512("HmacSHA512", "SHA512", HmacSha512.HASH_LENGTH) {
+		@Override
+		PreparedHmac prepare(byte[] key) {
+			return new HmacSha512(key);
+		}
+	};
+
+	private static final TotpAlgorithm[] ALGORITHMS = values();
+	/** number of slots returned by {@link #macSlot(String)} */
+	static final int NUM_MAC_SLOTS = ALGORITHMS.length + 1;
+
+	private final String macAlgorithm;
+	private final String otpAuthName;
+	private final int hashLength;
+
+	private TotpAlgorithm(String macAlgorithm, String otpAuthName, int hashLength) {
+		this.macAlgorithm = macAlgorithm;
+		this.otpAuthName = otpAuthName;
+		this.hashLength = hashLength;
+	}
+
+	/**
+	 * Return the JCE name of the algorithm that is passed to {@link MacSource#acquire(String)}.
+	 */
+	public String getMacAlgorithm() {
+		return macAlgorithm;
+	}
+
+	/**
+	 * Return the name of the algorithm in the algorithm parameter of the otpauth URL.
+	 */
+	public String getOtpAuthName() {
+		return otpAuthName;
+	}
+
+	/**
+	 * Return the length of the hash in bytes.
+	 */
+	public int getHashLength() {
+		return hashLength;
+	}
+
+	/**
+	 * Return the slot for the JCE name of an algorithm which is the ordinal of the matching algorithm or the last slot
+	 * for any other name. Used by the {@link MacSource} implementations to keep the instances of each algorithm apart.
+	 */
+	static int macSlot(String macAlgorithm) {
+		for (TotpAlgorithm algorithm : ALGORITHMS) {
+			if (algorithm.macAlgorithm.equals(macAlgorithm)) {
+				return algorithm.ordinal();
+			}
+		}
+		return ALGORITHMS.length;
+	}
+
+	/**
+	 * Calculate the midstates for the key.
+	 */
+	abstract PreparedHmac prepare(byte[] key);
+}
@@ -0,0 +1,217 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Validates many numbers in one call. The time-step window is calculated once for the whole batch instead of once per
+ * number and large batches can optionally be split across the threads of an {@link ExecutorService}. The results are
+ * returned as a {@link BitSet} where bit i is set if the i-th number was valid.
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class TotpBatchVerifier {
+
+	/** default number of entries in a batch before it is split across the executor */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1024;
+
+	private final ExecutorService executor;
+	private final int parallelThreshold;
+
+	/**
+	 * Create a verifier which validates the entries in the calling thread.
+	 */
+	public TotpBatchVerifier() {
+		this(null, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Create a verifier which splits batches of at least {@link #DEFAULT_PARALLEL_THRESHOLD} entries across the
+	 * executor.
+	 */
+	public TotpBatchVerifier(ExecutorService executor) {
+		this(executor, DEFAULT_PARALLEL_THRESHOLD);
+	}
+
+	/**
+	 * Create a verifier which splits batches of at least parallelThreshold entries into chunks of that size which are
+	 * validated by the executor.
+	 */
+	public TotpBatchVerifier(ExecutorService executor, int parallelThreshold) {
+		if (parallelThreshold <= 0) {
+			throw new IllegalArgumentException("Parallel threshold must be positive: " + parallelThreshold);
+		}
+		this.executor = executor;
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * Validate the numbers against the prepared keys using the current time and the default time-step and number of
+	 * digits.
+	 *
+	 * @param keys
+	 *            Prepared keys of the users.
+	 * @param authNumbers
+	 *            Numbers provided by the users in the same order as the keys.
+	 * @param windowMillis
+	 *            Number of milliseconds that they are allowed to be off and still match. See
+	 *            {@link TimeBasedOneTimePasswordUtil#validateCurrentNumber(String, int, long)}.
+	 * @return Set with bit i set if authNumbers[i] was valid for keys[i].
+	 */
+	public BitSet validate(TotpKey[] keys, int[] authNumbers, long windowMillis) throws GeneralSecurityException {
+		return validate(keys, authNumbers, windowMillis, TimeBasedOneTimePasswordUtil.currentTimeMillis(),
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #validate(TotpKey[], int[], long)} except exposes other parameters.
+	 */
+	public BitSet validate(final TotpKey[] keys, final int[] authNumbers, long windowMillis, long timeMillis,
+			int timeStepSeconds, final int numDigits) throws GeneralSecurityException {
+		checkLengths(keys.length, authNumbers.length);
+		return validate(keys.length, new EntryValidator() {
+			@Override
+			public boolean validate(int index, long startValue, long currentValue, long endValue)
+					throws GeneralSecurityException {
+				return keys[index].validateValues(authNumbers[index], startValue, currentValue, endValue, numDigits);
+			}
+		}, windowMillis, timeMillis, timeStepSeconds);
+	}
+
+	/**
+	 * Similar to {@link #validate(TotpKey[], int[], long, long, int, int)} but with secret strings encoded in base-32.
+	 * The prepared keys are taken from the {@link TotpKeyCache} if one was set with
+	 * {@link TimeBasedOneTimePasswordUtil#setKeyCache(TotpKeyCache)}.
+	 */
+	public BitSet validateBase32(final String[] base32Secrets, final int[] authNumbers, long windowMillis,
+			long timeMillis, int timeStepSeconds, final int numDigits) throws GeneralSecurityException {
+		checkLengths(base32Secrets.length, authNumbers.length);
+		return validate(base32Secrets.length, new EntryValidator() {
+			@Override
+			public boolean validate(int index, long startValue, long currentValue, long endValue)
+					throws GeneralSecurityException {
+				TotpKey key = TimeBasedOneTimePasswordUtil.base32Key(base32Secrets[index]);
+				return TimeBasedOneTimePasswordUtil.validateValues(key.getKey(), key.getHmac(), authNumbers[index],
+						startValue, currentValue, endValue, numDigits);
+			}
+		}, windowMillis, timeMillis, timeStepSeconds);
+	}
+
+	/**
+	 * Similar to {@link #validateBase32(String[], int[], long, long, int, int)} but with hexadecimal secrets.
+	 */
+	public BitSet validateHex(final String[] hexSecrets, final int[] authNumbers, long windowMillis, long timeMillis,
+			int timeStepSeconds, final int numDigits) throws GeneralSecurityException {
+		checkLengths(hexSecrets.length, authNumbers.length);
+		return validate(hexSecrets.length, new EntryValidator() {
+			@Override
+			public boolean validate(int index, long startValue, long currentValue, long endValue)
+					throws GeneralSecurityException {
+				TotpKey key = TimeBasedOneTimePasswordUtil.hexKey(hexSecrets[index]);
+				return TimeBasedOneTimePasswordUtil.validateValues(key.getKey(), key.getHmac(), authNumbers[index],
+						startValue, currentValue, endValue, numDigits);
+			}
+		}, windowMillis, timeMillis, timeStepSeconds);
+	}
+
+	private BitSet validate(int numEntries, final EntryValidator validator, long windowMillis, long timeMillis,
+			int timeStepSeconds) throws GeneralSecurityException {
+		// the window is calculated once for the whole batch
+		final long currentValue = TimeBasedOneTimePasswordUtil.generateValue(timeMillis, timeStepSeconds);
+		final long startValue;
+		final long endValue;
+		if (windowMillis <= 0) {
+			startValue = currentValue;
+			endValue = currentValue;
+		} else {
+			startValue = TimeBasedOneTimePasswordUtil.generateValue(timeMillis - windowMillis, timeStepSeconds);
+			endValue = TimeBasedOneTimePasswordUtil.generateValue(timeMillis + windowMillis, timeStepSeconds);
+		}
+
+		final BitSet results = new BitSet(numEntries);
+		if (executor == null || numEntries < parallelThreshold) {
+			for (int i = 0; i < numEntries; i++) {
+				if (validator.validate(i, startValue, currentValue, endValue)) {
+					results.set(i);
+				}
+			}
+			return results;
+		}
+
+		// each chunk writes to its own part of the array and we build the set after they are all done
+		final boolean[] valid = new boolean[numEntries];
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int start = 0; start < numEntries; start += parallelThreshold) {
+			final int chunkStart = start;
+			final int chunkEnd = Math.min(numEntries, start + parallelThreshold);
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws GeneralSecurityException {
+					for (int i = chunkStart; i < chunkEnd; i++) {
+						valid[i] = validator.validate(i, startValue, currentValue, endValue);
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			cancelAll(futures);
+			throw new IllegalStateException("Interrupted while waiting for the batch to be validated", ie);
+		} catch (ExecutionException ee) {
+			cancelAll(futures);
+			Throwable cause = ee.getCause();
+			if (cause instanceof GeneralSecurityException) {
+				throw (GeneralSecurityException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new IllegalStateException("Problems validating the batch", cause);
+			}
+		}
+		for (int i = 0; i < numEntries; i++) {
+			if (valid[i]) {
+				results.set(i);
+			}
+		}
+		return results;
+	}
+
+	private static void cancelAll(List<Future<Void>> futures) {
+		for (Future<Void> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	private static void checkLengths(int numSecrets, int numNumbers) {
+		if (numSecrets != numNumbers) {
+			throw new IllegalArgumentException(
+					"Number of secrets " + numSecrets + " does not match number of auth-numbers " + numNumbers);
+		}
+	}
+
+	/**
+	 * Validates a single entry of the batch.
+	 */
+	private static interface EntryValidator {
+		public boolean validate(int index, long startValue, long currentValue, long endValue)
+				throws GeneralSecurityException;
+	}
+}
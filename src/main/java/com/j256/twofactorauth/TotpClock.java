@@ -0,0 +1,22 @@
+package com.j256.twofactorauth;
+
+/**
+ * Source of the current time used by the methods that generate or validate the current number. Set with
+ * {@link TimeBasedOneTimePasswordUtil#setClock(TotpClock)}. The default is the {@link SystemTotpClock}. Use
+ * {@link TickingTotpClock} to avoid reading the system clock on every call or your own implementation to control the
+ * time in tests.
+ *
+ * @author graywatson
+ */
+public interface TotpClock {
+
+	/**
+	 * Return the current time in milliseconds. Used when the validation window needs to be calculated.
+	 */
+	public long currentTimeMillis();
+
+	/**
+	 * Return the current time-step which is the number of time-steps of this many seconds since the epoch.
+	 */
+	public long currentTimeStep(int timeStepSeconds);
+}
@@ -0,0 +1,359 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Prepared secret key which can be created once per user and then used to generate and validate numbers over and over.
+ * The static methods in {@link TimeBasedOneTimePasswordUtil} decode the secret string and compute the HMAC key
+ * schedule on every call. This class does that work once in the constructor and keeps the precomputed HMAC midstates
+ * so each number only costs two compressions. The HMAC algorithm is SHA1 unless another {@link TotpAlgorithm} is
+ * specified.
+ *
+ * <p>
+ * This class is immutable and can be shared between threads.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class TotpKey {
+
+	private final byte[] key;
+	private final PreparedHmac hmac;
+
+	/**
+	 * Construct a key from the raw secret bytes which uses HMAC-SHA1. The bytes are copied.
+	 */
+	public TotpKey(byte[] key) {
+		this(key, TotpAlgorithm.SHA1);
+	}
+
+	/**
+	 * Construct a key from the raw secret bytes which uses the HMAC algorithm from the algorithm argument instead of
+	 * HMAC-SHA1. The bytes are copied.
+	 */
+	public TotpKey(byte[] key, TotpAlgorithm algorithm) {
+		this.key = key.clone();
+		this.hmac = algorithm.prepare(this.key);
+	}
+
+	/**
+	 * Construct a key which uses the bytes without copying them. The HMAC may be null in which case the algorithm is
+	 * SHA1 and the midstates are calculated on each call. Used by {@link TimeBasedOneTimePasswordUtil} and
+	 * {@link TotpKeyCache}.
+	 */
+	TotpKey(byte[] key, PreparedHmac hmac) {
+		this.key = key;
+		this.hmac = hmac;
+	}
+
+	/**
+	 * Create a key from a secret string encoded using base-32.
+	 */
+	public static TotpKey fromBase32(String base32Secret) {
+		return new TotpKey(TimeBasedOneTimePasswordUtil.decodeBase32(base32Secret));
+	}
+
+	/**
+	 * Create a key from a secret string encoded using base-32 which uses the HMAC algorithm from the algorithm argument
+	 * instead of HMAC-SHA1.
+	 */
+	public static TotpKey fromBase32(String base32Secret, TotpAlgorithm algorithm) {
+		return new TotpKey(TimeBasedOneTimePasswordUtil.decodeBase32(base32Secret), algorithm);
+	}
+
+	/**
+	 * Create a key from a secret string encoded in hexadecimal.
+	 */
+	public static TotpKey fromHex(String hexSecret) {
+		return new TotpKey(TimeBasedOneTimePasswordUtil.decodeHex(hexSecret));
+	}
+
+	/**
+	 * Create a key from a secret string encoded in hexadecimal which uses the HMAC algorithm from the algorithm
+	 * argument instead of HMAC-SHA1.
+	 */
+	public static TotpKey fromHex(String hexSecret, TotpAlgorithm algorithm) {
+		return new TotpKey(TimeBasedOneTimePasswordUtil.decodeHex(hexSecret), algorithm);
+	}
+
+	/**
+	 * Return the HMAC algorithm of this key.
+	 */
+	public TotpAlgorithm getAlgorithm() {
+		if (hmac == null) {
+			return TotpAlgorithm.SHA1;
+		} else {
+			return hmac.getAlgorithm();
+		}
+	}
+
+	/**
+	 * Validate a given number using this key. See
+	 * {@link TimeBasedOneTimePasswordUtil#validateCurrentNumber(String, int, long)}.
+	 *
+	 * @param authNumber
+	 *            Time based number provided by the user from their authenticator application.
+	 * @param windowMillis
+	 *            Number of milliseconds that they are allowed to be off and still match. This checks before and after
+	 *            the current time to account for clock variance. Set to 0 for no window.
+	 * @return True if the authNumber matched the calculated number within the specified window.
+	 */
+	public boolean validateCurrentNumber(int authNumber, long windowMillis) throws GeneralSecurityException {
+		return validateCurrentNumber(authNumber, windowMillis, TimeBasedOneTimePasswordUtil.currentTimeMillis(),
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(int, long)} except exposes other parameters.
+	 *
+	 * @param authNumber
+	 *            Time based number provided by the user from their authenticator application.
+	 * @param windowMillis
+	 *            Number of milliseconds that they are allowed to be off and still match. This checks before and after
+	 *            the current time to account for clock variance. Set to 0 for no window.
+	 * @param timeMillis
+	 *            Time in milliseconds.
+	 * @param timeStepSeconds
+	 *            Time step in seconds. The default value is 30 seconds here. See
+	 *            {@link TimeBasedOneTimePasswordUtil#DEFAULT_TIME_STEP_SECONDS}.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @return True if the authNumber matched the calculated number within the specified window.
+	 */
+	public boolean validateCurrentNumber(int authNumber, long windowMillis, long timeMillis, int timeStepSeconds,
+			int numDigits) throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.validateCurrentNumber(key, hmac, authNumber, windowMillis, timeMillis,
+				timeStepSeconds, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(int, long, long, int, int)} except with separate windows in the past and
+	 * the future. See
+	 * {@link TimeBasedOneTimePasswordUtil#validateCurrentNumber(String, int, long, long, long, int, int)}.
+	 *
+	 * @param authNumber
+	 *            Time based number provided by the user from their authenticator application.
+	 * @param pastWindowMillis
+	 *            Number of milliseconds before the current time that they are allowed to be off and still match.
+	 * @param futureWindowMillis
+	 *            Number of milliseconds after the current time that they are allowed to be off and still match.
+	 * @param timeMillis
+	 *            Time in milliseconds.
+	 * @param timeStepSeconds
+	 *            Time step in seconds. See {@link TimeBasedOneTimePasswordUtil#DEFAULT_TIME_STEP_SECONDS}.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @return True if the authNumber matched the calculated number within the specified windows.
+	 */
+	public boolean validateCurrentNumber(int authNumber, long pastWindowMillis, long futureWindowMillis,
+			long timeMillis, int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		return (TimeBasedOneTimePasswordUtil.findMatchingValue(key, hmac, authNumber, pastWindowMillis,
+				futureWindowMillis, timeMillis, timeStepSeconds,
+				numDigits) != TimeBasedOneTimePasswordUtil.NO_MATCHING_VALUE);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(int, long)} but the code is the characters that the user typed. See
+	 * {@link TimeBasedOneTimePasswordUtil#validateCurrentNumber(String, CharSequence, long)}.
+	 */
+	public boolean validateCurrentNumber(CharSequence authCode, long windowMillis) throws GeneralSecurityException {
+		return validateCurrentNumber(authCode, windowMillis, TimeBasedOneTimePasswordUtil.currentTimeMillis(),
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(int, long, long, int, int)} but the code is the characters that the user
+	 * typed. The code must be 1 to numDigits digits, any other characters cause it to not match.
+	 */
+	public boolean validateCurrentNumber(CharSequence authCode, long windowMillis, long timeMillis,
+			int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		int authNumber = TimeBasedOneTimePasswordUtil.parseCode(authCode, numDigits);
+		if (authNumber == TimeBasedOneTimePasswordUtil.INVALID_CODE) {
+			return false;
+		}
+		return validateCurrentNumber(authNumber, windowMillis, timeMillis, timeStepSeconds, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(CharSequence, long)} but the code is ASCII bytes such as from a request
+	 * body.
+	 */
+	public boolean validateCurrentNumber(byte[] authCode, int codeOffset, int codeLength, long windowMillis)
+			throws GeneralSecurityException {
+		return validateCurrentNumber(authCode, codeOffset, codeLength, windowMillis,
+				TimeBasedOneTimePasswordUtil.currentTimeMillis(),
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(CharSequence, long, long, int, int)} but the code is ASCII bytes such as
+	 * from a request body.
+	 */
+	public boolean validateCurrentNumber(byte[] authCode, int codeOffset, int codeLength, long windowMillis,
+			long timeMillis, int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		int authNumber = TimeBasedOneTimePasswordUtil.parseCode(authCode, codeOffset, codeLength, numDigits);
+		if (authNumber == TimeBasedOneTimePasswordUtil.INVALID_CODE) {
+			return false;
+		}
+		return validateCurrentNumber(authNumber, windowMillis, timeMillis, timeStepSeconds, numDigits);
+	}
+
+	/**
+	 * Return the prepared HMAC. Exposed for {@link TimeBasedOneTimePasswordUtil}.
+	 */
+	PreparedHmac getHmac() {
+		return hmac;
+	}
+
+	/**
+	 * Return the secret key bytes. This must not be modified.
+	 */
+	byte[] getKey() {
+		return key;
+	}
+
+	/**
+	 * Return the time-step value that the number matched within the window or
+	 * {@link TimeBasedOneTimePasswordUtil#NO_MATCHING_VALUE} if none. Exposed for {@link UsedCodeRegistry}.
+	 */
+	long findMatchingValue(int authNumber, long windowMillis, long timeMillis, int timeStepSeconds, int numDigits)
+			throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.findMatchingValue(key, hmac, authNumber, windowMillis, timeMillis,
+				timeStepSeconds, numDigits);
+	}
+
+	/**
+	 * Validate the number against the time-step values from start to end inclusive. Exposed for
+	 * {@link TotpBatchVerifier}.
+	 */
+	boolean validateValues(int authNumber, long startValue, long currentValue, long endValue, int numDigits)
+			throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.validateValues(key, hmac, authNumber, startValue, currentValue, endValue,
+				numDigits);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumber(int, long)} but returns the number of time-steps from the current one
+	 * that the number matched. See {@link TimeBasedOneTimePasswordUtil#validateCurrentNumberOffset(String, int, long)}.
+	 *
+	 * @return The offset in time-steps of the matching number or {@link TimeBasedOneTimePasswordUtil#NO_MATCH_OFFSET}
+	 *         if it did not match.
+	 */
+	public int validateCurrentNumberOffset(int authNumber, long windowMillis) throws GeneralSecurityException {
+		return validateCurrentNumberOffset(authNumber, windowMillis,
+				TimeBasedOneTimePasswordUtil.currentTimeMillis(),
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #validateCurrentNumberOffset(int, long)} except exposes other parameters.
+	 *
+	 * @return The offset in time-steps of the matching number or {@link TimeBasedOneTimePasswordUtil#NO_MATCH_OFFSET}
+	 *         if it did not match.
+	 */
+	public int validateCurrentNumberOffset(int authNumber, long windowMillis, long timeMillis, int timeStepSeconds,
+			int numDigits) throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.findMatchingOffset(key, hmac, authNumber, windowMillis, timeMillis,
+				timeStepSeconds, numDigits);
+	}
+
+	/**
+	 * Return the current number to be checked. This can be compared against user input.
+	 */
+	public int generateCurrentNumber() throws GeneralSecurityException {
+		return generateCurrentNumber(TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #generateCurrentNumber()} but you specify the number of digits.
+	 */
+	public int generateCurrentNumber(int numDigits) throws GeneralSecurityException {
+		long value =
+				TimeBasedOneTimePasswordUtil.currentTimeStep(TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS);
+		return TimeBasedOneTimePasswordUtil.generateNumberFromKeyValue(key, hmac, value, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #generateCurrentNumber()} but returns a string with possible leading zeros.
+	 */
+	public String generateCurrentNumberString() throws GeneralSecurityException {
+		return generateCurrentNumberString(TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Similar to {@link #generateCurrentNumberString()} but you specify the number of digits.
+	 */
+	public String generateCurrentNumberString(int numDigits) throws GeneralSecurityException {
+		return TimeBasedOneTimePasswordUtil.zeroPrepend(generateCurrentNumber(numDigits), numDigits);
+	}
+
+	/**
+	 * Similar to {@link #generateCurrentNumberString()} but writes the digits into the output buffer instead of
+	 * creating a string. See {@link TimeBasedOneTimePasswordUtil#formatNumber(int, int, char[], int)}.
+	 *
+	 * @return The number of characters written.
+	 */
+	public int generateCurrentNumber(char[] output, int outputOffset) throws GeneralSecurityException {
+		int numDigits = TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH;
+		return TimeBasedOneTimePasswordUtil.formatNumber(generateCurrentNumber(numDigits), numDigits, output,
+				outputOffset);
+	}
+
+	/**
+	 * Similar to {@link #generateCurrentNumber(char[], int)} but writes ASCII bytes.
+	 */
+	public int generateCurrentNumber(byte[] output, int outputOffset) throws GeneralSecurityException {
+		int numDigits = TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH;
+		return TimeBasedOneTimePasswordUtil.formatNumber(generateCurrentNumber(numDigits), numDigits, output,
+				outputOffset);
+	}
+
+	/**
+	 * Generate the number for a specific time. Mostly for testing.
+	 *
+	 * @param timeMillis
+	 *            Time in milliseconds.
+	 * @param timeStepSeconds
+	 *            Time step in seconds. See {@link TimeBasedOneTimePasswordUtil#DEFAULT_TIME_STEP_SECONDS}.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @return A number which should match the user's authenticator application output.
+	 */
+	public int generateNumber(long timeMillis, int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		long value = TimeBasedOneTimePasswordUtil.generateValue(timeMillis, timeStepSeconds);
+		return TimeBasedOneTimePasswordUtil.generateNumberFromKeyValue(key, hmac, value, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #generateNumber(long, int, int)} but returns a string with possible leading zeros.
+	 */
+	public String generateNumberString(long timeMillis, int timeStepSeconds, int numDigits)
+			throws GeneralSecurityException {
+		int number = generateNumber(timeMillis, timeStepSeconds, numDigits);
+		return TimeBasedOneTimePasswordUtil.zeroPrepend(number, numDigits);
+	}
+
+	/**
+	 * Similar to {@link #generateNumberString(long, int, int)} but writes the digits into the output buffer instead of
+	 * creating a string.
+	 *
+	 * @return The number of characters written.
+	 */
+	public int generateNumber(long timeMillis, int timeStepSeconds, int numDigits, char[] output, int outputOffset)
+			throws GeneralSecurityException {
+		int number = generateNumber(timeMillis, timeStepSeconds, numDigits);
+		return TimeBasedOneTimePasswordUtil.formatNumber(number, numDigits, output, outputOffset);
+	}
+
+	/**
+	 * Similar to {@link #generateNumber(long, int, int, char[], int)} but writes ASCII bytes.
+	 */
+	public int generateNumber(long timeMillis, int timeStepSeconds, int numDigits, byte[] output, int outputOffset)
+			throws GeneralSecurityException {
+		int number = generateNumber(timeMillis, timeStepSeconds, numDigits);
+		return TimeBasedOneTimePasswordUtil.formatNumber(number, numDigits, output, outputOffset);
+	}
+}
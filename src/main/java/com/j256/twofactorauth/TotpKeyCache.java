@@ -0,0 +1,231 @@
+package com.j256.twofactorauth;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of secret strings to prepared {@link TotpKey}s. Set it with
+ * {@link TimeBasedOneTimePasswordUtil#setKeyCache(TotpKeyCache)} and the static methods that take secret strings get
+ * most of the benefit of prepared keys without changing the calls. Without it, every call decodes the secret and
+ * calculates the HMAC midstates again.
+ *
+ * <p>
+ * The secrets are spread across a number of segments each with its own lock. Each segment is a {@link LinkedHashMap} in
+ * access order so the least recently used secret is evicted once the segment is full. Base-32 and hexadecimal secrets
+ * are cached separately for each {@link TotpAlgorithm}, each with the maximum size. Secrets that do not decode are not
+ * cached.
+ * </p>
+ *
+ * <p>
+ * WARNING: This keeps the secrets in memory for as long as they are in the cache.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class TotpKeyCache {
+
+	/** default maximum number of secrets of each encoding and algorithm in the cache */
+	public static final int DEFAULT_MAX_SIZE = 10000;
+	/** default number of lock segments */
+	public static final int DEFAULT_NUM_SEGMENTS = 16;
+
+	/** segments indexed by the algorithm ordinal */
+	private final Segment[][] base32Segments;
+	private final Segment[][] hexSegments;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	public TotpKeyCache() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_NUM_SEGMENTS);
+	}
+
+	public TotpKeyCache(int maxSize) {
+		this(maxSize, DEFAULT_NUM_SEGMENTS);
+	}
+
+	/**
+	 * @param maxSize
+	 *            Maximum number of secrets of each encoding and algorithm in the cache. This is divided between the
+	 *            segments.
+	 * @param numSegments
+	 *            Number of lock segments.
+	 */
+	public TotpKeyCache(int maxSize, int numSegments) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Max size must be positive: " + maxSize);
+		}
+		if (numSegments <= 0) {
+			throw new IllegalArgumentException("Number of segments must be positive: " + numSegments);
+		}
+		numSegments = Math.min(numSegments, maxSize);
+		int numAlgorithms = TotpAlgorithm.values().length;
+		this.base32Segments = new Segment[numAlgorithms][];
+		this.hexSegments = new Segment[numAlgorithms][];
+		for (int i = 0; i < numAlgorithms; i++) {
+			this.base32Segments[i] = createSegments(maxSize, numSegments);
+			this.hexSegments[i] = createSegments(maxSize, numSegments);
+		}
+	}
+
+	/**
+	 * Return the prepared HMAC-SHA1 key for the secret string encoded using base-32, decoding it on a miss.
+	 */
+	public TotpKey getBase32(String base32Secret) {
+		return getBase32(base32Secret, TotpAlgorithm.SHA1);
+	}
+
+	/**
+	 * Return the prepared key for the secret string encoded using base-32 and the algorithm, decoding it on a miss.
+	 */
+	public TotpKey getBase32(String base32Secret, TotpAlgorithm algorithm) {
+		Segment segment = segmentFor(base32Segments[algorithm.ordinal()], base32Secret);
+		TotpKey key = segment.get(base32Secret);
+		if (key == null) {
+			// decode outside of the lock, two threads might both do it but the result is the same
+			byte[] bytes = TimeBasedOneTimePasswordUtil.decodeBase32(base32Secret);
+			key = new TotpKey(bytes, algorithm.prepare(bytes));
+			segment.put(base32Secret, key);
+		}
+		return key;
+	}
+
+	/**
+	 * Return the prepared HMAC-SHA1 key for the secret string encoded in hexadecimal, decoding it on a miss.
+	 */
+	public TotpKey getHex(String hexSecret) {
+		return getHex(hexSecret, TotpAlgorithm.SHA1);
+	}
+
+	/**
+	 * Return the prepared key for the secret string encoded in hexadecimal and the algorithm, decoding it on a miss.
+	 */
+	public TotpKey getHex(String hexSecret, TotpAlgorithm algorithm) {
+		Segment segment = segmentFor(hexSegments[algorithm.ordinal()], hexSecret);
+		TotpKey key = segment.get(hexSecret);
+		if (key == null) {
+			byte[] bytes = TimeBasedOneTimePasswordUtil.decodeHex(hexSecret);
+			key = new TotpKey(bytes, algorithm.prepare(bytes));
+			segment.put(hexSecret, key);
+		}
+		return key;
+	}
+
+	/**
+	 * Remove all of the secrets from the cache. The counters are not reset.
+	 */
+	public void clear() {
+		clear(base32Segments);
+		clear(hexSegments);
+	}
+
+	/**
+	 * Return the number of secrets in the cache.
+	 */
+	public int size() {
+		return size(base32Segments) + size(hexSegments);
+	}
+
+	/**
+	 * Return the number of lookups that found the secret in the cache.
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Return the number of lookups that had to decode the secret.
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Return the number of secrets that have been evicted because the cache was full.
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	private Segment[] createSegments(int maxSize, int numSegments) {
+		Segment[] segments = new Segment[numSegments];
+		for (int i = 0; i < numSegments; i++) {
+			// spread the remainder over the first segments
+			segments[i] = new Segment(maxSize / numSegments + (i < maxSize % numSegments ? 1 : 0));
+		}
+		return segments;
+	}
+
+	private static Segment segmentFor(Segment[] segments, String secret) {
+		int hash = secret.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[(hash & Integer.MAX_VALUE) % segments.length];
+	}
+
+	private static void clear(Segment[][] algorithmSegments) {
+		for (Segment[] segments : algorithmSegments) {
+			for (Segment segment : segments) {
+				synchronized (segment) {
+					segment.clear();
+				}
+			}
+		}
+	}
+
+	private static int size(Segment[][] algorithmSegments) {
+		int size = 0;
+		for (Segment[] segments : algorithmSegments) {
+			for (Segment segment : segments) {
+				synchronized (segment) {
+					size += segment.size();
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * LRU map of secrets. All access is synchronized on the segment.
+	 */
+	private class Segment extends LinkedHashMap<String, TotpKey> {
+
+		private static final long serialVersionUID = -3467140385788614409L;
+
+		private final int maxSize;
+
+		public Segment(int maxSize) {
+			super(16, 0.75F, true);
+			this.maxSize = maxSize;
+		}
+
+		public synchronized TotpKey get(String secret) {
+			TotpKey key = super.get(secret);
+			if (key == null) {
+				missCount.incrementAndGet();
+			} else {
+				hitCount.incrementAndGet();
+			}
+			return key;
+		}
+
+		@Override
+		public synchronized TotpKey put(String secret, TotpKey key) {
+			return super.put(secret, key);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, TotpKey> eldest) {
+			if (size() > maxSize) {
+				evictionCount.incrementAndGet();
+				return true;
+			} else {
+				return false;
+			}
+		}
+	}
+}
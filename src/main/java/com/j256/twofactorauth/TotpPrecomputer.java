@@ -0,0 +1,292 @@
+package com.j256.twofactorauth;
+
+import java.io.Closeable;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opt-in service which calculates the numbers for a set of prepared keys ahead of time. Shortly before each time-step
+ * boundary, a background task calculates the numbers of every key for the next time-step and stores them in an int
+ * array so validating a number during a burst of logins is an array compare instead of an HMAC. The numbers for the
+ * previous, current, and next time-steps are kept so the usual window of one time-step on either side never needs an
+ * HMAC. Within the lead time before a boundary the time-step after the next one is added so the table has already
+ * rolled forward when the boundary passes. Time-steps in the window that have not been calculated fall back to
+ * calculating the number.
+ *
+ * <p>
+ * The keys are identified by their index in the array that is passed to the constructor. Call {@link #start()} to
+ * calculate the initial numbers and schedule the task and {@link #close()} to stop it. The current time comes from the
+ * clock set with {@link TimeBasedOneTimePasswordUtil#setClock(TotpClock)}.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class TotpPrecomputer implements Closeable {
+
+	/** default number of milliseconds before the time-step boundary that the next numbers are calculated */
+	public static final long DEFAULT_LEAD_MILLIS = 2000;
+
+	/** number of time-steps on either side of the current one whose numbers are kept */
+	private static final int NUM_SIDE_STEPS = 1;
+
+	private final TotpKey[] keys;
+	private final int timeStepSeconds;
+	private final long timeStepMillis;
+	private final int numDigits;
+	private final long leadMillis;
+	private final ScheduledExecutorService executor;
+	private final boolean ownExecutor;
+	private final AtomicLong precomputedCount = new AtomicLong();
+	private final AtomicLong precomputedMissCount = new AtomicLong();
+	private final AtomicLong calculatedCount = new AtomicLong();
+	private volatile StepNumbers stepNumbers;
+	private volatile ScheduledFuture<?> future;
+	private volatile boolean closed;
+
+	/**
+	 * Create a precomputer for the keys with the default time-step, number of digits, and lead time which runs on its
+	 * own daemon thread.
+	 */
+	public TotpPrecomputer(TotpKey[] keys) {
+		this(keys, TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS,
+				TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH, DEFAULT_LEAD_MILLIS, null);
+	}
+
+	/**
+	 * @param keys
+	 *            Prepared keys whose numbers are calculated. The array is copied.
+	 * @param timeStepSeconds
+	 *            Time step in seconds. See {@link TimeBasedOneTimePasswordUtil#DEFAULT_TIME_STEP_SECONDS}.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @param leadMillis
+	 *            Number of milliseconds before each time-step boundary that the next numbers are calculated. This
+	 *            should be longer than it takes to calculate the numbers for all of the keys.
+	 * @param executor
+	 *            Executor that the task is scheduled on or null to create one with a single daemon thread which is
+	 *            shutdown by {@link #close()}.
+	 */
+	public TotpPrecomputer(TotpKey[] keys, int timeStepSeconds, int numDigits, long leadMillis,
+			ScheduledExecutorService executor) {
+		if (timeStepSeconds <= 0) {
+			throw new IllegalArgumentException("Time step seconds must be positive: " + timeStepSeconds);
+		}
+		this.timeStepMillis = timeStepSeconds * 1000L;
+		if (leadMillis < 0 || leadMillis >= timeStepMillis) {
+			throw new IllegalArgumentException("Lead millis must be between 0 and the time-step: " + leadMillis);
+		}
+		this.keys = keys.clone();
+		this.timeStepSeconds = timeStepSeconds;
+		this.numDigits = numDigits;
+		this.leadMillis = leadMillis;
+		if (executor == null) {
+			this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, TotpPrecomputer.class.getSimpleName());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.ownExecutor = true;
+		} else {
+			this.executor = executor;
+			this.ownExecutor = false;
+		}
+	}
+
+	/**
+	 * Calculate the numbers for the current time and schedule the task that calculates the next numbers before each
+	 * time-step boundary.
+	 */
+	public void start() throws GeneralSecurityException {
+		refresh(TimeBasedOneTimePasswordUtil.currentTimeMillis());
+		scheduleNext();
+	}
+
+	/**
+	 * Calculate the numbers for the time-step of the time and the time-steps on either side of it. If the time is within
+	 * the lead time of the next boundary then the numbers for the time-step after the next one are also calculated.
+	 * Numbers that have already been calculated are reused. This is called by the background task but can also be
+	 * called directly.
+	 */
+	public void refresh(long timeMillis) throws GeneralSecurityException {
+		long currentStep = TimeBasedOneTimePasswordUtil.generateValue(timeMillis, timeStepSeconds);
+		long firstStep = currentStep - NUM_SIDE_STEPS;
+		long lastStep =
+				TimeBasedOneTimePasswordUtil.generateValue(timeMillis + leadMillis, timeStepSeconds) + NUM_SIDE_STEPS;
+		int numSteps = (int) (lastStep - firstStep + 1);
+		StepNumbers existing = stepNumbers;
+		int[][] numbers = new int[numSteps][];
+		for (int i = 0; i < numSteps; i++) {
+			long step = firstStep + i;
+			if (existing != null && existing.contains(step)) {
+				numbers[i] = existing.numbers[(int) (step - existing.firstStep)];
+			} else {
+				numbers[i] = new int[keys.length];
+				for (int keyIndex = 0; keyIndex < keys.length; keyIndex++) {
+					TotpKey key = keys[keyIndex];
+					numbers[i][keyIndex] = TimeBasedOneTimePasswordUtil.generateNumberFromKeyValue(key.getKey(),
+							key.getHmac(), step, numDigits);
+				}
+			}
+		}
+		stepNumbers = new StepNumbers(firstStep, numbers);
+	}
+
+	/**
+	 * Validate the number for the key at the index using the current time. See
+	 * {@link #validateCurrentNumber(int, int, long, long)}.
+	 */
+	public boolean validateCurrentNumber(int keyIndex, int authNumber, long windowMillis)
+			throws GeneralSecurityException {
+		return validateCurrentNumber(keyIndex, authNumber, windowMillis,
+				TimeBasedOneTimePasswordUtil.currentTimeMillis());
+	}
+
+	/**
+	 * Validate the number for the key at the index using the precalculated numbers for the time-steps in the window
+	 * when possible.
+	 *
+	 * @param keyIndex
+	 *            Index of the key in the array passed to the constructor.
+	 * @param authNumber
+	 *            Time based number provided by the user from their authenticator application.
+	 * @param windowMillis
+	 *            Number of milliseconds that they are allowed to be off and still match.
+	 * @param timeMillis
+	 *            Time in milliseconds.
+	 * @return True if the authNumber matched the number within the specified window.
+	 */
+	public boolean validateCurrentNumber(int keyIndex, int authNumber, long windowMillis, long timeMillis)
+			throws GeneralSecurityException {
+		if (!TimeBasedOneTimePasswordUtil.isPossibleNumber(authNumber, numDigits)) {
+			return false;
+		}
+		long startValue;
+		long endValue;
+		if (windowMillis <= 0) {
+			startValue = TimeBasedOneTimePasswordUtil.generateValue(timeMillis, timeStepSeconds);
+			endValue = startValue;
+		} else {
+			startValue = TimeBasedOneTimePasswordUtil.generateValue(timeMillis - windowMillis, timeStepSeconds);
+			endValue = TimeBasedOneTimePasswordUtil.generateValue(timeMillis + windowMillis, timeStepSeconds);
+		}
+
+		// compare against the numbers that we have first
+		StepNumbers current = stepNumbers;
+		boolean missing = false;
+		for (long value = startValue; value <= endValue; value++) {
+			if (current != null && current.contains(value)) {
+				if (current.numbers[(int) (value - current.firstStep)][keyIndex] == authNumber) {
+					precomputedCount.incrementAndGet();
+					return true;
+				}
+			} else {
+				missing = true;
+			}
+		}
+		if (!missing) {
+			precomputedMissCount.incrementAndGet();
+			return false;
+		}
+
+		calculatedCount.incrementAndGet();
+		TotpKey key = keys[keyIndex];
+		for (long value = startValue; value <= endValue; value++) {
+			if ((current == null || !current.contains(value)) && TimeBasedOneTimePasswordUtil
+					.generateNumberFromKeyValue(key.getKey(), key.getHmac(), value, numDigits) == authNumber) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the number of validations that matched one of the precalculated numbers.
+	 */
+	public long getPrecomputedCount() {
+		return precomputedCount.get();
+	}
+
+	/**
+	 * Return the number of validations that did not match but were answered with only the precalculated numbers because
+	 * all of the time-steps in the window had been calculated. Malformed numbers are not counted.
+	 */
+	public long getPrecomputedMissCount() {
+		return precomputedMissCount.get();
+	}
+
+	/**
+	 * Return the number of validations that had to calculate numbers for time-steps that were not precalculated.
+	 */
+	public long getCalculatedCount() {
+		return calculatedCount.get();
+	}
+
+	/**
+	 * Stop the background task. If the executor was created by this class then it is shut down.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		ScheduledFuture<?> current = future;
+		if (current != null) {
+			current.cancel(false);
+		}
+		if (ownExecutor) {
+			executor.shutdownNow();
+		}
+	}
+
+	private void scheduleNext() {
+		if (closed) {
+			return;
+		}
+		long now = TimeBasedOneTimePasswordUtil.currentTimeMillis();
+		long nextBoundary = (now / timeStepMillis + 1) * timeStepMillis;
+		long delay = nextBoundary - leadMillis - now;
+		if (delay <= 0) {
+			// we are already inside of the lead so the next numbers have been calculated
+			delay += timeStepMillis;
+		}
+		future = executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh(TimeBasedOneTimePasswordUtil.currentTimeMillis());
+				} catch (GeneralSecurityException gse) {
+					// keep the numbers that we have, validation will calculate the missing ones
+				} finally {
+					scheduleNext();
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Numbers of all of the keys for a run of time-steps.
+	 */
+	private static class StepNumbers {
+		final long firstStep;
+		final int[][] numbers;
+
+		public StepNumbers(long firstStep, int[][] numbers) {
+			this.firstStep = firstStep;
+			this.numbers = numbers;
+		}
+
+		boolean contains(long step) {
+			return (step >= firstStep && step < firstStep + numbers.length);
+		}
+	}
+}
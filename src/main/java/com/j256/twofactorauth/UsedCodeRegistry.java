@@ -0,0 +1,120 @@
+package com.j256.twofactorauth;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * In-memory replay protection. A number is valid for the whole time-step (and longer with a window) so someone who sees
+ * the number can use it again. This registry remembers the last time-step accepted for each user and rejects any number
+ * from the same or an earlier time-step.
+ *
+ * <p>
+ * The users are spread across a number of stripes each with its own lock. Each stripe is an open-addressing hash table
+ * of user-ids with the time-steps stored as primitive longs so there is no boxing. Once a recorded time-step is older
+ * than the retention, a number from that step could no longer be accepted anyway so the entry is evicted. Each
+ * time-step that is recorded also sweeps a couple of slots of its stripe so the old entries are removed a little at a
+ * time and memory is bounded by the number of users that logged in recently.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author graywatson
+ */
+public class UsedCodeRegistry {
+
+	/** default number of lock stripes */
+	public static final int DEFAULT_NUM_STRIPES = 64;
+	/** default number of time-steps that entries are kept which must cover the validation window, 5 minutes */
+	public static final int DEFAULT_RETENTION_STEPS = 10;
+
+	private final UserStepTable table;
+
+	public UsedCodeRegistry() {
+		this(DEFAULT_NUM_STRIPES, DEFAULT_RETENTION_STEPS);
+	}
+
+	/**
+	 * @param numStripes
+	 *            Number of lock stripes which is rounded up to a power of 2.
+	 * @param retentionSteps
+	 *            Number of time-steps that a recorded step is kept. This must be at least the number of time-steps in
+	 *            the past that your validation window covers.
+	 */
+	public UsedCodeRegistry(int numStripes, int retentionSteps) {
+		this.table = new UserStepTable(numStripes, retentionSteps);
+	}
+
+	/**
+	 * Validate the number with the key using the current time and the default time-step and number of digits and then
+	 * record the matching time-step for the user. See {@link #validateCurrentNumber(String, TotpKey, int, long, long,
+	 * int, int)}.
+	 */
+	public boolean validateCurrentNumber(String userId, TotpKey key, int authNumber, long windowMillis)
+			throws GeneralSecurityException {
+		return validateCurrentNumber(userId, key, authNumber, windowMillis,
+				TimeBasedOneTimePasswordUtil.currentTimeMillis(),
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+	}
+
+	/**
+	 * Validate the number with the key and then record the matching time-step for the user.
+	 *
+	 * @param userId
+	 *            Id of the user that the key belongs to.
+	 * @param key
+	 *            Prepared secret key of the user.
+	 * @param authNumber
+	 *            Time based number provided by the user from their authenticator application.
+	 * @param windowMillis
+	 *            Number of milliseconds that they are allowed to be off and still match.
+	 * @param timeMillis
+	 *            Time in milliseconds.
+	 * @param timeStepSeconds
+	 *            Time step in seconds. See {@link TimeBasedOneTimePasswordUtil#DEFAULT_TIME_STEP_SECONDS}.
+	 * @param numDigits
+	 *            The number of digits of the OTP.
+	 * @return True if the number matched and its time-step is after the last one accepted for the user, false if it did
+	 *         not match or it was a replay.
+	 */
+	public boolean validateCurrentNumber(String userId, TotpKey key, int authNumber, long windowMillis,
+			long timeMillis, int timeStepSeconds, int numDigits) throws GeneralSecurityException {
+		long value = key.findMatchingValue(authNumber, windowMillis, timeMillis, timeStepSeconds, numDigits);
+		if (value == TimeBasedOneTimePasswordUtil.NO_MATCHING_VALUE) {
+			return false;
+		}
+		return markUsed(userId, value);
+	}
+
+	/**
+	 * Record that a number from the time-step has been accepted for the user.
+	 *
+	 * @return True if the time-step is after the last one recorded for the user and it has been recorded, false if it
+	 *         is the same or earlier which means that the number should be rejected.
+	 */
+	public boolean markUsed(String userId, long timeStep) {
+		return table.advanceStep(userId, timeStep);
+	}
+
+	/**
+	 * Return the last time-step recorded for the user or -1 if none.
+	 */
+	public long getLastUsedStep(String userId) {
+		return table.get(userId, -1);
+	}
+
+	/**
+	 * Sweep out all of the entries which are older than the retention from the current time-step. This happens
+	 * automatically as time-steps are recorded but can also be called from a scheduled task.
+	 */
+	public void sweep(long currentTimeStep) {
+		table.sweep(currentTimeStep);
+	}
+
+	/**
+	 * Return the number of users with recorded time-steps.
+	 */
+	public int size() {
+		return table.size();
+	}
+}
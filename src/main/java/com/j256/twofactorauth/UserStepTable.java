@@ -0,0 +1,274 @@
+package com.j256.twofactorauth;
+
+/**
+ * Map of user-id to a primitive long value along with the time-step when it was last written. The users are spread
+ * across a number of stripes each with its own lock. Each stripe is an open-addressing hash table with the values and
+ * time-steps stored in long arrays so there is no boxing. Each write to a stripe also checks the next
+ * {@link #SWEEP_SLOTS_PER_WRITE} slots of its table and removes the entries that have not been written within the
+ * retention so the memory is bounded by the number of users seen recently without any write paying for a pass over the
+ * whole stripe. Used by {@link UsedCodeRegistry} and {@link DriftTrackingValidator}.
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author graywatson
+ */
+final class UserStepTable {
+
+	/** number of slots that are checked for old entries on each write which must be more than one to keep up */
+	static final int SWEEP_SLOTS_PER_WRITE = 4;
+	private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+	private final Stripe[] stripes;
+	private final int stripeMask;
+	private final long retentionSteps;
+
+	/**
+	 * @param numStripes
+	 *            Number of lock stripes which is rounded up to a power of 2.
+	 * @param retentionSteps
+	 *            Number of time-steps that an entry is kept after it was last written.
+	 */
+	UserStepTable(int numStripes, int retentionSteps) {
+		if (numStripes <= 0) {
+			throw new IllegalArgumentException("Number of stripes must be positive: " + numStripes);
+		}
+		if (retentionSteps <= 0) {
+			throw new IllegalArgumentException("Retention steps must be positive: " + retentionSteps);
+		}
+		int size = 1;
+		while (size < numStripes) {
+			size <<= 1;
+		}
+		// the low bits of the hash pick the stripe so the table slots use the bits above them
+		int slotShift = Integer.numberOfTrailingZeros(size);
+		this.stripes = new Stripe[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new Stripe(slotShift);
+		}
+		this.stripeMask = size - 1;
+		this.retentionSteps = retentionSteps;
+	}
+
+	/**
+	 * Return the value for the user or the default if none.
+	 */
+	long get(String userId, long defaultValue) {
+		int hash = hash(userId);
+		Stripe stripe = stripes[hash & stripeMask];
+		synchronized (stripe) {
+			int index = stripe.findIndex(userId, hash);
+			if (index < 0) {
+				return defaultValue;
+			} else {
+				return stripe.values[index];
+			}
+		}
+	}
+
+	/**
+	 * Set the value for the user at the time-step.
+	 */
+	void put(String userId, long value, long timeStep) {
+		int hash = hash(userId);
+		Stripe stripe = stripes[hash & stripeMask];
+		synchronized (stripe) {
+			stripe.sweepSlots(timeStep - retentionSteps, SWEEP_SLOTS_PER_WRITE);
+			int index = stripe.findIndex(userId, hash);
+			if (index >= 0) {
+				stripe.values[index] = value;
+				stripe.steps[index] = timeStep;
+			} else {
+				stripe.insert(userId, hash, index, value, timeStep);
+			}
+		}
+	}
+
+	/**
+	 * Set the value for the user to the time-step if it is after the value already there.
+	 *
+	 * @return True if the value was set or false if the existing value is the same or after the time-step.
+	 */
+	boolean advanceStep(String userId, long timeStep) {
+		int hash = hash(userId);
+		Stripe stripe = stripes[hash & stripeMask];
+		synchronized (stripe) {
+			stripe.sweepSlots(timeStep - retentionSteps, SWEEP_SLOTS_PER_WRITE);
+			int index = stripe.findIndex(userId, hash);
+			if (index >= 0) {
+				if (timeStep <= stripe.values[index]) {
+					return false;
+				}
+				stripe.values[index] = timeStep;
+				stripe.steps[index] = timeStep;
+			} else {
+				stripe.insert(userId, hash, index, timeStep, timeStep);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Sweep out all of the entries which were last written before the retention from the current time-step.
+	 */
+	void sweep(long currentTimeStep) {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.sweep(currentTimeStep - retentionSteps);
+			}
+		}
+	}
+
+	/**
+	 * Return the number of users in the table.
+	 */
+	int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+
+	private static int hash(String userId) {
+		int hash = userId.hashCode();
+		// spread the bits since we use the low ones for the stripe and the ones above them for the table
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Open-addressing hash table with linear probing. All access is synchronized on the stripe.
+	 */
+	private static class Stripe {
+
+		private final int slotShift;
+		String[] userIds = new String[INITIAL_STRIPE_CAPACITY];
+		long[] values = new long[INITIAL_STRIPE_CAPACITY];
+		long[] steps = new long[INITIAL_STRIPE_CAPACITY];
+		int size;
+		int sweepIndex;
+
+		Stripe(int slotShift) {
+			this.slotShift = slotShift;
+		}
+
+		/**
+		 * Return the index of the user or -(insertion-index + 1) if not found.
+		 */
+		int findIndex(String userId, int hash) {
+			int mask = userIds.length - 1;
+			int index = (hash >>> slotShift) & mask;
+			while (true) {
+				String existing = userIds[index];
+				if (existing == null) {
+					return -index - 1;
+				}
+				if (existing.equals(userId)) {
+					return index;
+				}
+				index = (index + 1) & mask;
+			}
+		}
+
+		/**
+		 * Insert the user using the negative result from {@link #findIndex(String, int)}.
+		 */
+		void insert(String userId, int hash, int notFoundIndex, long value, long timeStep) {
+			if ((size + 1) * 4 > userIds.length * 3) {
+				resize(userIds.length * 2, Long.MIN_VALUE);
+				notFoundIndex = findIndex(userId, hash);
+			}
+			int index = -notFoundIndex - 1;
+			userIds[index] = userId;
+			values[index] = value;
+			steps[index] = timeStep;
+			size++;
+		}
+
+		/**
+		 * Check the next number of slots from where the last call stopped and remove the entries older than the
+		 * min-step.
+		 */
+		void sweepSlots(long minStep, int numSlots) {
+			int mask = userIds.length - 1;
+			for (int i = 0; i < numSlots && size > 0; i++) {
+				if (userIds[sweepIndex] != null && steps[sweepIndex] < minStep) {
+					// a later entry may be shifted into the slot so it is checked again
+					remove(sweepIndex);
+				} else {
+					sweepIndex = (sweepIndex + 1) & mask;
+				}
+			}
+		}
+
+		/**
+		 * Remove the entry at the index and shift back any later entries in its probe run so they can still be found.
+		 */
+		private void remove(int index) {
+			int mask = userIds.length - 1;
+			int gap = index;
+			int current = index;
+			while (true) {
+				current = (current + 1) & mask;
+				String userId = userIds[current];
+				if (userId == null) {
+					break;
+				}
+				int home = (hash(userId) >>> slotShift) & mask;
+				// the entry can move back to the gap if its home slot is not between the gap and where it is now
+				if (((current - home) & mask) >= ((current - gap) & mask)) {
+					userIds[gap] = userId;
+					values[gap] = values[current];
+					steps[gap] = steps[current];
+					gap = current;
+				}
+			}
+			userIds[gap] = null;
+			size--;
+		}
+
+		void sweep(long minStep) {
+			int remaining = 0;
+			for (int i = 0; i < userIds.length; i++) {
+				if (userIds[i] != null && steps[i] >= minStep) {
+					remaining++;
+				}
+			}
+			if (remaining == size) {
+				return;
+			}
+			int capacity = INITIAL_STRIPE_CAPACITY;
+			while (remaining * 4 > capacity * 3) {
+				capacity *= 2;
+			}
+			resize(capacity, minStep);
+		}
+
+		/**
+		 * Rebuild the table with the new capacity dropping any entries older than the min-step.
+		 */
+		private void resize(int capacity, long minStep) {
+			String[] oldUserIds = userIds;
+			long[] oldValues = values;
+			long[] oldSteps = steps;
+			userIds = new String[capacity];
+			values = new long[capacity];
+			steps = new long[capacity];
+			size = 0;
+			sweepIndex = 0;
+			for (int i = 0; i < oldUserIds.length; i++) {
+				String userId = oldUserIds[i];
+				if (userId != null && oldSteps[i] >= minStep) {
+					int index = -findIndex(userId, hash(userId)) - 1;
+					userIds[index] = userId;
+					values[index] = oldValues[i];
+					steps[index] = oldSteps[i];
+					size++;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.j256.twofactorauth;
+
+/**
+ * Order in which the time-steps in the validation window are checked. The order does not change which numbers are
+ * accepted, only how many HMACs are calculated before a valid number is found. Set with
+ * {@link TimeBasedOneTimePasswordUtil#setWindowSearchOrder(WindowSearchOrder)}.
+ *
+ * @author graywatson
+ */
+public enum WindowSearchOrder {
+
+	/**
+	 * Check from the start of the window in the past to the end of the window in the future. A valid number for the
+	 * current time-step is only found after all of the past time-steps have been calculated.
+	 */
+	LINEAR,
+	/**
+	 * Check the current time-step first and then work outwards checking the previous time-step before the next one at
+	 * each distance (0, -1, +1, -2, +2, ...). Most numbers are entered during or just after the time-step they were
+	 * generated in so this orders the time-steps by how likely they are to match and a valid login usually takes a
+	 * single HMAC. This is the default.
+	 */
+	CENTER_OUT;
+}
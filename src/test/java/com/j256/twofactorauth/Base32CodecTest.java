@@ -0,0 +1,133 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base32;
+import org.junit.Test;
+
+public class Base32CodecTest {
+
+	@Test
+	public void testDecode() throws Exception {
+		Random random = new Random();
+		Base32 base32 = new Base32();
+		byte[] output = new byte[32];
+		for (int i = 0; i < 10000; i++) {
+			byte[] bytes = new byte[random.nextInt(20) + 1];
+			random.nextBytes(bytes);
+			String encoded = base32.encodeAsString(bytes);
+			if (random.nextBoolean()) {
+				encoded = encoded.toLowerCase();
+			}
+			assertArrayEquals(bytes, Base32Codec.decode(encoded));
+
+			int length = Base32Codec.decode(encoded, output, 1);
+			assertArrayEquals(bytes, Arrays.copyOfRange(output, 1, 1 + length));
+
+			byte[] ascii = ("xx" + encoded).getBytes("US-ASCII");
+			length = Base32Codec.decode(ascii, 2, ascii.length - 2, output, 0);
+			assertArrayEquals(bytes, Arrays.copyOf(output, length));
+
+			ByteBuffer heap = ByteBuffer.wrap(ascii, 2, ascii.length - 2);
+			length = Base32Codec.decode(heap, output, 0);
+			assertArrayEquals(bytes, Arrays.copyOf(output, length));
+			assertEquals(0, heap.remaining());
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(ascii.length);
+			direct.put(ascii).flip();
+			direct.position(2);
+			length = Base32Codec.decode(direct, output, 0);
+			assertArrayEquals(bytes, Arrays.copyOf(output, length));
+			assertEquals(0, direct.remaining());
+		}
+	}
+
+	@Test
+	public void testUnpadded() {
+		// the leftover bits are written as a final byte without padding
+		assertArrayEquals(new byte[] { (byte) 0x08 }, Base32Codec.decode("B"));
+		assertArrayEquals(new byte[] { 0x66, (byte) 0x40 }, Base32Codec.decode("MZA"));
+		// but dropped with padding
+		assertArrayEquals(new byte[] { 0x66 }, Base32Codec.decode("MZ======"));
+		assertArrayEquals(new byte[] { 0x66 }, Base32Codec.decode("MZ=ignored"));
+		assertEquals(0, Base32Codec.decode("").length);
+	}
+
+	@Test
+	public void testMatchesUtil() {
+		Random random = new Random();
+		char[] alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+		byte[] output = new byte[32];
+		for (int i = 0; i < 1000; i++) {
+			char[] chars = new char[random.nextInt(40)];
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = alphabet[random.nextInt(alphabet.length)];
+			}
+			String str = new String(chars);
+			byte[] decoded = TimeBasedOneTimePasswordUtil.decodeBase32(str);
+			assertEquals(Base32Codec.maxDecodedLength(chars.length), decoded.length);
+			int length = Base32Codec.decode(str, output, 0);
+			assertArrayEquals(decoded, Arrays.copyOf(output, length));
+		}
+	}
+
+	@Test
+	public void testInvalid() {
+		String[] invalids = new String[] { "ABCDEFG1", "ABC DEFGH", "ABCDEFGHABCDEFG\u00e9", "8" };
+		for (String invalid : invalids) {
+			try {
+				Base32Codec.decode(invalid);
+				fail("should have thrown on " + invalid);
+			} catch (IllegalArgumentException iae) {
+				// expected
+			}
+		}
+		try {
+			Base32Codec.decode(new byte[] { 'A', (byte) 0xC1 }, 0, 2, new byte[2], 0);
+			fail("should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testEncode() throws Exception {
+		Random random = new Random();
+		Base32 base32 = new Base32();
+		for (int i = 0; i < 1000; i++) {
+			byte[] bytes = new byte[random.nextInt(20)];
+			random.nextBytes(bytes);
+			String expected = base32.encodeAsString(bytes).replace("=", "");
+			assertEquals(expected, Base32Codec.encode(bytes));
+			assertEquals(expected.length(), Base32Codec.encodedLength(bytes.length));
+
+			char[] chars = new char[expected.length() + 2];
+			assertEquals(expected.length(), Base32Codec.encode(bytes, 0, bytes.length, chars, 2));
+			assertEquals(expected, new String(chars, 2, expected.length()));
+
+			byte[] ascii = new byte[expected.length() + 1];
+			assertEquals(expected.length(), Base32Codec.encode(bytes, 0, bytes.length, ascii, 1));
+			assertEquals(expected, new String(ascii, 1, expected.length(), "US-ASCII"));
+
+			if (bytes.length % 5 == 0) {
+				assertArrayEquals(bytes, Base32Codec.decode(expected));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEncodeOutputTooSmall() {
+		Base32Codec.encode(new byte[10], 0, 10, new char[15], 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutputTooSmall() {
+		Base32Codec.decode("NY4A5CPJZ46LXZCP", new byte[10], 1);
+	}
+}
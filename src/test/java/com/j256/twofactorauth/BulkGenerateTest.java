@@ -0,0 +1,74 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BulkGenerateTest {
+
+	@Test
+	public void testMatchesSingleKey() throws GeneralSecurityException {
+		Random random = new Random();
+		int numKeys = 43;
+		byte[][] keys = new byte[numKeys][];
+		TotpKey[] totpKeys = new TotpKey[numKeys];
+		for (int i = 0; i < numKeys; i++) {
+			// some of the keys are longer than the block length
+			keys[i] = new byte[1 + random.nextInt(100)];
+			random.nextBytes(keys[i]);
+			totpKeys[i] = new TotpKey(keys[i]);
+		}
+		int[] output = new int[numKeys];
+		int[] preparedOutput = new int[numKeys];
+		for (int i = 0; i < 100; i++) {
+			long value = random.nextLong();
+			int numDigits = 1 + random.nextInt(8);
+			TimeBasedOneTimePasswordUtil.generateNumbers(keys, value, numDigits, output);
+			TimeBasedOneTimePasswordUtil.generateNumbers(totpKeys, value, numDigits, preparedOutput);
+			for (int j = 0; j < numKeys; j++) {
+				int expected = TimeBasedOneTimePasswordUtil.generateNumberFromKeyValue(keys[j], null, value, numDigits);
+				assertEquals(expected, output[j]);
+				assertEquals(expected, preparedOutput[j]);
+			}
+		}
+	}
+
+	@Test
+	public void testKnownCode() throws GeneralSecurityException {
+		byte[][] keys = new byte[][] { TimeBasedOneTimePasswordUtil.decodeBase32("NY4A5CPJZ46LXZCP") };
+		int[] output = new int[1];
+		TimeBasedOneTimePasswordUtil.generateNumbers(keys,
+				7451000L / 1000 / TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, 6, output);
+		assertEquals(325893, output[0]);
+	}
+
+	@Test
+	public void testMacSource() throws GeneralSecurityException {
+		TimeBasedOneTimePasswordUtil.setMacSource(new ThreadLocalMacSource());
+		try {
+			byte[] key = TimeBasedOneTimePasswordUtil.decodeBase32("NY4A5CPJZ46LXZCP");
+			int[] output = new int[2];
+			long value = 7451000L / 1000 / TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+			TimeBasedOneTimePasswordUtil.generateNumbers(new byte[][] { key, key }, value, 6, output);
+			assertEquals(325893, output[1]);
+			TimeBasedOneTimePasswordUtil.generateNumbers(new TotpKey[] { new TotpKey(key) }, value, 6, output);
+			assertEquals(325893, output[0]);
+		} finally {
+			TimeBasedOneTimePasswordUtil.setMacSource(null);
+		}
+	}
+
+	@Test
+	public void testOutputTooSmall() throws GeneralSecurityException {
+		try {
+			TimeBasedOneTimePasswordUtil.generateNumbers(new byte[2][], 1, 6, new int[1]);
+			fail("Should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+}
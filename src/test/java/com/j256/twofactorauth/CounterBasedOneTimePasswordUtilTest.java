@@ -0,0 +1,114 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+
+import org.junit.Test;
+
+public class CounterBasedOneTimePasswordUtilTest {
+
+	// ascii "12345678901234567890" from appendix D of RFC 4226
+	private static final String HEX_SECRET = "3132333435363738393031323334353637383930";
+	private static final int[] RFC_NUMBERS =
+			new int[] { 755224, 287082, 359152, 969429, 338314, 254676, 287922, 162583, 399871, 520489 };
+
+	@Test
+	public void testRfc4226Vectors() throws GeneralSecurityException {
+		TotpKey key = TotpKey.fromHex(HEX_SECRET);
+		String base32Secret = Base32Codec.encode(key.getKey());
+		for (int counter = 0; counter < RFC_NUMBERS.length; counter++) {
+			assertEquals(RFC_NUMBERS[counter], CounterBasedOneTimePasswordUtil.generateNumberHex(HEX_SECRET, counter,
+					6));
+			assertEquals(RFC_NUMBERS[counter], CounterBasedOneTimePasswordUtil.generateNumber(base32Secret, counter));
+			assertEquals(RFC_NUMBERS[counter], CounterBasedOneTimePasswordUtil.generateNumber(key, counter, 6));
+		}
+		assertEquals("755224", CounterBasedOneTimePasswordUtil.generateNumberString(base32Secret, 0, 6));
+		assertEquals("24", CounterBasedOneTimePasswordUtil.generateNumberString(base32Secret, 0, 2));
+	}
+
+	@Test
+	public void testValidate() throws GeneralSecurityException {
+		TotpKey key = TotpKey.fromHex(HEX_SECRET);
+		assertEquals(1, CounterBasedOneTimePasswordUtil.validateNumberHex(HEX_SECRET, RFC_NUMBERS[0], 0));
+		assertEquals(5, CounterBasedOneTimePasswordUtil.validateNumber(key, RFC_NUMBERS[4], 0, 4, 6));
+		// past the look-ahead
+		assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+				CounterBasedOneTimePasswordUtil.validateNumber(key, RFC_NUMBERS[5], 0, 4, 6));
+		// already used
+		assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+				CounterBasedOneTimePasswordUtil.validateNumber(key, RFC_NUMBERS[2], 3, 4, 6));
+		assertEquals(10, CounterBasedOneTimePasswordUtil.validateNumber(Base32Codec.encode(key.getKey()),
+				RFC_NUMBERS[9], 1));
+		assertEquals(4, CounterBasedOneTimePasswordUtil.validateNumber(key, "969429", 0, 10, 6));
+		assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+				CounterBasedOneTimePasswordUtil.validateNumber(key, "96942x", 0, 10, 6));
+		assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+				CounterBasedOneTimePasswordUtil.validateNumber(key, 1000000, 0, 10, 6));
+	}
+
+	@Test
+	public void testResynchronize() throws GeneralSecurityException {
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP", TotpAlgorithm.SHA256);
+		long tokenCounter = 777;
+		int first = CounterBasedOneTimePasswordUtil.generateNumber(key, tokenCounter, 6);
+		int second = CounterBasedOneTimePasswordUtil.generateNumber(key, tokenCounter + 1, 6);
+		assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+				CounterBasedOneTimePasswordUtil.validateNumber(key, first, 10, 10, 6));
+		assertEquals(tokenCounter + 2,
+				CounterBasedOneTimePasswordUtil.resynchronize(key, first, second, 10, 1000, 6));
+		// the first number is at the last counter searched
+		assertEquals(tokenCounter + 2,
+				CounterBasedOneTimePasswordUtil.resynchronize(key, first, second, 10, 768, 6));
+		assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+				CounterBasedOneTimePasswordUtil.resynchronize(key, first, second, 10, 767, 6));
+		// out of order
+		assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+				CounterBasedOneTimePasswordUtil.resynchronize(key, second, first, 10, 1000, 6));
+		assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+				CounterBasedOneTimePasswordUtil.resynchronize(key, first, -1, 10, 1000, 6));
+
+		String base32Secret = Base32Codec.encode(TotpKey.fromHex(HEX_SECRET).getKey());
+		assertEquals(8, CounterBasedOneTimePasswordUtil.resynchronize(base32Secret, RFC_NUMBERS[6], RFC_NUMBERS[7],
+				0));
+	}
+
+	@Test
+	public void testMacSource() throws GeneralSecurityException {
+		TimeBasedOneTimePasswordUtil.setMacSource(new ThreadLocalMacSource());
+		try {
+			assertEquals(4, CounterBasedOneTimePasswordUtil.validateNumberHex(HEX_SECRET, RFC_NUMBERS[3], 0));
+			assertEquals(6, CounterBasedOneTimePasswordUtil.resynchronize(TotpKey.fromHex(HEX_SECRET),
+					RFC_NUMBERS[4], RFC_NUMBERS[5], 0, 100, 6));
+		} finally {
+			TimeBasedOneTimePasswordUtil.setMacSource(null);
+		}
+	}
+
+	@Test
+	public void testBadArguments() throws GeneralSecurityException {
+		TotpKey key = TotpKey.fromHex(HEX_SECRET);
+		try {
+			CounterBasedOneTimePasswordUtil.validateNumber(key, RFC_NUMBERS[0], -1, 10, 6);
+			fail("should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+		try {
+			CounterBasedOneTimePasswordUtil.resynchronize(key, RFC_NUMBERS[0], RFC_NUMBERS[1], 0, -1, 6);
+			fail("should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+		try {
+			CounterBasedOneTimePasswordUtil.validateNumber(key, RFC_NUMBERS[0], Long.MAX_VALUE - 5, 10, 6);
+			fail("should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+		// the last counter returned is Long.MAX_VALUE
+		assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+				CounterBasedOneTimePasswordUtil.validateNumber(key, RFC_NUMBERS[0], Long.MAX_VALUE - 11, 10, 6));
+	}
+}
@@ -0,0 +1,166 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.GeneralSecurityException;
+
+import org.junit.Test;
+
+public class DriftTrackingValidatorTest {
+
+	private static final int STEP = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+	private static final int STEP_MILLIS = STEP * 1000;
+
+	@Test
+	public void testPredictedStep() throws GeneralSecurityException {
+		DriftTrackingValidator validator = new DriftTrackingValidator();
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		assertEquals(TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET, validator.getDrift("user"));
+
+		// the user's clock is one step ahead
+		assertEquals(1, validator.validateCurrentNumberOffset("user", key, 948323, 90000, 7455000, STEP, 6));
+		assertEquals(1, validator.getDrift("user"));
+		assertEquals(1, validator.getWidenedMatchCount());
+		assertEquals(1, validator.getTrackedUserCount());
+
+		// the next login is predicted at the same offset and only takes a single HMAC
+		long hmacCount = validator.getHmacCount();
+		int number = key.generateNumber(7455000L + 10 * STEP_MILLIS + STEP_MILLIS, STEP, 6);
+		assertEquals(1,
+				validator.validateCurrentNumberOffset("user", key, number, 90000, 7455000L + 10 * STEP_MILLIS, STEP, 6));
+		assertEquals(1, validator.getPredictedMatchCount());
+		assertEquals(hmacCount + 1, validator.getHmacCount());
+	}
+
+	@Test
+	public void testMalformedKeepsDrift() throws GeneralSecurityException {
+		DriftTrackingValidator validator = new DriftTrackingValidator();
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		assertEquals(1, validator.validateCurrentNumberOffset("user", key, 948323, 90000, 7455000, STEP, 6));
+		long hmacCount = validator.getHmacCount();
+		assertEquals(TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET,
+				validator.validateCurrentNumberOffset("user", key, 12345678, 90000, 7455000, STEP, 6));
+		assertEquals(TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET,
+				validator.validateCurrentNumberOffset("user", key, -1, 90000, 7455000, STEP, 6));
+		// no HMACs and the drift is still known
+		assertEquals(hmacCount, validator.getHmacCount());
+		assertEquals(1, validator.getDrift("user"));
+		assertEquals(0, validator.getFailedCount());
+	}
+
+	@Test
+	public void testDriftChanges() throws GeneralSecurityException {
+		DriftTrackingValidator validator = new DriftTrackingValidator();
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		assertEquals(0, validator.validateCurrentNumberOffset("user", key, 325893, 90000, 7455000, STEP, 6));
+		// within the tolerance of the prediction
+		assertEquals(-1, validator.validateCurrentNumberOffset("user", key, 162123, 90000, 7455000, STEP, 6));
+		assertEquals(-1, validator.getDrift("user"));
+	}
+
+	@Test
+	public void testFailureCostAndReset() throws GeneralSecurityException {
+		DriftTrackingValidator validator = new DriftTrackingValidator(1, 4, 100);
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		long now = 7455000L;
+		int window = 3 * STEP_MILLIS;
+
+		// first failure with no drift searches the whole window of 7 steps
+		assertEquals(TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET,
+				validator.validateCurrentNumberOffset("user", key, 1, window, now, STEP, 6));
+		assertEquals(7, validator.getHmacCount());
+
+		assertEquals(0, validator.validateCurrentNumberOffset("user", key, 325893, window, now, STEP, 6));
+		// with a known drift, each consecutive failure only checks the prediction and the tolerance on either side
+		int maxHmacs = 2 * validator.getDriftToleranceSteps() + 1;
+		for (int i = 0; i < DriftTrackingValidator.MAX_PREDICTED_MISSES; i++) {
+			assertEquals(0, validator.getDrift("user"));
+			long hmacCount = validator.getHmacCount();
+			assertEquals(TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET,
+					validator.validateCurrentNumberOffset("user", key, 1, window, now, STEP, 6));
+			assertTrue(validator.getHmacCount() - hmacCount <= maxHmacs);
+		}
+		assertEquals(1 + DriftTrackingValidator.MAX_PREDICTED_MISSES, validator.getFailedCount());
+		// and then the prediction is forgotten so a jump in their clock is found on the next attempt
+		assertEquals(TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET, validator.getDrift("user"));
+
+		int number = key.generateNumber(now + 3 * STEP_MILLIS, STEP, 6);
+		assertEquals(3, validator.validateCurrentNumberOffset("user", key, number, window, now, STEP, 6));
+		// a jump outside of the tolerance is rejected while the drift is known
+		number = key.generateNumber(now, STEP, 6);
+		assertEquals(TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET,
+				validator.validateCurrentNumberOffset("user", key, number, window, now, STEP, 6));
+		validator.resetDrift("user", now / STEP_MILLIS);
+		assertEquals(0, validator.validateCurrentNumberOffset("user", key, number, window, now, STEP, 6));
+	}
+
+	@Test
+	public void testMatchClearsMisses() throws GeneralSecurityException {
+		DriftTrackingValidator validator = new DriftTrackingValidator(1, 4, 100);
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		long now = 7455000L;
+		int window = 3 * STEP_MILLIS;
+		assertEquals(-1, validator.validateCurrentNumberOffset("user", key, 162123, window, now, STEP, 6));
+		for (int i = 0; i < 10; i++) {
+			// misses below the limit followed by a match keep the prediction
+			for (int j = 1; j < DriftTrackingValidator.MAX_PREDICTED_MISSES; j++) {
+				assertEquals(TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET,
+						validator.validateCurrentNumberOffset("user", key, 1, window, now, STEP, 6));
+			}
+			assertEquals(-1, validator.getDrift("user"));
+			assertEquals(-1, validator.validateCurrentNumberOffset("user", key, 162123, window, now, STEP, 6));
+		}
+	}
+
+	@Test
+	public void testDefaultSearchesWindow() throws GeneralSecurityException {
+		DriftTrackingValidator validator = new DriftTrackingValidator();
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		long now = 7455000L;
+		int window = 3 * STEP_MILLIS;
+		// phone was 2 steps behind
+		assertEquals(-2, validator.validateCurrentNumberOffset("user", key, key.generateNumber(now - 2 * STEP_MILLIS,
+				STEP, 6), window, now, STEP, 6));
+		// and then synced its clock so the number is 2 steps from the prediction but still valid in the window
+		assertEquals(0, validator.validateCurrentNumberOffset("user", key, key.generateNumber(now, STEP, 6), window,
+				now, STEP, 6));
+		assertEquals(0, validator.getDrift("user"));
+		assertEquals(0, validator.getFailedCount());
+	}
+
+	@Test
+	public void testNoTolerance() throws GeneralSecurityException {
+		DriftTrackingValidator validator = new DriftTrackingValidator(-1, 4, 100);
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		long now = 7455000L;
+		int window = 3 * STEP_MILLIS;
+		assertEquals(3, validator.validateCurrentNumberOffset("user", key, key.generateNumber(now + 3 * STEP_MILLIS,
+				STEP, 6), window, now, STEP, 6));
+		// whole window is still searched out from the prediction
+		assertEquals(-3, validator.validateCurrentNumberOffset("user", key, key.generateNumber(now - 3 * STEP_MILLIS,
+				STEP, 6), window, now, STEP, 6));
+		assertEquals(-3, validator.getDrift("user"));
+	}
+
+	@Test
+	public void testPredictionClampedToWindow() throws GeneralSecurityException {
+		DriftTrackingValidator validator = new DriftTrackingValidator();
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		long now = 7455000L;
+		assertEquals(3, validator.validateCurrentNumberOffset("user", key, key.generateNumber(now + 3 * STEP_MILLIS,
+				STEP, 6), 3 * STEP_MILLIS, now, STEP, 6));
+		// smaller window must not accept the number from outside of it
+		assertEquals(TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET, validator.validateCurrentNumberOffset("user",
+				key, key.generateNumber(now + 3 * STEP_MILLIS, STEP, 6), STEP_MILLIS, now, STEP, 6));
+	}
+
+	@Test
+	public void testCurrentTime() throws GeneralSecurityException {
+		DriftTrackingValidator validator = new DriftTrackingValidator();
+		TotpKey key = TotpKey.fromBase32(TimeBasedOneTimePasswordUtil.generateBase32Secret());
+		assertTrue(validator.validateCurrentNumber("user", key, key.generateCurrentNumber(), 10000));
+		assertFalse(validator.validateCurrentNumber("user", key, key.generateCurrentNumber() + 1000000, 10000));
+	}
+}
@@ -0,0 +1,122 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+public class HexCodecTest {
+
+	@Test
+	public void testDecode() throws Exception {
+		Random random = new Random();
+		byte[] output = new byte[32];
+		for (int i = 0; i < 10000; i++) {
+			byte[] bytes = new byte[random.nextInt(20) + 1];
+			random.nextBytes(bytes);
+			String encoded = Hex.encodeHexString(bytes);
+			if (random.nextBoolean()) {
+				encoded = encoded.toUpperCase();
+			}
+			assertArrayEquals(bytes, HexCodec.decode(encoded));
+
+			int length = HexCodec.decode(encoded, output, 1);
+			assertArrayEquals(bytes, Arrays.copyOfRange(output, 1, 1 + length));
+
+			byte[] ascii = ("xx" + encoded).getBytes("US-ASCII");
+			length = HexCodec.decode(ascii, 2, ascii.length - 2, output, 0);
+			assertArrayEquals(bytes, Arrays.copyOf(output, length));
+
+			ByteBuffer heap = ByteBuffer.wrap(ascii, 2, ascii.length - 2);
+			length = HexCodec.decode(heap, output, 0);
+			assertArrayEquals(bytes, Arrays.copyOf(output, length));
+			assertEquals(0, heap.remaining());
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(ascii.length);
+			direct.put(ascii).flip();
+			direct.position(2);
+			length = HexCodec.decode(direct, output, 0);
+			assertArrayEquals(bytes, Arrays.copyOf(output, length));
+			assertEquals(0, direct.remaining());
+		}
+	}
+
+	@Test
+	public void testOddLength() throws Exception {
+		// the value of the odd character is the last byte
+		assertArrayEquals(new byte[] { (byte) 0xAB, 0x0C }, HexCodec.decode("ABC"));
+		assertArrayEquals(new byte[] { 0x0F }, HexCodec.decode("f"));
+		ByteBuffer direct = ByteBuffer.allocateDirect(3);
+		direct.put("ABC".getBytes("US-ASCII")).flip();
+		byte[] output = new byte[2];
+		assertEquals(2, HexCodec.decode(direct, output, 0));
+		assertArrayEquals(new byte[] { (byte) 0xAB, 0x0C }, output);
+		assertEquals(0, HexCodec.decode("").length);
+	}
+
+	@Test
+	public void testEncode() throws Exception {
+		Random random = new Random();
+		for (int i = 0; i < 1000; i++) {
+			byte[] bytes = new byte[random.nextInt(20)];
+			random.nextBytes(bytes);
+			String expected = Hex.encodeHexString(bytes).toUpperCase();
+			assertEquals(expected, HexCodec.encode(bytes));
+
+			byte[] asciiOutput = new byte[bytes.length * 2 + 1];
+			assertEquals(bytes.length * 2, HexCodec.encode(bytes, 0, bytes.length, asciiOutput, 1));
+			assertEquals(expected, new String(asciiOutput, 1, bytes.length * 2, "US-ASCII"));
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length * 2);
+			HexCodec.encode(ByteBuffer.wrap(bytes), direct);
+			assertEquals(0, direct.remaining());
+			direct.flip();
+			byte[] directBytes = new byte[direct.remaining()];
+			direct.get(directBytes);
+			assertEquals(expected, new String(directBytes, "US-ASCII"));
+
+			assertArrayEquals(bytes, HexCodec.decode(HexCodec.encode(bytes)));
+		}
+	}
+
+	@Test
+	public void testInvalid() {
+		String[] invalids = new String[] { "0G", "AB CD", "AB\u00e9", "-1" };
+		for (String invalid : invalids) {
+			try {
+				HexCodec.decode(invalid);
+				fail("should have thrown on " + invalid);
+			} catch (IllegalArgumentException iae) {
+				// expected
+			}
+		}
+		try {
+			HexCodec.decode(new byte[] { 'A', (byte) 0xC1 }, 0, 2, new byte[1], 0);
+			fail("should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeOutputTooSmall() {
+		HexCodec.decode("0123456789", new byte[5], 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEncodeOutputTooSmall() {
+		HexCodec.encode(new byte[5], 0, 5, new char[9], 0);
+	}
+
+	@Test(expected = BufferOverflowException.class)
+	public void testEncodeBufferTooSmall() {
+		HexCodec.encode(ByteBuffer.wrap(new byte[5]), ByteBuffer.allocate(9));
+	}
+}
@@ -0,0 +1,66 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class HmacSha1Test {
+
+	@Test
+	public void testMatchesJce() throws GeneralSecurityException {
+		Random random = new Random();
+		Mac mac = Mac.getInstance("HmacSHA1");
+		int[] schedule = new int[HmacSha1.SCHEDULE_LENGTH];
+		byte[] hash = new byte[HmacSha1.HASH_LENGTH];
+		// make sure we go past the block length so the long keys are hashed
+		for (int keyLength = 1; keyLength < 200; keyLength++) {
+			byte[] key = new byte[keyLength];
+			random.nextBytes(key);
+			mac.init(new SecretKeySpec(key, "HmacSHA1"));
+			HmacSha1 hmac = new HmacSha1(key);
+			for (int i = 0; i < 10; i++) {
+				long value = random.nextLong();
+				hmac.hashValue(value, schedule, hash);
+				assertArrayEquals(mac.doFinal(TimeBasedOneTimePasswordUtil.valueToBytes(value)), hash);
+			}
+		}
+	}
+
+	@Test
+	public void testDigest() throws GeneralSecurityException {
+		Random random = new Random();
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		for (int length = 0; length < 300; length++) {
+			byte[] message = new byte[length];
+			random.nextBytes(message);
+			assertArrayEquals(digest.digest(message), HmacSha1.digest(message));
+		}
+	}
+
+	@Test
+	public void testRfc6238Vectors() throws GeneralSecurityException {
+		// ascii "12345678901234567890" from appendix B of RFC 6238
+		String hexSecret = "3132333435363738393031323334353637383930";
+		testVector(hexSecret, 59L, 94287082);
+		testVector(hexSecret, 1111111109L, 7081804);
+		testVector(hexSecret, 1111111111L, 14050471);
+		testVector(hexSecret, 1234567890L, 89005924);
+		testVector(hexSecret, 2000000000L, 69279037);
+		testVector(hexSecret, 20000000000L, 65353130);
+	}
+
+	private void testVector(String hexSecret, long timeSeconds, int expected) throws GeneralSecurityException {
+		assertEquals(expected, TimeBasedOneTimePasswordUtil.generateNumberHex(hexSecret, timeSeconds * 1000,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, 8));
+		assertEquals(expected, TotpKey.fromHex(hexSecret)
+				.generateNumber(timeSeconds * 1000, TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, 8));
+	}
+}
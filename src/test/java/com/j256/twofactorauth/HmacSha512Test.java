@@ -0,0 +1,67 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class HmacSha512Test {
+
+	@Test
+	public void testMatchesJce() throws GeneralSecurityException {
+		Random random = new Random();
+		Mac mac = Mac.getInstance("HmacSHA512");
+		long[] schedule = new long[HmacSha512.SCHEDULE_LENGTH];
+		byte[] hash = new byte[HmacSha512.HASH_LENGTH];
+		// make sure we go past the block length so the long keys are hashed
+		for (int keyLength = 1; keyLength < 300; keyLength++) {
+			byte[] key = new byte[keyLength];
+			random.nextBytes(key);
+			mac.init(new SecretKeySpec(key, "HmacSHA512"));
+			HmacSha512 hmac = new HmacSha512(key);
+			for (int i = 0; i < 10; i++) {
+				long value = random.nextLong();
+				hmac.hashValue(value, schedule, hash);
+				assertArrayEquals(mac.doFinal(TimeBasedOneTimePasswordUtil.valueToBytes(value)), hash);
+			}
+		}
+	}
+
+	@Test
+	public void testDigest() throws GeneralSecurityException {
+		Random random = new Random();
+		MessageDigest digest = MessageDigest.getInstance("SHA-512");
+		for (int length = 0; length < 300; length++) {
+			byte[] message = new byte[length];
+			random.nextBytes(message);
+			assertArrayEquals(digest.digest(message), HmacSha512.digest(message));
+		}
+	}
+
+	@Test
+	public void testRfc6238Vectors() throws GeneralSecurityException {
+		// ascii "1234567890123456789012345678901234567890123456789012345678901234" from appendix B of RFC 6238
+		String hexSecret = "3132333435363738393031323334353637383930313233343536373839303132"
+				+ "3334353637383930313233343536373839303132333435363738393031323334";
+		testVector(hexSecret, 59L, 90693936);
+		testVector(hexSecret, 1111111109L, 25091201);
+		testVector(hexSecret, 1111111111L, 99943326);
+		testVector(hexSecret, 1234567890L, 93441116);
+		testVector(hexSecret, 2000000000L, 38618901);
+		testVector(hexSecret, 20000000000L, 47863826);
+	}
+
+	private void testVector(String hexSecret, long timeSeconds, int expected) throws GeneralSecurityException {
+		assertEquals(expected, TimeBasedOneTimePasswordUtil.generateNumberHex(hexSecret, timeSeconds * 1000,
+				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, 8, TotpAlgorithm.SHA512));
+		assertEquals(expected, TotpKey.fromHex(hexSecret, TotpAlgorithm.SHA512)
+				.generateNumber(timeSeconds * 1000, TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, 8));
+	}
+}
@@ -0,0 +1,114 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class HotpResynchronizerTest {
+
+	@Test
+	public void testMatchesSequential() throws GeneralSecurityException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			HotpResynchronizer resynchronizer = new HotpResynchronizer(executor, 100);
+			TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+			long tokenCounter = 4321;
+			int first = CounterBasedOneTimePasswordUtil.generateNumber(key, tokenCounter, 6);
+			int second = CounterBasedOneTimePasswordUtil.generateNumber(key, tokenCounter + 1, 6);
+			assertEquals(tokenCounter + 2, resynchronizer.resynchronize(key, first, second, 10, 10000, 6));
+			// the pair straddles the end of a chunk
+			assertEquals(tokenCounter + 2, resynchronizer.resynchronize(key, first, second, 22, 10000, 6));
+			// the first number is at the last counter searched
+			assertEquals(tokenCounter + 2, resynchronizer.resynchronize(key, first, second, 10, 4312, 6));
+			assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+					resynchronizer.resynchronize(key, first, second, 10, 4311, 6));
+			assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+					resynchronizer.resynchronize(key, second, first, 10, 10000, 6));
+			assertEquals(CounterBasedOneTimePasswordUtil.NO_MATCHING_COUNTER,
+					resynchronizer.resynchronize(key, 1000000, second, 10, 10000, 6));
+			// small ranges are searched in the calling thread
+			assertEquals(tokenCounter + 2, resynchronizer.resynchronize(key, first, second, tokenCounter, 50, 6));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testEarliest() throws GeneralSecurityException {
+		// with 1 digit the pairs match by accident every hundred or so counters
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			HotpResynchronizer resynchronizer = new HotpResynchronizer(pool, 7);
+			for (int first = 0; first < 10; first++) {
+				for (int second = 0; second < 10; second++) {
+					long expected =
+							CounterBasedOneTimePasswordUtil.resynchronize(key, first, second, 0, 2000, 1);
+					assertEquals(expected, resynchronizer.resynchronize(key, first, second, 0, 2000, 1));
+				}
+			}
+			// the chunks after the matches were skipped
+			assertTrue(resynchronizer.getSkippedChunkCount() > 0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testMacSource() throws GeneralSecurityException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		TimeBasedOneTimePasswordUtil.setMacSource(new PooledMacSource());
+		try {
+			TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP", TotpAlgorithm.SHA512);
+			int first = CounterBasedOneTimePasswordUtil.generateNumber(key, 500, 6);
+			int second = CounterBasedOneTimePasswordUtil.generateNumber(key, 501, 6);
+			assertEquals(502, new HotpResynchronizer(executor, 64).resynchronize(key, first, second, 0, 1000, 6));
+		} finally {
+			TimeBasedOneTimePasswordUtil.setMacSource(null);
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBadArguments() throws GeneralSecurityException {
+		try {
+			new HotpResynchronizer(null);
+			fail("should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			try {
+				new HotpResynchronizer(executor, 0);
+				fail("should have thrown");
+			} catch (IllegalArgumentException iae) {
+				// expected
+			}
+			try {
+				new HotpResynchronizer(executor, 10).resynchronize(TotpKey.fromBase32("NY4A5CPJZ46LXZCP"), 1, 2, -1,
+						1000, 6);
+				fail("should have thrown");
+			} catch (IllegalArgumentException iae) {
+				// expected
+			}
+			try {
+				// the end of the search would overflow
+				new HotpResynchronizer(executor, 10).resynchronize(TotpKey.fromBase32("NY4A5CPJZ46LXZCP"), 1, 2,
+						Long.MAX_VALUE - 500, 1000, 6);
+				fail("should have thrown");
+			} catch (IllegalArgumentException iae) {
+				// expected
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
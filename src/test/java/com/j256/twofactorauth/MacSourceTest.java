@@ -0,0 +1,170 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+
+import org.junit.Test;
+
+public class MacSourceTest {
+
+	@Test
+	public void testThreadLocal() throws GeneralSecurityException {
+		ThreadLocalMacSource source = new ThreadLocalMacSource();
+		Mac mac = source.acquire("HmacSHA1");
+		source.release(mac);
+		assertSame(mac, source.acquire("HmacSHA1"));
+		Mac other = source.acquire("HmacSHA256");
+		assertEquals("HmacSHA256", other.getAlgorithm());
+	}
+
+	@Test
+	public void testPooled() throws GeneralSecurityException {
+		PooledMacSource source = new PooledMacSource(2);
+		Mac mac1 = source.acquire("HmacSHA1");
+		Mac mac2 = source.acquire("HmacSHA1");
+		assertNotSame(mac1, mac2);
+		assertEquals(0, source.getPoolCount());
+		source.release(mac1);
+		source.release(mac2);
+		assertEquals(2, source.getPoolCount());
+		// pool is full so this one is dropped
+		source.release(Mac.getInstance("HmacSHA1"));
+		assertEquals(2, source.getPoolCount());
+
+		// different algorithm does not use the pooled ones
+		Mac sha256 = source.acquire("HmacSHA256");
+		assertEquals("HmacSHA256", sha256.getAlgorithm());
+		assertEquals(2, source.getPoolCount());
+
+		Mac mac = source.acquire("HmacSHA1");
+		assertEquals(1, source.getPoolCount());
+		assertEquals("HmacSHA1", mac.getAlgorithm());
+	}
+
+	@Test
+	public void testThreadLocalAlternatingAlgorithms() throws GeneralSecurityException {
+		ThreadLocalMacSource source = new ThreadLocalMacSource();
+		Mac sha1 = source.acquire("HmacSHA1");
+		Mac sha256 = source.acquire("HmacSHA256");
+		Mac sha512 = source.acquire("HmacSHA512");
+		for (int i = 0; i < 3; i++) {
+			assertSame(sha1, source.acquire("HmacSHA1"));
+			assertSame(sha256, source.acquire("HmacSHA256"));
+			assertSame(sha512, source.acquire("HmacSHA512"));
+		}
+	}
+
+	@Test
+	public void testPooledAlternatingAlgorithms() throws GeneralSecurityException {
+		PooledMacSource source = new PooledMacSource(1);
+		Mac sha1 = source.acquire("HmacSHA1");
+		source.release(sha1);
+		Mac sha256 = source.acquire("HmacSHA256");
+		source.release(sha256);
+		assertEquals(2, source.getPoolCount());
+		for (int i = 0; i < 3; i++) {
+			Mac mac = source.acquire("HmacSHA1");
+			assertSame(sha1, mac);
+			source.release(mac);
+			mac = source.acquire("HmacSHA256");
+			assertSame(sha256, mac);
+			source.release(mac);
+		}
+	}
+
+	@Test
+	public void testPooledStatic() throws GeneralSecurityException {
+		PooledMacSource source = new PooledMacSource();
+		TimeBasedOneTimePasswordUtil.setMacSource(source);
+		try {
+			assertEquals(325893, TimeBasedOneTimePasswordUtil.generateNumber("NY4A5CPJZ46LXZCP", 7451000L,
+					TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS));
+			assertEquals(1, source.getPoolCount());
+			assertEquals(325893, TimeBasedOneTimePasswordUtil.generateNumber("NY4A5CPJZ46LXZCP", 7451000L,
+					TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS));
+			assertEquals(1, source.getPoolCount());
+		} finally {
+			TimeBasedOneTimePasswordUtil.setMacSource(null);
+		}
+	}
+
+	@Test
+	public void testThreadLocalStatic() throws GeneralSecurityException {
+		TimeBasedOneTimePasswordUtil.setMacSource(new ThreadLocalMacSource());
+		try {
+			TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+			assertEquals(325893, key.generateNumber(7451000L, TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS,
+					TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH));
+			assertEquals(true, key.validateCurrentNumber(948323, 15000, 7455000,
+					TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS,
+					TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH));
+		} finally {
+			TimeBasedOneTimePasswordUtil.setMacSource(null);
+		}
+	}
+
+	@Test
+	public void testAlgorithms() throws GeneralSecurityException {
+		PooledMacSource source = new PooledMacSource();
+		// ascii "12345678901234567890123456789012" from appendix B of RFC 6238
+		TotpKey key = TotpKey.fromHex("3132333435363738393031323334353637383930313233343536373839303132",
+				TotpAlgorithm.SHA256);
+		TimeBasedOneTimePasswordUtil.setMacSource(source);
+		try {
+			assertEquals(46119246,
+					key.generateNumber(59000L, TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, 8));
+			assertEquals(1, source.getPoolCount());
+			assertEquals("HmacSHA256", source.acquire("HmacSHA256").getAlgorithm());
+		} finally {
+			TimeBasedOneTimePasswordUtil.setMacSource(null);
+		}
+	}
+
+	@Test
+	public void testPooledNoThreadScratch() throws Exception {
+		PooledMacSource source = new PooledMacSource();
+		final TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		final int[] number = new int[1];
+		final Exception[] exception = new Exception[1];
+		int createdCount = HmacScratch.getCreatedCount();
+		TimeBasedOneTimePasswordUtil.setMacSource(source);
+		try {
+			// a new thread like a virtual thread borrowing from the pool
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						number[0] = key.generateNumber(7451000L, TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS,
+								TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH);
+					} catch (Exception e) {
+						exception[0] = e;
+					}
+				}
+			});
+			thread.start();
+			thread.join();
+		} finally {
+			TimeBasedOneTimePasswordUtil.setMacSource(null);
+		}
+		assertNull(exception[0]);
+		assertEquals(325893, number[0]);
+		assertEquals(createdCount, HmacScratch.getCreatedCount());
+	}
+
+	@Test
+	public void testBadArguments() {
+		try {
+			new PooledMacSource(0);
+			fail("Should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,418 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+public class QrCodeTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	/** versions with the byte capacity at the medium level, alignment pattern positions, blocks, and ecc per block */
+	private static final int[][] VERSIONS = new int[][] { //
+			{ 1, 14, 1, 10 }, //
+			{ 2, 26, 1, 16 }, //
+			{ 5, 84, 2, 24 }, //
+			{ 7, 122, 4, 18 }, //
+			{ 10, 213, 5, 26 }, //
+			{ 15, 412, 10, 24 }, //
+			{ 20, 666, 16, 26 }, //
+			{ 40, 2331, 49, 28 }, //
+	};
+	private static final int[][] ALIGNMENT_POSITIONS = new int[][] { //
+			{}, //
+			{ 6, 18 }, //
+			{ 6, 30 }, //
+			{ 6, 22, 38 }, //
+			{ 6, 28, 50 }, //
+			{ 6, 26, 48, 70 }, //
+			{ 6, 34, 62, 90 }, //
+			{ 6, 30, 58, 86, 114, 142, 170 }, //
+	};
+	/** format information for the medium level indexed by mask from the spec */
+	private static final int[] FORMAT_INFO = new int[] { 0x5412, 0x5125, 0x5E7C, 0x5B4B, 0x45F9, 0x40CE, 0x4F97,
+			0x4AA0 };
+	private static final int[] GF_EXP = new int[512];
+	private static final int[] GF_LOG = new int[256];
+
+	static {
+		int x = 1;
+		for (int i = 0; i < 255; i++) {
+			GF_EXP[i] = x;
+			GF_LOG[x] = i;
+			x <<= 1;
+			if (x >= 256) {
+				x ^= 0x11D;
+			}
+		}
+		for (int i = 255; i < GF_EXP.length; i++) {
+			GF_EXP[i] = GF_EXP[i - 255];
+		}
+	}
+
+	@Test
+	public void testVersions() {
+		Random random = new Random();
+		for (int i = 0; i < VERSIONS.length; i++) {
+			int version = VERSIONS[i][0];
+			int capacity = VERSIONS[i][1];
+			byte[] data = new byte[capacity];
+			random.nextBytes(data);
+			QrCode code = QrCode.encode(data);
+			assertEquals(version, code.getVersion());
+			assertEquals(version * 4 + 17, code.getSize());
+			assertArrayEquals(data, decode(code, ALIGNMENT_POSITIONS[i], VERSIONS[i][2], VERSIONS[i][3]));
+			if (version < 40) {
+				assertEquals(version + 1, QrCode.encode(new byte[capacity + 1]).getVersion());
+			}
+		}
+	}
+
+	@Test
+	public void testEncodeText() {
+		String text = "otpauth://totp/user@j256.com?secret=NY4A5CPJZ46LXZCP&digits=6";
+		QrCode code = QrCode.encode(text);
+		// 62 bytes fits in version 4 which has alignment patterns at 6 and 26
+		assertEquals(4, code.getVersion());
+		assertEquals(text, new String(decode(code, new int[] { 6, 26 }, 2, 18), UTF_8));
+		// the mask depends on the data
+		boolean[] masks = new boolean[FORMAT_INFO.length];
+		int numMasks = 0;
+		for (int i = 0; i < 100; i++) {
+			int mask = readFormat(QrCode.encode(text + i));
+			if (!masks[mask]) {
+				masks[mask] = true;
+				numMasks++;
+			}
+		}
+		assertTrue(numMasks > 1);
+	}
+
+	@Test
+	public void testTooLong() {
+		try {
+			QrCode.encode(new byte[2332]);
+			fail("should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPng() throws IOException {
+		QrCode code = QrCode.encode("otpauth://totp/key?secret=NY4A5CPJZ46LXZCP&digits=6");
+		for (int dimension : new int[] { 200, 333, 1000 }) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			code.writePng(dimension, output);
+			byte[] png = output.toByteArray();
+			assertArrayEquals(png, code.toPng(dimension));
+			assertImage(code, ImageIO.read(new ByteArrayInputStream(png)), dimension);
+		}
+		// too small for a pixel per module
+		int minimum = code.getSize() + QrCode.QUIET_ZONE_MODULES * 2;
+		assertEquals(minimum, code.getImageDimension(10));
+		assertImage(code, ImageIO.read(new ByteArrayInputStream(code.toPng(10))), minimum);
+
+		// large enough for more than one image data chunk
+		byte[] data = new byte[2000];
+		new Random().nextBytes(data);
+		code = QrCode.encode(data);
+		byte[] png = code.toPng(2000);
+		assertTrue(png.length > 8192);
+		assertImage(code, ImageIO.read(new ByteArrayInputStream(png)), 2000);
+	}
+
+	@Test
+	public void testSvg() throws Exception {
+		QrCode code = QrCode.encode("otpauth://totp/key?secret=NY4A5CPJZ46LXZCP&digits=6");
+		String svg = code.toSvg(TimeBasedOneTimePasswordUtil.DEFAULT_QR_DIMENTION);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		code.writeSvg(TimeBasedOneTimePasswordUtil.DEFAULT_QR_DIMENTION, output);
+		assertEquals(svg, new String(output.toByteArray(), UTF_8));
+
+		Element root = DocumentBuilderFactory.newInstance()
+				.newDocumentBuilder()
+				.parse(new InputSource(new StringReader(svg)))
+				.getDocumentElement();
+		assertEquals("svg", root.getTagName());
+		assertEquals("200", root.getAttribute("width"));
+		assertEquals("200", root.getAttribute("height"));
+		int viewSize = code.getSize() + QrCode.QUIET_ZONE_MODULES * 2;
+		assertEquals("0 0 " + viewSize + " " + viewSize, root.getAttribute("viewBox"));
+
+		// draw the runs of the path and compare them to the modules
+		String path = ((Element) root.getElementsByTagName("path").item(0)).getAttribute("d");
+		boolean[][] drawn = new boolean[viewSize][viewSize];
+		Matcher matcher = Pattern.compile("M(\\d+),(\\d+)h(\\d+)v1h-(\\d+)z").matcher(path);
+		int end = 0;
+		while (matcher.find()) {
+			assertEquals(end, matcher.start());
+			end = matcher.end();
+			int x = Integer.parseInt(matcher.group(1));
+			int y = Integer.parseInt(matcher.group(2));
+			int length = Integer.parseInt(matcher.group(3));
+			assertEquals(length, Integer.parseInt(matcher.group(4)));
+			for (int i = 0; i < length; i++) {
+				drawn[y][x + i] = true;
+			}
+		}
+		assertEquals(path.length(), end);
+		for (int y = 0; y < viewSize; y++) {
+			for (int x = 0; x < viewSize; x++) {
+				assertEquals(code.isDark(x - QrCode.QUIET_ZONE_MODULES, y - QrCode.QUIET_ZONE_MODULES), drawn[y][x]);
+			}
+		}
+	}
+
+	/**
+	 * Decode the code with the alignment patterns and blocks from the spec for its version, checking the Reed-Solomon
+	 * codewords of each block, and return the bytes of the byte mode segment.
+	 */
+	static byte[] decode(QrCode code, int[] alignPositions, int numBlocks, int eccLength) {
+		int size = code.getSize();
+		int version = code.getVersion();
+		checkFinder(code, 0, 0);
+		checkFinder(code, size - 7, 0);
+		checkFinder(code, 0, size - 7);
+		for (int i = 8; i < size - 8; i++) {
+			assertEquals(i % 2 == 0, code.isDark(i, 6));
+			assertEquals(i % 2 == 0, code.isDark(6, i));
+		}
+		int mask = readFormat(code);
+		if (version >= 7) {
+			int bits1 = 0;
+			int bits2 = 0;
+			for (int j = 5; j >= 0; j--) {
+				for (int i = size - 9; i >= size - 11; i--) {
+					bits1 = (bits1 << 1) | (code.isDark(i, j) ? 1 : 0);
+					bits2 = (bits2 << 1) | (code.isDark(j, i) ? 1 : 0);
+				}
+			}
+			assertEquals(bits1, bits2);
+			assertEquals(version, bits1 >>> 12);
+			if (version == 7) {
+				assertEquals(0x07C94, bits1);
+			} else if (version == 40) {
+				assertEquals(0x28C69, bits1);
+			}
+		}
+
+		boolean[][] function = new boolean[size][size];
+		markFunction(function, 0, 0, 9, 9);
+		markFunction(function, size - 8, 0, 8, 9);
+		markFunction(function, 0, size - 8, 9, 8);
+		markFunction(function, 6, 0, 1, size);
+		markFunction(function, 0, 6, size, 1);
+		int last = alignPositions.length - 1;
+		for (int i = 0; i <= last; i++) {
+			for (int j = 0; j <= last; j++) {
+				// not in the corners with the finder patterns
+				if ((i != 0 || j != 0) && (i != 0 || j != last) && (i != last || j != 0)) {
+					markFunction(function, alignPositions[i] - 2, alignPositions[j] - 2, 5, 5);
+				}
+			}
+		}
+		if (version >= 7) {
+			markFunction(function, size - 11, 0, 3, 6);
+			markFunction(function, 0, size - 11, 6, 3);
+		}
+
+		// read the unmasked codewords in the zig-zag order
+		int numModules = 0;
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				if (!function[y][x]) {
+					numModules++;
+				}
+			}
+		}
+		byte[] raw = new byte[numModules / 8];
+		int bitIndex = 0;
+		for (int right = size - 1; right >= 1; right -= 2) {
+			if (right == 6) {
+				right = 5;
+			}
+			for (int vert = 0; vert < size; vert++) {
+				int y = ((((right + 1) & 2) == 0) ? size - 1 - vert : vert);
+				for (int x = right; x >= right - 1; x--) {
+					if (function[y][x] || bitIndex >= raw.length * 8) {
+						continue;
+					}
+					if (code.isDark(x, y) != isMasked(mask, x, y)) {
+						raw[bitIndex >>> 3] |= 0x80 >>> (bitIndex & 7);
+					}
+					bitIndex++;
+				}
+			}
+		}
+
+		// de-interleave the blocks
+		int numShortBlocks = numBlocks - raw.length % numBlocks;
+		int shortDataLength = raw.length / numBlocks - eccLength;
+		byte[][] blocks = new byte[numBlocks][];
+		int dataLength = 0;
+		for (int i = 0; i < numBlocks; i++) {
+			blocks[i] = new byte[shortDataLength + (i < numShortBlocks ? 0 : 1) + eccLength];
+			dataLength += blocks[i].length - eccLength;
+		}
+		int rawIndex = 0;
+		for (int i = 0; i <= shortDataLength; i++) {
+			for (int block = 0; block < numBlocks; block++) {
+				if (i < blocks[block].length - eccLength) {
+					blocks[block][i] = raw[rawIndex++];
+				}
+			}
+		}
+		for (int i = 0; i < eccLength; i++) {
+			for (byte[] block : blocks) {
+				block[block.length - eccLength + i] = raw[rawIndex++];
+			}
+		}
+		assertEquals(raw.length, rawIndex);
+
+		// the block polynomial must be zero at each root of the generator
+		byte[] data = new byte[dataLength];
+		int dataIndex = 0;
+		for (byte[] block : blocks) {
+			for (int root = 0; root < eccLength; root++) {
+				int value = 0;
+				for (byte b : block) {
+					value = gfMultiply(value, GF_EXP[root]) ^ (b & 0xFF);
+				}
+				assertEquals(0, value);
+			}
+			System.arraycopy(block, 0, data, dataIndex, block.length - eccLength);
+			dataIndex += block.length - eccLength;
+		}
+
+		// byte mode segment
+		assertEquals(4, readBits(data, 0, 4));
+		int countBits = (version <= 9 ? 8 : 16);
+		int count = readBits(data, 4, countBits);
+		byte[] result = new byte[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = (byte) readBits(data, 4 + countBits + i * 8, 8);
+		}
+		return result;
+	}
+
+	/**
+	 * Read both copies of the format information and return the mask.
+	 */
+	private static int readFormat(QrCode code) {
+		int size = code.getSize();
+		int bits1 = 0;
+		for (int i = 0; i < 6; i++) {
+			bits1 = (bits1 << 1) | (code.isDark(i, 8) ? 1 : 0);
+		}
+		bits1 = (bits1 << 1) | (code.isDark(7, 8) ? 1 : 0);
+		bits1 = (bits1 << 1) | (code.isDark(8, 8) ? 1 : 0);
+		bits1 = (bits1 << 1) | (code.isDark(8, 7) ? 1 : 0);
+		for (int j = 5; j >= 0; j--) {
+			bits1 = (bits1 << 1) | (code.isDark(8, j) ? 1 : 0);
+		}
+		int bits2 = 0;
+		for (int j = size - 1; j >= size - 7; j--) {
+			bits2 = (bits2 << 1) | (code.isDark(8, j) ? 1 : 0);
+		}
+		for (int i = size - 8; i < size; i++) {
+			bits2 = (bits2 << 1) | (code.isDark(i, 8) ? 1 : 0);
+		}
+		assertEquals(bits1, bits2);
+		assertTrue(code.isDark(8, size - 8));
+		for (int mask = 0; mask < FORMAT_INFO.length; mask++) {
+			if (FORMAT_INFO[mask] == bits1) {
+				return mask;
+			}
+		}
+		fail("unknown format information: " + Integer.toHexString(bits1));
+		return -1;
+	}
+
+	private static void checkFinder(QrCode code, int left, int top) {
+		for (int y = -1; y <= 7; y++) {
+			for (int x = -1; x <= 7; x++) {
+				int distance = Math.max(Math.abs(x - 3), Math.abs(y - 3));
+				assertEquals(distance != 2 && distance != 4, code.isDark(left + x, top + y));
+			}
+		}
+	}
+
+	private static void markFunction(boolean[][] function, int left, int top, int width, int height) {
+		for (int y = top; y < top + height; y++) {
+			for (int x = left; x < left + width; x++) {
+				function[y][x] = true;
+			}
+		}
+	}
+
+	private static boolean isMasked(int mask, int x, int y) {
+		switch (mask) {
+			case 0:
+				return (y + x) % 2 == 0;
+			case 1:
+				return y % 2 == 0;
+			case 2:
+				return x % 3 == 0;
+			case 3:
+				return (y + x) % 3 == 0;
+			case 4:
+				return (y / 2 + x / 3) % 2 == 0;
+			case 5:
+				return (y * x) % 2 + (y * x) % 3 == 0;
+			case 6:
+				return ((y * x) % 2 + (y * x) % 3) % 2 == 0;
+			default:
+				return ((y + x) % 2 + (y * x) % 3) % 2 == 0;
+		}
+	}
+
+	private static int gfMultiply(int x, int y) {
+		if (x == 0 || y == 0) {
+			return 0;
+		}
+		return GF_EXP[GF_LOG[x] + GF_LOG[y]];
+	}
+
+	private static int readBits(byte[] data, int bitOffset, int numBits) {
+		int result = 0;
+		for (int i = bitOffset; i < bitOffset + numBits; i++) {
+			result = (result << 1) | ((data[i >>> 3] >>> (7 - (i & 7))) & 1);
+		}
+		return result;
+	}
+
+	private static void assertImage(QrCode code, BufferedImage image, int dimension) {
+		assertEquals(dimension, image.getWidth());
+		assertEquals(dimension, image.getHeight());
+		int scale = dimension / (code.getSize() + QrCode.QUIET_ZONE_MODULES * 2);
+		int offset = (dimension - code.getSize() * scale) / 2;
+		for (int y = -QrCode.QUIET_ZONE_MODULES; y < code.getSize() + QrCode.QUIET_ZONE_MODULES; y++) {
+			for (int x = -QrCode.QUIET_ZONE_MODULES; x < code.getSize() + QrCode.QUIET_ZONE_MODULES; x++) {
+				// check the first and last pixels of the module
+				for (int corner = 0; corner < scale; corner += Math.max(1, scale - 1)) {
+					int rgb = image.getRGB(offset + x * scale + corner, offset + y * scale + corner) & 0xFFFFFF;
+					assertEquals(code.isDark(x, y) ? 0 : 0xFFFFFF, rgb);
+				}
+			}
+		}
+		assertEquals(0xFFFFFF, image.getRGB(dimension - 1, dimension - 1) & 0xFFFFFF);
+	}
+}
@@ -0,0 +1,163 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SecretGeneratorTest {
+
+	@Test
+	public void testBase32() {
+		SecretGenerator generator = new SecretGenerator();
+		assertEquals(SecretGenerator.DEFAULT_BASE32_LENGTH, generator.generateBase32Secret().length());
+		Set<Character> seen = new HashSet<Character>();
+		for (int numChars = 0; numChars < 40; numChars++) {
+			String secret = generator.generateBase32Secret(numChars);
+			assertEquals(numChars, secret.length());
+			for (char ch : secret.toCharArray()) {
+				assertTrue(ch + " is not base-32", (ch >= 'A' && ch <= 'Z') || (ch >= '2' && ch <= '7'));
+				seen.add(ch);
+			}
+			// make sure it decodes
+			TimeBasedOneTimePasswordUtil.decodeBase32(secret);
+		}
+		assertEquals(32, seen.size());
+	}
+
+	@Test
+	public void testBase32IntoBuffer() {
+		SecretGenerator generator = new SecretGenerator(new FixedRandom());
+		char[] chars = new char[20];
+		assertEquals(16, generator.generateBase32Secret(16, chars, 2));
+		// 0x01 repeated
+		assertEquals(Base32Codec.encode(new byte[] { 1, 1, 1, 1, 1, 1, 1, 1, 1, 1 }), new String(chars, 2, 16));
+		assertEquals(0, chars[18]);
+		assertEquals("AE", generator.generateBase32Secret(2));
+		assertEquals("AEAQC", generator.generateBase32Secret(5));
+	}
+
+	@Test
+	public void testBulk() {
+		SecretGenerator generator = new SecretGenerator();
+		String[] secrets = generator.generateBase32Secrets(1000, 16);
+		assertEquals(1000, secrets.length);
+		Set<String> unique = new HashSet<String>();
+		for (String secret : secrets) {
+			assertEquals(16, secret.length());
+			assertTrue(unique.add(secret));
+		}
+		assertEquals(0, generator.generateBase32Secrets(0, 16).length);
+	}
+
+	@Test
+	public void testHex() {
+		SecretGenerator generator = new SecretGenerator();
+		assertEquals(SecretGenerator.DEFAULT_HEX_LENGTH, generator.generateHexSecret().length());
+		for (int numChars = 0; numChars < 40; numChars++) {
+			String secret = generator.generateHexSecret(numChars);
+			assertEquals(numChars, secret.length());
+			for (char ch : secret.toCharArray()) {
+				assertTrue(ch + " is not hex", (ch >= '0' && ch <= '9') || (ch >= 'A' && ch <= 'F'));
+			}
+		}
+		generator = new SecretGenerator(new FixedRandom());
+		assertEquals("010", generator.generateHexSecret(3));
+		char[] chars = new char[5];
+		assertEquals(4, generator.generateHexSecret(4, chars, 1));
+		assertEquals("0101", new String(chars, 1, 4));
+	}
+
+	@Test
+	public void testGenerateKey() {
+		SecretGenerator generator = new SecretGenerator(new FixedRandom());
+		assertArrayEquals(new byte[] { 1, 1, 1 }, generator.generateKey(3));
+		assertFalse(new String(new SecretGenerator().generateKey(20)).equals(new String(new byte[20])));
+	}
+
+	@Test
+	public void testAlgorithm() throws Exception {
+		SecretGenerator generator = new SecretGenerator("SHA1PRNG");
+		assertEquals("SHA1PRNG", generator.getAlgorithm());
+		assertNull(generator.getProvider());
+		assertEquals(16, generator.generateBase32Secret().length());
+
+		String provider = SecureRandom.getInstance("SHA1PRNG").getProvider().getName();
+		generator = new SecretGenerator("SHA1PRNG", provider);
+		assertEquals(provider, generator.getProvider());
+		final SecretGenerator threadGenerator = generator;
+		final String[] threadSecret = new String[1];
+		// each thread gets its own random
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				threadSecret[0] = threadGenerator.generateHexSecret();
+			}
+		});
+		thread.start();
+		thread.join();
+		assertEquals(32, threadSecret[0].length());
+		assertEquals(32, generator.generateHexSecret().length());
+
+		SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+		generator = new SecretGenerator(random);
+		assertEquals("SHA1PRNG", generator.getAlgorithm());
+		assertEquals(provider, generator.getProvider());
+		assertNull(new SecretGenerator().getAlgorithm());
+	}
+
+	@Test(expected = NoSuchAlgorithmException.class)
+	public void testUnknownAlgorithm() throws Exception {
+		new SecretGenerator("NoSuchRandom");
+	}
+
+	@Test(expected = NoSuchProviderException.class)
+	public void testUnknownProvider() throws Exception {
+		new SecretGenerator("SHA1PRNG", "NoSuchProvider");
+	}
+
+	@Test
+	public void testUtilGenerator() {
+		TimeBasedOneTimePasswordUtil.setSecretGenerator(new SecretGenerator(new FixedRandom()));
+		try {
+			assertEquals("AEAQC", TimeBasedOneTimePasswordUtil.generateBase32Secret(5));
+			assertEquals("010", TimeBasedOneTimePasswordUtil.generateHexSecret(3));
+		} finally {
+			TimeBasedOneTimePasswordUtil.setSecretGenerator(null);
+		}
+		assertEquals(16, TimeBasedOneTimePasswordUtil.generateBase32Secret().length());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutputTooSmall() {
+		new SecretGenerator().generateBase32Secret(16, new char[16], 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullRandom() {
+		new SecretGenerator((SecureRandom) null);
+	}
+
+	/**
+	 * Random that always returns 0x01 bytes.
+	 */
+	private static class FixedRandom extends SecureRandom {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void nextBytes(byte[] bytes) {
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+public class SecretPoolTest {
+
+	@Test
+	public void testRefill() {
+		QueuedExecutor executor = new QueuedExecutor();
+		SecretPool pool = new SecretPool(new SecretGenerator(), SecretEncoding.BASE32, 16, 10, 5, executor);
+		try {
+			// empty so it is generated synchronously
+			assertEquals(16, pool.nextSecret().length());
+			assertEquals(1, pool.getFallbackCount());
+			assertEquals(1, executor.tasks.size());
+			// a second refill is not queued while one is pending
+			pool.nextSecret();
+			assertEquals(1, executor.tasks.size());
+
+			executor.runAll();
+			assertEquals(10, pool.getDepth());
+			assertEquals(1, pool.getRefillCount());
+
+			Set<String> secrets = new HashSet<String>();
+			for (int i = 0; i < 5; i++) {
+				assertTrue(secrets.add(pool.nextSecret()));
+			}
+			assertEquals(5, pool.getPooledCount());
+			assertEquals(5, pool.getDepth());
+			// dropped to the low water mark
+			assertEquals(1, executor.tasks.size());
+			executor.runAll();
+			assertEquals(10, pool.getDepth());
+			assertEquals(2, pool.getFallbackCount());
+		} finally {
+			pool.close();
+		}
+		assertEquals(0, pool.getDepth());
+	}
+
+	@Test
+	public void testHex() {
+		SecretPool pool = new SecretPool(new SecretGenerator(), SecretEncoding.HEX, 32, 4, 0, new QueuedExecutor());
+		try {
+			pool.fill();
+			assertEquals(4, pool.getDepth());
+			String secret = pool.nextSecret();
+			assertEquals(32, secret.length());
+			assertEquals(16, TimeBasedOneTimePasswordUtil.decodeHex(secret).length);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testBackground() throws Exception {
+		SecretPool pool = new SecretPool();
+		try {
+			pool.start();
+			while (pool.getDepth() < SecretPool.DEFAULT_POOL_SIZE) {
+				Thread.sleep(10);
+			}
+			Set<String> secrets = new HashSet<String>();
+			for (int i = 0; i < SecretPool.DEFAULT_POOL_SIZE * 2; i++) {
+				String secret = pool.nextSecret();
+				assertEquals(SecretGenerator.DEFAULT_BASE32_LENGTH, secret.length());
+				assertTrue(secrets.add(secret));
+			}
+			assertEquals(SecretPool.DEFAULT_POOL_SIZE * 2, pool.getPooledCount() + pool.getFallbackCount());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testConcurrentFills() throws Exception {
+		final SecretPool pool =
+				new SecretPool(new SecretGenerator(), SecretEncoding.BASE32, 16, 1000, 0, new QueuedExecutor());
+		try {
+			Thread[] threads = new Thread[4];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						pool.fill();
+					}
+				});
+				threads[i].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			// the fills share the room so the pool is not overfilled
+			assertEquals(1000, pool.getDepth());
+			for (int i = 0; i < 1000; i++) {
+				pool.nextSecret();
+			}
+			assertEquals(1000, pool.getPooledCount());
+			assertEquals(0, pool.getDepth());
+			pool.nextSecret();
+			assertEquals(1, pool.getFallbackCount());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testCloseDuringFill() {
+		ClosingRandom random = new ClosingRandom();
+		SecretPool pool = new SecretPool(new SecretGenerator(random), SecretEncoding.BASE32, 16, 10, 5,
+				new QueuedExecutor());
+		random.pool = pool;
+		pool.fill();
+		// the batch that was being generated when the pool closed is discarded
+		assertEquals(0, pool.getDepth());
+		pool.nextSecret();
+		assertEquals(0, pool.getPooledCount());
+		assertEquals(1, pool.getFallbackCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadLowWaterMark() {
+		new SecretPool(new SecretGenerator(), SecretEncoding.BASE32, 16, 10, 10, null);
+	}
+
+	/**
+	 * Random which closes the pool the first time that it is used like a close from another thread in the middle of a
+	 * fill.
+	 */
+	private static class ClosingRandom extends SecureRandom {
+		private static final long serialVersionUID = 1L;
+		SecretPool pool;
+
+		@Override
+		public void nextBytes(byte[] bytes) {
+			if (pool != null) {
+				SecretPool closing = pool;
+				pool = null;
+				closing.close();
+			}
+			super.nextBytes(bytes);
+		}
+	}
+
+	/**
+	 * Executor which queues the tasks until we run them.
+	 */
+	private static class QueuedExecutor implements Executor {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			while (!tasks.isEmpty()) {
+				tasks.remove(0).run();
+			}
+		}
+	}
+}
@@ -7,8 +7,15 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.security.GeneralSecurityException;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.imageio.ImageIO;
 
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Base32;
@@ -29,6 +36,186 @@ public class TimeBasedOneTimePasswordUtilTest {
 		}
 	}
 
+	@Test
+	public void testFormatNumber() {
+		char[] chars = new char[12];
+		byte[] bytes = new byte[12];
+		Random random = new Random();
+		for (int i = 0; i < 10000; i++) {
+			int num = random.nextInt(1000000);
+			assertEquals(6, TimeBasedOneTimePasswordUtil.formatNumber(num, 6, chars, 2));
+			assertEquals(String.format("%06d", num), new String(chars, 2, 6));
+			assertEquals(6, TimeBasedOneTimePasswordUtil.formatNumber(num, 6, bytes, 0));
+			assertEquals(String.format("%06d", num), new String(bytes, 0, 6));
+		}
+		// more digits than asked for are all written
+		assertEquals(10, TimeBasedOneTimePasswordUtil.formatNumber(Integer.MAX_VALUE, 6, chars, 0));
+		assertEquals(Integer.toString(Integer.MAX_VALUE), new String(chars, 0, 10));
+		assertEquals("2147483647", TimeBasedOneTimePasswordUtil.zeroPrepend(Integer.MAX_VALUE, 6));
+		assertEquals("000000000000", TimeBasedOneTimePasswordUtil.zeroPrepend(0, 12));
+		try {
+			TimeBasedOneTimePasswordUtil.formatNumber(123, 6, chars, 7);
+			fail("should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+		try {
+			TimeBasedOneTimePasswordUtil.formatNumber(-1, 6, chars, 0);
+			fail("should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testParseCode() {
+		assertEquals(64088, TimeBasedOneTimePasswordUtil.parseCode("064088", 6));
+		assertEquals(7, TimeBasedOneTimePasswordUtil.parseCode("7", 6));
+		assertEquals(TimeBasedOneTimePasswordUtil.INVALID_CODE, TimeBasedOneTimePasswordUtil.parseCode("", 6));
+		assertEquals(TimeBasedOneTimePasswordUtil.INVALID_CODE, TimeBasedOneTimePasswordUtil.parseCode("1234567", 6));
+		assertEquals(TimeBasedOneTimePasswordUtil.INVALID_CODE, TimeBasedOneTimePasswordUtil.parseCode("-12345", 6));
+		assertEquals(TimeBasedOneTimePasswordUtil.INVALID_CODE, TimeBasedOneTimePasswordUtil.parseCode("12 345", 6));
+		assertEquals(TimeBasedOneTimePasswordUtil.INVALID_CODE,
+				TimeBasedOneTimePasswordUtil.parseCode("9999999999", 10));
+		byte[] bytes = "x123456".getBytes();
+		assertEquals(123456, TimeBasedOneTimePasswordUtil.parseCode(bytes, 1, 6, 6));
+		assertEquals(TimeBasedOneTimePasswordUtil.INVALID_CODE, TimeBasedOneTimePasswordUtil.parseCode(bytes, 0, 6, 6));
+		assertEquals(1234567890, TimeBasedOneTimePasswordUtil.parseCode("1234567890", 10));
+		assertEquals(1234567890, TimeBasedOneTimePasswordUtil.parseCode("1234567890".getBytes(), 0, 10, 10));
+		assertEquals(Integer.MAX_VALUE, TimeBasedOneTimePasswordUtil.parseCode("002147483647", 12));
+		assertEquals(TimeBasedOneTimePasswordUtil.INVALID_CODE,
+				TimeBasedOneTimePasswordUtil.parseCode("2147483648", 10));
+		assertEquals(TimeBasedOneTimePasswordUtil.INVALID_CODE,
+				TimeBasedOneTimePasswordUtil.parseCode("99999999999999999999", 20));
+	}
+
+	@Test
+	public void testTenDigitCodes() throws GeneralSecurityException {
+		String secret = "NY4A5CPJZ46LXZCP";
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		TotpKey key = TotpKey.fromBase32(secret);
+		for (long timeMillis = 0; timeMillis < 3000000L; timeMillis += 30000L) {
+			String code = TimeBasedOneTimePasswordUtil.generateNumberString(secret, timeMillis, step, 10);
+			assertEquals(10, code.length());
+			long rejected = TimeBasedOneTimePasswordUtil.getRejectedCodeCount();
+			assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, code, 0, timeMillis, step, 10));
+			assertTrue(key.validateCurrentNumber(code.getBytes(), 0, code.length(), 0, timeMillis, step, 10));
+			assertEquals(rejected, TimeBasedOneTimePasswordUtil.getRejectedCodeCount());
+		}
+	}
+
+	@Test
+	public void testAlgorithms() throws GeneralSecurityException {
+		String secret = "NY4A5CPJZ46LXZCP";
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		assertEquals(TimeBasedOneTimePasswordUtil.generateNumber(secret, 7451000L, step, 6),
+				TimeBasedOneTimePasswordUtil.generateNumber(secret, 7451000L, step, 6, TotpAlgorithm.SHA1));
+		for (TotpAlgorithm algorithm : TotpAlgorithm.values()) {
+			TotpKey key = TotpKey.fromBase32(secret, algorithm);
+			assertEquals(algorithm, key.getAlgorithm());
+			int number = key.generateNumber(7451000L, step, 6);
+			assertEquals(number,
+					TimeBasedOneTimePasswordUtil.generateNumber(secret, 7451000L, step, 6, algorithm));
+			assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, number, 30000, 7451000L, step, 6,
+					algorithm));
+			assertTrue(key.validateCurrentNumber(number, 0, 7451000L, step, 6));
+		}
+		// the numbers are different for the other algorithms
+		assertEquals(325893, TimeBasedOneTimePasswordUtil.generateNumber(secret, 7451000L, step, 6));
+		assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, 325893, 0, 7451000L, step, 6,
+				TotpAlgorithm.SHA512));
+
+		assertEquals("otpauth://totp/key%3Fsecret%3D" + secret + "%26digits%3D6",
+				TimeBasedOneTimePasswordUtil.generateOtpAuthUrl("key", secret, 6, TotpAlgorithm.SHA1));
+		assertEquals("otpauth://totp/key%3Fsecret%3D" + secret + "%26digits%3D6%26algorithm%3DSHA256",
+				TimeBasedOneTimePasswordUtil.generateOtpAuthUrl("key", secret, 6, TotpAlgorithm.SHA256));
+		assertTrue(TimeBasedOneTimePasswordUtil.qrImageUrl("key", secret, 8, 300, TotpAlgorithm.SHA512)
+				.endsWith("%26digits%3D8%26algorithm%3DSHA512"));
+	}
+
+	@Test
+	public void testQrImage() throws Exception {
+		String secret = "NY4A5CPJZ46LXZCP";
+		String keyId = "user@j256.com";
+		// the query part is not escaped in the local image
+		QrCode code = TimeBasedOneTimePasswordUtil.qrCode(keyId, secret, 6, TotpAlgorithm.SHA1);
+		assertEquals("otpauth://totp/user@j256.com?secret=NY4A5CPJZ46LXZCP&digits=6",
+				new String(QrCodeTest.decode(code, new int[] { 6, 26 }, 2, 18), "UTF-8"));
+		code = TimeBasedOneTimePasswordUtil.qrCode(keyId, secret, 6, TotpAlgorithm.SHA256);
+		assertEquals("otpauth://totp/user@j256.com?secret=NY4A5CPJZ46LXZCP&digits=6&algorithm=SHA256",
+				new String(QrCodeTest.decode(code, new int[] { 6, 30 }, 2, 24), "UTF-8"));
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TimeBasedOneTimePasswordUtil.writeQrImagePng(keyId, secret, output);
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(output.toByteArray()));
+		assertEquals(TimeBasedOneTimePasswordUtil.DEFAULT_QR_DIMENTION, image.getWidth());
+		assertEquals(TimeBasedOneTimePasswordUtil.DEFAULT_QR_DIMENTION, image.getHeight());
+		output.reset();
+		TimeBasedOneTimePasswordUtil.writeQrImagePng(keyId, secret, 8, 300, TotpAlgorithm.SHA512, output);
+		assertEquals(300, ImageIO.read(new ByteArrayInputStream(output.toByteArray())).getWidth());
+
+		assertEquals(TimeBasedOneTimePasswordUtil.qrCode(keyId, secret, 6, TotpAlgorithm.SHA1).toSvg(200),
+				TimeBasedOneTimePasswordUtil.qrImageSvg(keyId, secret));
+		assertTrue(TimeBasedOneTimePasswordUtil.qrImageSvg(keyId, secret, 8, 300, TotpAlgorithm.SHA512)
+				.startsWith("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"300\" height=\"300\""));
+	}
+
+	@Test
+	public void testRejectMalformed() throws GeneralSecurityException {
+		final AtomicInteger acquireCount = new AtomicInteger();
+		TimeBasedOneTimePasswordUtil.setMacSource(new MacSource() {
+			@Override
+			public Mac acquire(String algorithm) throws GeneralSecurityException {
+				acquireCount.incrementAndGet();
+				return Mac.getInstance(algorithm);
+			}
+
+			@Override
+			public void release(Mac mac) {
+			}
+		});
+		try {
+			String secret = "NY4A5CPJZ46LXZCP";
+			int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+			long rejected = TimeBasedOneTimePasswordUtil.getRejectedCodeCount();
+			assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, -1, 90000, 7451000L, step, 6));
+			assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, 1000000, 90000, 7451000L, step, 6));
+			assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, Integer.MAX_VALUE, 90000, 7451000L,
+					step, 6));
+			assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, "abcdef", 90000, 7451000L, step, 6));
+			assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, "1234567", 90000, 7451000L, step, 6));
+			assertFalse(TotpKey.fromBase32(secret).validateCurrentNumber(-325893, 90000, 7451000L, step, 6));
+			assertEquals(0, acquireCount.get());
+			assertEquals(rejected + 6, TimeBasedOneTimePasswordUtil.getRejectedCodeCount());
+
+			// real numbers still get checked
+			assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, 325893, 0, 7451000L, step, 6));
+			assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, 89325893, 0, 7451000L, step, 8));
+			assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, 999999, 0, 7451000L, step, 6));
+			assertTrue(acquireCount.get() > 0);
+			assertEquals(rejected + 6, TimeBasedOneTimePasswordUtil.getRejectedCodeCount());
+		} finally {
+			TimeBasedOneTimePasswordUtil.setMacSource(null);
+		}
+	}
+
+	@Test
+	public void testValidateCode() throws GeneralSecurityException {
+		String secret = "NY4A5CPJZ46LXZCP";
+		String hexSecret = "6E380E89E9CF3CBBE44F";
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, "325893", 0, 7451000L, step, 6));
+		assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, "162123", 15001, 7455000L, step, 6));
+		assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, "325894", 0, 7451000L, step, 6));
+		assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, "32589x", 0, 7451000L, step, 6));
+		assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumberHex(hexSecret, "325893", 0, 7451000L, step, 6));
+		assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumberHex(hexSecret, "", 0, 7451000L, step, 6));
+		assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret,
+				TimeBasedOneTimePasswordUtil.generateCurrentNumberString(secret), 0));
+		assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumberHex(hexSecret,
+				TimeBasedOneTimePasswordUtil.generateCurrentNumberStringHex(hexSecret), 0));
+	}
+
 	@Test
 	public void testDecodeBase32() {
 		Random random = new Random();
@@ -224,6 +411,85 @@ public class TimeBasedOneTimePasswordUtilTest {
 				TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS));
 	}
 
+	@Test
+	public void testValidateOffset() throws GeneralSecurityException {
+		String secret = "NY4A5CPJZ46LXZCP";
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		assertEquals(0, TimeBasedOneTimePasswordUtil.validateCurrentNumberOffset(secret, 325893, 0, 7455000, step, 6));
+		assertEquals(TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET,
+				TimeBasedOneTimePasswordUtil.validateCurrentNumberOffset(secret, 948323, 0, 7455000, step, 6));
+		assertEquals(1,
+				TimeBasedOneTimePasswordUtil.validateCurrentNumberOffset(secret, 948323, 15000, 7455000, step, 6));
+		assertEquals(-1,
+				TimeBasedOneTimePasswordUtil.validateCurrentNumberOffset(secret, 162123, 15001, 7455000, step, 6));
+		assertEquals(0, TimeBasedOneTimePasswordUtil.validateCurrentNumberOffset(secret,
+				TimeBasedOneTimePasswordUtil.generateCurrentNumber(secret), 10000));
+
+		String hexSecret = "3132333435363738393031323334353637383930";
+		assertEquals(-2, TimeBasedOneTimePasswordUtil.validateCurrentNumberOffsetHex(hexSecret, 94287082, 60000,
+				59000 + 60000, step, 8));
+
+		TotpKey key = TotpKey.fromBase32(secret);
+		assertEquals(1, key.validateCurrentNumberOffset(948323, 15000, 7455000, step, 6));
+		assertEquals(TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET, key.validateCurrentNumberOffset(1, 15000));
+		assertEquals(0, key.validateCurrentNumberOffset(key.generateCurrentNumber(), 10000));
+	}
+
+	@Test
+	public void testAsymmetricWindow() throws GeneralSecurityException {
+		String secret = "NY4A5CPJZ46LXZCP";
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		// 162123 is the previous step, 948323 the next one
+		assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, 162123, 15001, 0, 7455000, step, 6));
+		assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, 948323, 15001, 0, 7455000, step, 6));
+		assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, 162123, 0, 15000, 7455000, step, 6));
+		assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, 948323, 0, 15000, 7455000, step, 6));
+		assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, 325893, 0, 0, 7455000, step, 6));
+
+		String hexSecret = "3132333435363738393031323334353637383930";
+		assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumberHex(hexSecret, 94287082, 60000, 0, 119000, step,
+				8));
+		assertFalse(TimeBasedOneTimePasswordUtil.validateCurrentNumberHex(hexSecret, 94287082, 30000, 60000, 119000,
+				step, 8));
+
+		TotpKey key = TotpKey.fromBase32(secret);
+		assertTrue(key.validateCurrentNumber(162123, 15001, 0, 7455000, step, 6));
+		assertFalse(key.validateCurrentNumber(948323, 15001, 0, 7455000, step, 6));
+	}
+
+	@Test
+	public void testWindowSearchOrder() throws GeneralSecurityException {
+		String secret = TimeBasedOneTimePasswordUtil.generateBase32Secret();
+		TotpKey key = TotpKey.fromBase32(secret);
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		long window = 3 * step * 1000;
+		long now = 7455000L;
+		try {
+			for (WindowSearchOrder order : WindowSearchOrder.values()) {
+				TimeBasedOneTimePasswordUtil.setWindowSearchOrder(order);
+				for (int offset = -4; offset <= 4; offset++) {
+					int number = key.generateNumber(now + offset * step * 1000L, step, 6);
+					int expected = (Math.abs(offset) <= 3 ? offset : TimeBasedOneTimePasswordUtil.NO_MATCH_OFFSET);
+					int result =
+							TimeBasedOneTimePasswordUtil.validateCurrentNumberOffset(secret, number, window, now, step, 6);
+					// a number can also match another step in the window by chance
+					if (result != expected) {
+						assertEquals(number, key.generateNumber(now + result * step * 1000L, step, 6));
+					}
+					assertEquals(result, key.validateCurrentNumberOffset(number, window, now, step, 6));
+				}
+			}
+		} finally {
+			TimeBasedOneTimePasswordUtil.setWindowSearchOrder(WindowSearchOrder.CENTER_OUT);
+		}
+		try {
+			TimeBasedOneTimePasswordUtil.setWindowSearchOrder(null);
+			fail("should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+
 	@Test
 	public void testHexWindow() throws GeneralSecurityException {
 		String hexSecret = TimeBasedOneTimePasswordUtil.generateHexSecret();
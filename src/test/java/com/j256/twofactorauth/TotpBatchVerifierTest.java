@@ -0,0 +1,136 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class TotpBatchVerifierTest {
+
+	private static final int STEP = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+	private static final int DIGITS = TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH;
+
+	@Test
+	public void testSequential() throws GeneralSecurityException {
+		testBatch(new TotpBatchVerifier(), 100);
+	}
+
+	@Test
+	public void testParallel() throws GeneralSecurityException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			testBatch(new TotpBatchVerifier(executor, 64), 1000);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testCurrentTime() throws GeneralSecurityException {
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		BitSet results = new TotpBatchVerifier().validate(new TotpKey[] { key, key },
+				new int[] { key.generateCurrentNumber(), -1 }, 10000);
+		assertEquals(true, results.get(0));
+		assertEquals(false, results.get(1));
+	}
+
+	@Test
+	public void testKeyCache() throws GeneralSecurityException {
+		TotpKeyCache cache = new TotpKeyCache();
+		TimeBasedOneTimePasswordUtil.setKeyCache(cache);
+		try {
+			String[] secrets = new String[] { "NY4A5CPJZ46LXZCP", "NY4A5CPJZ46LXZCP" };
+			BitSet results = new TotpBatchVerifier().validateBase32(secrets, new int[] { 325893, 1 }, 0, 7451000L,
+					STEP, DIGITS);
+			assertEquals(true, results.get(0));
+			assertEquals(false, results.get(1));
+			// the second entry used the key that was prepared for the first
+			assertEquals(1, cache.getMissCount());
+			assertEquals(1, cache.getHitCount());
+
+			String[] hexSecrets = new String[] { "3132333435363738393031323334353637383930" };
+			results = new TotpBatchVerifier().validateHex(hexSecrets, new int[] { 94287082 }, 0, 59000L, STEP, 8);
+			assertEquals(true, results.get(0));
+			assertEquals(2, cache.size());
+		} finally {
+			TimeBasedOneTimePasswordUtil.setKeyCache(null);
+		}
+	}
+
+	@Test
+	public void testBadArguments() throws GeneralSecurityException {
+		try {
+			new TotpBatchVerifier(null, 0);
+			fail("Should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+		try {
+			new TotpBatchVerifier().validate(new TotpKey[1], new int[2], 0);
+			fail("Should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testParallelException() throws GeneralSecurityException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			String[] secrets = new String[10];
+			for (int i = 0; i < secrets.length; i++) {
+				secrets[i] = "NY4A5CPJZ46LXZCP";
+			}
+			secrets[7] = "^";
+			new TotpBatchVerifier(executor, 2).validateBase32(secrets, new int[secrets.length], 0, 1000L, STEP,
+					DIGITS);
+			fail("Should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void testBatch(TotpBatchVerifier verifier, int numEntries) throws GeneralSecurityException {
+		Random random = new Random();
+		long timeMillis = 1234567890123L;
+		long windowMillis = 30000;
+		String[] secrets = new String[numEntries];
+		String[] hexSecrets = new String[numEntries];
+		TotpKey[] keys = new TotpKey[numEntries];
+		int[] numbers = new int[numEntries];
+		BitSet expected = new BitSet();
+		for (int i = 0; i < numEntries; i++) {
+			secrets[i] = TimeBasedOneTimePasswordUtil.generateBase32Secret();
+			keys[i] = TotpKey.fromBase32(secrets[i]);
+			hexSecrets[i] = TimeBasedOneTimePasswordUtil.generateHexSecret();
+			if (random.nextBoolean()) {
+				// a number from somewhere in the window
+				numbers[i] = keys[i].generateNumber(timeMillis + random.nextInt(60000) - 30000, STEP, DIGITS);
+			} else {
+				numbers[i] = random.nextInt(1000000);
+			}
+			if (TimeBasedOneTimePasswordUtil.validateCurrentNumber(secrets[i], numbers[i], windowMillis, timeMillis,
+					STEP)) {
+				expected.set(i);
+			}
+		}
+		assertEquals(expected, verifier.validate(keys, numbers, windowMillis, timeMillis, STEP, DIGITS));
+		assertEquals(expected, verifier.validateBase32(secrets, numbers, windowMillis, timeMillis, STEP, DIGITS));
+
+		BitSet expectedHex = new BitSet();
+		for (int i = 0; i < numEntries; i++) {
+			if (TimeBasedOneTimePasswordUtil.validateCurrentNumberHex(hexSecrets[i], numbers[i], 0, timeMillis, STEP)) {
+				expectedHex.set(i);
+			}
+		}
+		assertEquals(expectedHex, verifier.validateHex(hexSecrets, numbers, 0, timeMillis, STEP, DIGITS));
+	}
+}
@@ -0,0 +1,95 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.GeneralSecurityException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TotpClockTest {
+
+	private static final String SECRET = "NY4A5CPJZ46LXZCP";
+
+	@After
+	public void after() {
+		TimeBasedOneTimePasswordUtil.setClock(null);
+	}
+
+	@Test
+	public void testFixedClock() throws GeneralSecurityException {
+		TimeBasedOneTimePasswordUtil.setClock(new FixedClock(7455000));
+		assertEquals(325893, TimeBasedOneTimePasswordUtil.generateCurrentNumber(SECRET));
+		assertEquals("325893", TimeBasedOneTimePasswordUtil.generateCurrentNumberString(SECRET));
+		assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(SECRET, 325893, 0));
+		assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(SECRET, 948323, 15000));
+		assertEquals(-1, TimeBasedOneTimePasswordUtil.validateCurrentNumberOffset(SECRET, 162123, 15001));
+
+		TotpKey key = TotpKey.fromBase32(SECRET);
+		assertEquals(325893, key.generateCurrentNumber());
+		assertEquals("325893", key.generateCurrentNumberString());
+		assertEquals(893, key.generateCurrentNumber(3));
+		assertTrue(key.validateCurrentNumber(325893, 0));
+		assertEquals(1, key.validateCurrentNumberOffset(948323, 15000));
+
+		UsedCodeRegistry registry = new UsedCodeRegistry();
+		assertTrue(registry.validateCurrentNumber("user", key, 325893, 0));
+		assertEquals(7455000 / 1000 / TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS,
+				registry.getLastUsedStep("user"));
+	}
+
+	@Test
+	public void testSystemClock() {
+		SystemTotpClock clock = new SystemTotpClock();
+		long before = System.currentTimeMillis();
+		long step = clock.currentTimeStep(30);
+		long after = System.currentTimeMillis();
+		assertTrue(step >= before / 30000 && step <= after / 30000);
+	}
+
+	@Test
+	public void testTickingClock() throws Exception {
+		TickingTotpClock clock = new TickingTotpClock(1);
+		try {
+			for (int i = 0; i < 3; i++) {
+				long before = System.currentTimeMillis() / 1000;
+				long step = clock.currentTimeStep(1);
+				long after = System.currentTimeMillis() / 1000;
+				// the ticker may be a little late after the boundary
+				assertTrue(step >= before - 1 && step <= after);
+				Thread.sleep(700);
+			}
+			// other step sizes go to the system clock
+			long before = System.currentTimeMillis() / 30000;
+			long step = clock.currentTimeStep(30);
+			long after = System.currentTimeMillis() / 30000;
+			assertTrue(step >= before && step <= after);
+		} finally {
+			clock.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTickingClockBadStep() {
+		new TickingTotpClock(0);
+	}
+
+	private static class FixedClock implements TotpClock {
+		private final long timeMillis;
+
+		public FixedClock(long timeMillis) {
+			this.timeMillis = timeMillis;
+		}
+
+		@Override
+		public long currentTimeMillis() {
+			return timeMillis;
+		}
+
+		@Override
+		public long currentTimeStep(int timeStepSeconds) {
+			return TimeBasedOneTimePasswordUtil.generateValue(timeMillis, timeStepSeconds);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+
+import org.junit.Test;
+
+public class TotpKeyCacheTest {
+
+	private static final int STEP = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+
+	@Test
+	public void testHitMiss() throws GeneralSecurityException {
+		TotpKeyCache cache = new TotpKeyCache();
+		TotpKey key = cache.getBase32("NY4A5CPJZ46LXZCP");
+		assertEquals(325893, key.generateNumber(7451000L, STEP, 6));
+		assertEquals(1, cache.getMissCount());
+		assertSame(key, cache.getBase32("NY4A5CPJZ46LXZCP"));
+		assertEquals(1, cache.getHitCount());
+
+		// same string as hex is a different secret
+		TotpKey hexKey = cache.getHex("3132333435363738393031323334353637383930");
+		assertEquals(94287082, hexKey.generateNumber(59000L, STEP, 8));
+		assertEquals(2, cache.getMissCount());
+		assertEquals(2, cache.size());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testEviction() {
+		TotpKeyCache cache = new TotpKeyCache(4, 1);
+		String[] secrets = new String[5];
+		for (int i = 0; i < secrets.length; i++) {
+			secrets[i] = TimeBasedOneTimePasswordUtil.generateBase32Secret();
+		}
+		for (int i = 0; i < 4; i++) {
+			cache.getBase32(secrets[i]);
+		}
+		// touch the first one so the second is the least recently used
+		cache.getBase32(secrets[0]);
+		cache.getBase32(secrets[4]);
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(4, cache.size());
+		long misses = cache.getMissCount();
+		cache.getBase32(secrets[0]);
+		assertEquals(misses, cache.getMissCount());
+		cache.getBase32(secrets[1]);
+		assertEquals(misses + 1, cache.getMissCount());
+	}
+
+	@Test
+	public void testInvalidNotCached() {
+		TotpKeyCache cache = new TotpKeyCache();
+		try {
+			cache.getBase32("0");
+			fail("should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testStaticMethods() throws GeneralSecurityException {
+		TotpKeyCache cache = new TotpKeyCache();
+		TimeBasedOneTimePasswordUtil.setKeyCache(cache);
+		try {
+			String secret = "NY4A5CPJZ46LXZCP";
+			assertEquals(325893, TimeBasedOneTimePasswordUtil.generateNumber(secret, 7451000L, STEP, 6));
+			assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumber(secret, 325893, 0, 7455000, STEP, 6));
+			assertEquals(1, TimeBasedOneTimePasswordUtil.validateCurrentNumberOffset(secret, 948323, 15000, 7455000,
+					STEP, 6));
+			assertEquals(1, cache.getMissCount());
+			assertEquals(2, cache.getHitCount());
+
+			String hexSecret = "3132333435363738393031323334353637383930";
+			assertEquals(94287082, TimeBasedOneTimePasswordUtil.generateNumberHex(hexSecret, 59000L, STEP, 8));
+			assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumberHex(hexSecret, 94287082, 0, 59000, STEP, 8));
+			assertEquals(2, cache.getMissCount());
+			assertEquals(3, cache.getHitCount());
+		} finally {
+			TimeBasedOneTimePasswordUtil.setKeyCache(null);
+		}
+	}
+
+	@Test
+	public void testAlgorithms() throws GeneralSecurityException {
+		TotpKeyCache cache = new TotpKeyCache();
+		TimeBasedOneTimePasswordUtil.setKeyCache(cache);
+		try {
+			// ascii "12345678901234567890123456789012" from appendix B of RFC 6238
+			String hexSecret = "3132333435363738393031323334353637383930313233343536373839303132";
+			TotpKey sha256Key = cache.getHex(hexSecret, TotpAlgorithm.SHA256);
+			assertEquals(TotpAlgorithm.SHA256, sha256Key.getAlgorithm());
+			assertSame(sha256Key, cache.getHex(hexSecret, TotpAlgorithm.SHA256));
+			// same secret but a different algorithm is a different key
+			TotpKey sha1Key = cache.getHex(hexSecret);
+			assertEquals(TotpAlgorithm.SHA1, sha1Key.getAlgorithm());
+			assertEquals(2, cache.size());
+			assertEquals(46119246, TimeBasedOneTimePasswordUtil.generateNumberHex(hexSecret, 59000L, STEP, 8,
+					TotpAlgorithm.SHA256));
+			assertTrue(TimeBasedOneTimePasswordUtil.validateCurrentNumberHex(hexSecret, 46119246, 0, 59000, STEP, 8,
+					TotpAlgorithm.SHA256));
+			assertEquals(2, cache.getMissCount());
+			assertEquals(3, cache.getHitCount());
+			cache.clear();
+			assertEquals(0, cache.size());
+		} finally {
+			TimeBasedOneTimePasswordUtil.setKeyCache(null);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TotpKeyTest {
+
+	@Test
+	public void testKnownSecretTimeCodes() throws GeneralSecurityException {
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		assertEquals(748810, key.generateNumber(1000L, step, 6));
+		assertEquals(325893, key.generateNumber(7451000L, step, 6));
+		assertEquals("064088", key.generateNumberString(15451000L, step, 6));
+		assertEquals("000000", key.generateNumberString(2125701285964551130L, step, 6));
+		assertEquals("05993908", key.generateNumberString(5964551130L, step, 8));
+		assertEquals(89325893, key.generateNumber(7451000L, step, 8));
+	}
+
+	@Test
+	public void testMatchesStaticMethods() throws GeneralSecurityException {
+		Random random = new Random();
+		String secret = TimeBasedOneTimePasswordUtil.generateBase32Secret();
+		String hexSecret = TimeBasedOneTimePasswordUtil.generateHexSecret();
+		TotpKey key = TotpKey.fromBase32(secret);
+		TotpKey hexKey = TotpKey.fromHex(hexSecret);
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		for (int i = 0; i < 1000; i++) {
+			long now = random.nextLong() & Long.MAX_VALUE;
+			assertEquals(TimeBasedOneTimePasswordUtil.generateNumber(secret, now, step), key.generateNumber(now, step,
+					TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH));
+			assertEquals(TimeBasedOneTimePasswordUtil.generateNumberHex(hexSecret, now, step),
+					hexKey.generateNumber(now, step, TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH));
+		}
+	}
+
+	@Test
+	public void testValidate() throws GeneralSecurityException {
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		assertTrue(key.validateCurrentNumber(325893, 0, 7455000, step, 6));
+		assertFalse(key.validateCurrentNumber(948323, 0, 7455000, step, 6));
+		assertFalse(key.validateCurrentNumber(948323, 14999, 7455000, step, 6));
+		assertTrue(key.validateCurrentNumber(948323, 15000, 7455000, step, 6));
+		assertFalse(key.validateCurrentNumber(162123, 15000, 7455000, step, 6));
+		assertTrue(key.validateCurrentNumber(162123, 15001, 7455000, step, 6));
+
+		int number = key.generateCurrentNumber();
+		assertTrue(key.validateCurrentNumber(number, 10000));
+		assertEquals(3, key.generateCurrentNumberString(3).length());
+		assertEquals(TimeBasedOneTimePasswordUtil.DEFAULT_OTP_LENGTH, key.generateCurrentNumberString().length());
+		assertTrue(key.generateCurrentNumber(3) < 1000);
+	}
+
+	@Test
+	public void testKeyCopied() throws GeneralSecurityException {
+		byte[] bytes = TimeBasedOneTimePasswordUtil.decodeBase32("NY4A5CPJZ46LXZCP");
+		TotpKey key = new TotpKey(bytes);
+		bytes[0]++;
+		assertEquals(325893, key.generateNumber(7451000L, TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, 6));
+	}
+
+	@Test
+	public void testMultipleThreads() throws Exception {
+		final TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 1000; j++) {
+							assertEquals(325893, key.generateNumber(7451000L,
+									TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS, 6));
+						}
+					} catch (Throwable th) {
+						failure.set(th);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+	}
+
+	@Test
+	public void testCodes() throws GeneralSecurityException {
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		char[] chars = new char[8];
+		assertEquals(6, key.generateNumber(15451000L, step, 6, chars, 1));
+		assertEquals("064088", new String(chars, 1, 6));
+		byte[] bytes = new byte[6];
+		assertEquals(6, key.generateNumber(2125701285964551130L, step, 6, bytes, 0));
+		assertEquals("000000", new String(bytes));
+		assertEquals(6, key.generateCurrentNumber(chars, 0));
+		assertEquals(key.generateCurrentNumberString(), new String(chars, 0, 6));
+
+		assertTrue(key.validateCurrentNumber("064088", 0, 15451000L, step, 6));
+		// leading zeros can be left off like the int methods
+		assertTrue(key.validateCurrentNumber("64088", 0, 15451000L, step, 6));
+		assertTrue(key.validateCurrentNumber(new StringBuilder("064088"), 0, 15451000L, step, 6));
+		assertFalse(key.validateCurrentNumber("064089", 0, 15451000L, step, 6));
+		assertFalse(key.validateCurrentNumber("0064088", 0, 15451000L, step, 6));
+		assertFalse(key.validateCurrentNumber("06408a", 0, 15451000L, step, 6));
+		assertFalse(key.validateCurrentNumber("", 0, 15451000L, step, 6));
+		byte[] code = " 064088 ".getBytes();
+		assertTrue(key.validateCurrentNumber(code, 1, 6, 0, 15451000L, step, 6));
+		assertFalse(key.validateCurrentNumber(code, 0, 7, 0, 15451000L, step, 6));
+		assertTrue(key.validateCurrentNumber(key.generateCurrentNumberString(), 0));
+		assertTrue(key.validateCurrentNumber(key.generateCurrentNumberString().getBytes(), 0, 6, 0));
+	}
+
+	@Test
+	public void testNoAllocations() throws GeneralSecurityException {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+		Assume.assumeTrue(sunThreadBean.isThreadAllocatedMemorySupported());
+		sunThreadBean.setThreadAllocatedMemoryEnabled(true);
+
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		long threadId = Thread.currentThread().getId();
+		char[] chars = new char[6];
+		byte[] code = "325893".getBytes();
+		int numIterations = 10000;
+		int total = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			// the first pass warms up the thread-local scratch buffers
+			long before = sunThreadBean.getThreadAllocatedBytes(threadId);
+			for (int i = 0; i < numIterations; i++) {
+				total += key.generateNumber(7451000L + i * 1000L, step, 6);
+				if (key.validateCurrentNumber(i, 60000, 7455000L, step, 6)) {
+					total++;
+				}
+				total += key.generateNumber(7451000L + i * 1000L, step, 6, chars, 0);
+				if (key.validateCurrentNumber(code, 0, code.length, 60000, 7455000L, step, 6)) {
+					total++;
+				}
+			}
+			long allocated = sunThreadBean.getThreadAllocatedBytes(threadId) - before;
+			if (pass == 1) {
+				// allow for some noise from the bean itself but not a byte per call
+				assertTrue("allocated " + allocated + " bytes", allocated < numIterations);
+			}
+		}
+		assertTrue(total > 0);
+	}
+}
@@ -0,0 +1,76 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.GeneralSecurityException;
+
+import org.junit.Test;
+
+public class TotpPrecomputerTest {
+
+	private static final int STEP = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+
+	@Test
+	public void testPrecomputed() throws GeneralSecurityException {
+		TotpKey[] keys = new TotpKey[] { TotpKey.fromBase32("NY4A5CPJZ46LXZCP"),
+				TotpKey.fromBase32(TimeBasedOneTimePasswordUtil.generateBase32Secret()) };
+		TotpPrecomputer precomputer = new TotpPrecomputer(keys, STEP, 6, 2000, null);
+		try {
+			// 7455000 is 15 seconds into the step so this calculates the previous, current, and next steps
+			precomputer.refresh(7455000);
+			assertTrue(precomputer.validateCurrentNumber(0, 325893, 0, 7455000));
+			assertTrue(precomputer.validateCurrentNumber(0, 162123, 15001, 7455000));
+			// a code from the next step in the middle of the interval
+			assertTrue(precomputer.validateCurrentNumber(0, 948323, 15000, 7455000));
+			assertEquals(3, precomputer.getPrecomputedCount());
+			assertFalse(precomputer.validateCurrentNumber(0, 1, 30000, 7455000));
+			assertEquals(1, precomputer.getPrecomputedMissCount());
+			// malformed codes are not counted
+			assertFalse(precomputer.validateCurrentNumber(0, -1, 30000, 7455000));
+			assertEquals(3, precomputer.getPrecomputedCount());
+			assertEquals(1, precomputer.getPrecomputedMissCount());
+			assertEquals(0, precomputer.getCalculatedCount());
+
+			// two steps ahead has not been calculated yet
+			int twoAhead = keys[0].generateNumber(7455000 + 2 * STEP * 1000, STEP, 6);
+			assertTrue(precomputer.validateCurrentNumber(0, twoAhead, 45000, 7455000));
+			assertEquals(1, precomputer.getCalculatedCount());
+
+			// within the lead of the boundary, the step after the next is calculated so the table rolls forward
+			precomputer.refresh(7469000);
+			assertTrue(precomputer.validateCurrentNumber(0, twoAhead, 30000, 7470000));
+			assertEquals(4, precomputer.getPrecomputedCount());
+			assertEquals(1, precomputer.getCalculatedCount());
+
+			for (int i = 0; i < keys.length; i++) {
+				for (long time = 7469000 - STEP * 1000; time <= 7469000 + 2 * STEP * 1000; time += 1000) {
+					int number = keys[i].generateNumber(time, STEP, 6);
+					assertTrue(precomputer.validateCurrentNumber(i, number, 0, time));
+				}
+			}
+			assertEquals(1, precomputer.getCalculatedCount());
+		} finally {
+			precomputer.close();
+		}
+	}
+
+	@Test
+	public void testStart() throws Exception {
+		TotpKey key = TotpKey.fromBase32(TimeBasedOneTimePasswordUtil.generateBase32Secret());
+		TotpPrecomputer precomputer = new TotpPrecomputer(new TotpKey[] { key });
+		try {
+			precomputer.start();
+			assertTrue(precomputer.validateCurrentNumber(0, key.generateCurrentNumber(), 0));
+			assertEquals(1, precomputer.getPrecomputedCount());
+		} finally {
+			precomputer.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLeadTooLong() {
+		new TotpPrecomputer(new TotpKey[0], STEP, 6, STEP * 1000, null);
+	}
+}
@@ -0,0 +1,155 @@
+package com.j256.twofactorauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class UsedCodeRegistryTest {
+
+	@Test
+	public void testMarkUsed() {
+		UsedCodeRegistry registry = new UsedCodeRegistry();
+		assertEquals(-1, registry.getLastUsedStep("user1"));
+		assertTrue(registry.markUsed("user1", 100));
+		assertEquals(100, registry.getLastUsedStep("user1"));
+		// same step is a replay
+		assertFalse(registry.markUsed("user1", 100));
+		// earlier step is rejected
+		assertFalse(registry.markUsed("user1", 99));
+		assertTrue(registry.markUsed("user1", 101));
+		assertEquals(101, registry.getLastUsedStep("user1"));
+		// other users are separate
+		assertTrue(registry.markUsed("user2", 100));
+		assertEquals(2, registry.size());
+	}
+
+	@Test
+	public void testValidate() throws GeneralSecurityException {
+		UsedCodeRegistry registry = new UsedCodeRegistry();
+		TotpKey key = TotpKey.fromBase32("NY4A5CPJZ46LXZCP");
+		int step = TimeBasedOneTimePasswordUtil.DEFAULT_TIME_STEP_SECONDS;
+		assertFalse(registry.validateCurrentNumber("user", key, 1, 15000, 7455000, step, 6));
+		assertTrue(registry.validateCurrentNumber("user", key, 325893, 15000, 7455000, step, 6));
+		assertEquals(7455000 / 1000 / step, registry.getLastUsedStep("user"));
+		// replay is rejected
+		assertFalse(registry.validateCurrentNumber("user", key, 325893, 15000, 7455000, step, 6));
+		// previous step is rejected even though it is in the window
+		assertFalse(registry.validateCurrentNumber("user", key, 162123, 15001, 7455000, step, 6));
+		// next step is accepted
+		assertTrue(registry.validateCurrentNumber("user", key, 948323, 15000, 7455000, step, 6));
+
+		int number = key.generateCurrentNumber();
+		assertTrue(registry.validateCurrentNumber("user", key, number, 0));
+		assertFalse(registry.validateCurrentNumber("user", key, number, 0));
+	}
+
+	@Test
+	public void testSweep() {
+		UsedCodeRegistry registry = new UsedCodeRegistry(4, 10);
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(registry.markUsed("user" + i, 100));
+		}
+		assertEquals(1000, registry.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(100, registry.getLastUsedStep("user" + i));
+		}
+		// still within the retention
+		registry.sweep(110);
+		assertEquals(1000, registry.size());
+		registry.sweep(111);
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void testAutomaticSweep() {
+		UsedCodeRegistry registry = new UsedCodeRegistry(1, 10);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(registry.markUsed("user" + i, 100));
+		}
+		assertEquals(100, registry.size());
+		// each write only sweeps a couple of slots
+		assertTrue(registry.markUsed("another", 120));
+		assertTrue(registry.size() > 1);
+		// but the old entries are all gone after enough writes to cover the table and the removals
+		for (int i = 0; i < 2 * 256 / UserStepTable.SWEEP_SLOTS_PER_WRITE; i++) {
+			registry.markUsed("another", 121 + i);
+		}
+		assertEquals(1, registry.size());
+		assertEquals(120 + 2 * 256 / UserStepTable.SWEEP_SLOTS_PER_WRITE, registry.getLastUsedStep("another"));
+	}
+
+	@Test
+	public void testSweepKeepsNewEntries() {
+		UsedCodeRegistry registry = new UsedCodeRegistry(1, 10);
+		// old and new entries mixed together in the probe runs
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(registry.markUsed("user" + i, (i % 2 == 0 ? 100 : 115)));
+		}
+		for (int i = 0; i < 2 * 2048 / UserStepTable.SWEEP_SLOTS_PER_WRITE; i++) {
+			registry.markUsed("another", 115);
+		}
+		assertEquals(501, registry.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals((i % 2 == 0 ? -1 : 115), registry.getLastUsedStep("user" + i));
+		}
+	}
+
+	@Test
+	public void testManyStripes() {
+		UsedCodeRegistry registry = new UsedCodeRegistry(4096, 10);
+		for (int i = 0; i < 100000; i++) {
+			assertTrue(registry.markUsed("user" + i, 100));
+		}
+		assertEquals(100000, registry.size());
+		for (int i = 0; i < 100000; i++) {
+			assertFalse(registry.markUsed("user" + i, 100));
+		}
+	}
+
+	@Test
+	public void testMultipleThreads() throws Exception {
+		final UsedCodeRegistry registry = new UsedCodeRegistry(8, 10);
+		final AtomicInteger accepted = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						if (registry.markUsed("user" + (j % 100), 1000 + j / 100)) {
+							accepted.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// each user/step pair is only accepted once no matter how many threads try
+		assertEquals(10000, accepted.get());
+	}
+
+	@Test
+	public void testBadArguments() {
+		try {
+			new UsedCodeRegistry(0, 10);
+			fail("Should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+		try {
+			new UsedCodeRegistry(1, 0);
+			fail("Should have thrown");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+}